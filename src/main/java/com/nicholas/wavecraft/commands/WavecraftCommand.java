@@ -5,8 +5,17 @@ import com.mojang.brigadier.arguments.IntegerArgumentType;
 import net.minecraft.commands.CommandSourceStack;
 import net.minecraft.commands.Commands;
 import net.minecraft.network.chat.Component;
+import com.mojang.blaze3d.systems.RenderSystem;
+import com.nicholas.wavecraft.debug.RayBenchmark;
 import com.nicholas.wavecraft.debug.SoundDebugger;
 import com.nicholas.wavecraft.sound.AcousticRayManager;
+import com.nicholas.wavecraft.sound.EmissionCoalescer;
+import com.nicholas.wavecraft.sound.EmissionScheduler;
+import com.nicholas.wavecraft.sound.ImageSourceEngine;
+import com.nicholas.wavecraft.sound.ImpulseResponseCache;
+import com.nicholas.wavecraft.sound.ListenerPathSet;
+import com.nicholas.wavecraft.sound.PathCache;
+import com.nicholas.wavecraft.sound.WorldTextureCache;
 import net.minecraft.server.level.ServerPlayer;
 import com.mojang.brigadier.arguments.FloatArgumentType;
 
@@ -150,6 +159,113 @@ public class WavecraftCommand {
                                         })
                                 )
                         )
+                        .then(Commands.literal("benchmarkRays")
+                                .executes(ctx -> {
+                                    // El trazado usa OpenGL, así que la medición se encola en el hilo de renderizado.
+                                    RenderSystem.recordRenderCall(RayBenchmark::runBatchBenchmark);
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Benchmark de rayos encolado en el hilo de renderizado"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkBounces")
+                                .executes(ctx -> {
+                                    RenderSystem.recordRenderCall(RayBenchmark::runBounceBenchmark);
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Comparativa de modos de trazado en GPU encolada en el hilo de renderizado"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("checkGpuTrace")
+                                .executes(ctx -> {
+                                    RenderSystem.recordRenderCall(RayBenchmark::runGpuParityCheck);
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Comparación de trayectorias GPU/CPU encolada en el hilo de renderizado"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkPyramid")
+                                .executes(ctx -> {
+                                    RayBenchmark.runPyramidBenchmark();
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Medición de la pirámide de ocupación iniciada en segundo plano"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkListener")
+                                .executes(ctx -> {
+                                    RayBenchmark.runListenerBenchmark();
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Comparativa de trazado por fuente y desde el oyente iniciada en segundo plano"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkImageSource")
+                                .executes(ctx -> {
+                                    RayBenchmark.runImageSourceBenchmark();
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Medición de fuentes imagen iniciada en segundo plano"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkSampling")
+                                .executes(ctx -> {
+                                    RayBenchmark.runSamplingBenchmark();
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Comparativa de generadores de direcciones iniciada en segundo plano"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("benchmarkVoxelize")
+                                .executes(ctx -> {
+                                    // Lee el mundo del cliente, así que se mide en su hilo (el de render) y lo bloquea unos segundos.
+                                    RenderSystem.recordRenderCall(RayBenchmark::runVoxelizeBenchmark);
+                                    ctx.getSource().sendSuccess(() -> Component.literal("Medición de voxelización encolada en el hilo del cliente"), true);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("coalescerStats")
+                                .executes(ctx -> {
+                                    EmissionCoalescer coalescer = EmissionCoalescer.getInstance();
+                                    long hits = coalescer.getHits(), misses = coalescer.getMisses();
+                                    String stats = String.format("IR reutilizadas: %d | Trazadas: %d | Tasa de acierto: %.1f%% | Entradas: %d",
+                                            hits, misses, hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), coalescer.getEntries());
+                                    ctx.getSource().sendSuccess(() -> Component.literal(stats), false);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("irCacheStats")
+                                .executes(ctx -> {
+                                    ImpulseResponseCache cache = ImpulseResponseCache.getInstance();
+                                    long hits = cache.getHits(), misses = cache.getMisses();
+                                    String stats = String.format("Aciertos: %d | Fallos: %d | Tasa de acierto: %.1f%% | Entradas: %d | Memoria: %d KB",
+                                            hits, misses, hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), cache.getEntries(), cache.getTotalBytes() / 1024);
+                                    ctx.getSource().sendSuccess(() -> Component.literal(stats), false);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("pathCacheStats")
+                                .executes(ctx -> {
+                                    PathCache cache = PathCache.getInstance();
+                                    long hits = cache.getHits(), misses = cache.getMisses();
+                                    String stats = String.format("Trayectorias recapturadas: %d | Trazadas: %d | Tasa de acierto: %.1f%% | Entradas: %d",
+                                            hits, misses, hits + misses == 0 ? 0.0 : 100.0 * hits / (hits + misses), cache.getEntries());
+                                    ctx.getSource().sendSuccess(() -> Component.literal(stats), false);
+                                    return 1;
+                                })
+                        )
+                        .then(Commands.literal("rayStats")
+                                .executes(ctx -> {
+                                    AcousticRayManager manager = AcousticRayManager.getInstance();
+                                    EmissionScheduler scheduler = EmissionScheduler.getInstance();
+                                    ListenerPathSet listenerPaths = ListenerPathSet.getInstance();
+                                    ImageSourceEngine imageSources = ImageSourceEngine.getInstance();
+                                    WorldTextureCache volume = WorldTextureCache.getInstance();
+                                    String stats = String.format("Lotes en vuelo: %d | Latencia último lote: %d frames | Latencia media: %.2f frames | Emisiones en cola: %d | Rayos último frame: %d | Emisiones degradadas: %d | Vértices útiles último lote: %.1f%% | Energía escapada último lote: %.1f%% | Conjuntos del oyente: %d | Fuentes resueltas: %d | Caminos última fuente: %d | Paredes: %d | Taps última fuente: %d | Volumen: %d regeneraciones, %d actualizaciones parciales, %d desplazamientos (último %.2f ms, %d KB subidos)",
+                                            manager.getBatchesInFlight(), manager.getLastBatchLatencyFrames(), manager.getAverageBatchLatencyFrames(),
+                                            scheduler.getQueuedEmissions(), scheduler.getLastFrameRays(), scheduler.getDegradedEmissions(),
+                                            100.0f * manager.getLastBatchVertexFraction(), 100.0f * manager.getLastBatchEscapedFraction(),
+                                            listenerPaths.getTraces(), listenerPaths.getResolvedSources(), listenerPaths.getLastConnections(),
+                                            imageSources.getPlaneCount(), imageSources.getLastTaps(),
+                                            volume.getFullRegenerations(), volume.getPartialUpdates(),
+                                            volume.getShifts(), volume.getLastShiftMillis(), volume.getLastUploadBytes() / 1024);
+                                    ctx.getSource().sendSuccess(() -> Component.literal(stats), false);
+                                    return 1;
+                                })
+                        )
                         .then(Commands.literal("setSoundRange") // <-- Nombre cambiado y más descriptivo
                                 .then(Commands.argument("multiplier", FloatArgumentType.floatArg(0.1f))
                                         .executes(context -> {
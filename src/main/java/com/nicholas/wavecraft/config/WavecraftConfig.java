@@ -10,6 +10,59 @@ public class WavecraftConfig {
 
     public static final ForgeConfigSpec COMMON_CONFIG;
     public static final ForgeConfigSpec.BooleanValue DEBUG_SHADER_OUTPUT;
+    public static final ForgeConfigSpec.EnumValue<RayTracerBackend> RAY_TRACER;
+    public static final ForgeConfigSpec.EnumValue<GpuTraceMode> GPU_TRACE_MODE;
+    public static final ForgeConfigSpec.BooleanValue PACKED_OCCUPANCY_TEXTURE;
+    public static final ForgeConfigSpec.EnumValue<BrickSkipping> CPU_BRICK_SKIPPING;
+    public static final ForgeConfigSpec.EnumValue<DirectionSampling> DIRECTION_SAMPLING;
+    public static final ForgeConfigSpec.IntValue RAY_BUDGET_PER_FRAME;
+    public static final ForgeConfigSpec.DoubleValue COALESCE_DISTANCE;
+    public static final ForgeConfigSpec.IntValue COALESCE_WINDOW_TICKS;
+    public static final ForgeConfigSpec.IntValue IR_CACHE_MAX_KB;
+    public static final ForgeConfigSpec.DoubleValue PATH_CACHE_DISTANCE;
+    public static final ForgeConfigSpec.IntValue PATH_CACHE_TICKS;
+    public static final ForgeConfigSpec.DoubleValue ENERGY_THRESHOLD;
+    public static final ForgeConfigSpec.BooleanValue RUSSIAN_ROULETTE;
+    public static final ForgeConfigSpec.DoubleValue ROULETTE_ENERGY;
+    public static final ForgeConfigSpec.EnumValue<TracingOrigin> TRACING_ORIGIN;
+    public static final ForgeConfigSpec.IntValue LISTENER_RAYS;
+    public static final ForgeConfigSpec.IntValue LISTENER_CONNECTIONS;
+    public static final ForgeConfigSpec.IntValue IMAGE_SOURCE_ORDER;
+    public static final ForgeConfigSpec.IntValue IMAGE_SOURCE_PLANES;
+    public static final ForgeConfigSpec.IntValue MIXING_TIME_MS;
+
+    /** Dónde se trazan los rayos acústicos. */
+    public enum RayTracerBackend {
+        GPU, // Transform Feedback sobre la textura 3D (hilo de render)
+        CPU  // DDA en Java sobre la rejilla empaquetada, en paralelo fuera del hilo de render
+    }
+
+    /** Cómo recorre la GPU los rebotes de cada rayo. */
+    public enum GpuTraceMode {
+        PER_VERTEX, // Un vértice por punto de la trayectoria; cada uno repite los rebotes desde el origen (coste cuadrático)
+        GEOMETRY    // Una invocación por rayo: el geometry shader emite todos sus puntos (coste lineal)
+    }
+
+    /** Qué ladrillos vacíos de la pirámide de ocupación salta de un paso el DDA en CPU. */
+    public enum BrickSkipping {
+        NONE,    // Vóxel a vóxel, sin consultar la pirámide (ni el escape al cielo, que va con los ladrillos de 16³)
+        BRICK16, // Solo los de 16³
+        ALL      // Los de 16³ y los de 4³
+    }
+
+    /** Desde dónde salen los rayos. */
+    public enum TracingOrigin {
+        SOURCE,  // Una emisión por sonido; las capturas se detectan al cruzar los planos del oyente
+        LISTENER // Un conjunto de trayectorias desde el oyente, compartido por todas las fuentes (ver ListenerPathSet)
+    }
+
+    /** Cómo se reparten las direcciones de los rayos de una emisión. */
+    public enum DirectionSampling {
+        RANDOM,     // Muestras uniformes independientes
+        FIBONACCI,  // Espiral de Fibonacci con rotación aleatoria
+        HALTON,     // Halton (bases 2 y 3) con rotación aleatoria
+        STRATIFIED  // Celdas de igual área con jitter
+    }
 
     static {
         ForgeConfigSpec.Builder builder = new ForgeConfigSpec.Builder();
@@ -18,6 +71,86 @@ public class WavecraftConfig {
                 .comment("Muestra la salida del shader de rayos por consola")
                 .define("debugShaderOutput", false);
 
+        RAY_TRACER = builder
+                .comment("Backend de trazado de rayos: GPU (shader) o CPU (DDA en paralelo)")
+                .defineEnum("rayTracer", RayTracerBackend.GPU);
+
+        GPU_TRACE_MODE = builder
+                .comment("Trazado en GPU: PER_VERTEX (el modo probado) o GEOMETRY (un rayo por invocación, coste lineal en rebotes; experimental, comprobar antes con /wc benchmarkBounces)")
+                .defineEnum("gpuTraceMode", GpuTraceMode.PER_VERTEX);
+
+        PACKED_OCCUPANCY_TEXTURE = builder
+                .comment("Textura del volumen para la GPU: false = RGBA8 con un texel por vóxel (el formato probado); true = ocupación R32UI con 32 vóxeles por texel y absorción R8 aparte (experimental, comprobar antes con /wc checkGpuTrace). Se lee al iniciar")
+                .define("packedOccupancyTexture", false);
+
+        CPU_BRICK_SKIPPING = builder
+                .comment("Ladrillos vacíos que salta el DDA en CPU: NONE, BRICK16 o ALL (4³ y 16³). No cambia las trayectorias, solo el coste (ver /wc benchmarkPyramid)")
+                .defineEnum("cpuBrickSkipping", BrickSkipping.NONE);
+
+        DIRECTION_SAMPLING = builder
+                .comment("Generador de direcciones de los rayos: RANDOM, FIBONACCI, HALTON o STRATIFIED (ver /wc benchmarkSampling)")
+                .defineEnum("directionSampling", DirectionSampling.FIBONACCI);
+
+        RAY_BUDGET_PER_FRAME = builder
+                .comment("Máximo de rayos que se emiten por frame; el resto de sonidos espera en cola por orden de audibilidad")
+                .defineInRange("rayBudgetPerFrame", 2000, 100, 100000);
+
+        COALESCE_DISTANCE = builder
+                .comment("Distancia máxima (bloques) de fuente y oyente para reutilizar la IR de una emisión reciente del mismo sonido (0 = desactivado)")
+                .defineInRange("coalesceDistance", 0.5, 0.0, 8.0);
+
+        COALESCE_WINDOW_TICKS = builder
+                .comment("Ticks durante los que una IR puede reutilizarse")
+                .defineInRange("coalesceWindowTicks", 40, 1, 1200);
+
+        IR_CACHE_MAX_KB = builder
+                .comment("Memoria máxima (KB) de la caché LRU de respuestas al impulso por celda de fuente y oyente (0 = desactivada)")
+                .defineInRange("irCacheMaxKb", 16384, 0, 262144);
+
+        PATH_CACHE_DISTANCE = builder
+                .comment("Distancia máxima (bloques) que puede moverse el oyente para recalcular la IR de un sonido repetido con sus trayectorias ya trazadas (0 = desactivado)")
+                .defineInRange("pathCacheDistance", 2.0, 0.0, 16.0);
+
+        PATH_CACHE_TICKS = builder
+                .comment("Ticks durante los que se guardan las trayectorias de una emisión")
+                .defineInRange("pathCacheTicks", 100, 1, 1200);
+
+        ENERGY_THRESHOLD = builder
+                .comment("Energía por debajo de la cual el trazador termina un rayo (sin ruleta rusa)")
+                .defineInRange("energyThreshold", 0.01, 0.0, 1.0);
+
+        RUSSIAN_ROULETTE = builder
+                .comment("Terminar los rayos débiles por ruleta rusa (sin sesgo) en lugar de cortarlos en energyThreshold")
+                .define("russianRoulette", true);
+
+        ROULETTE_ENERGY = builder
+                .comment("Energía por debajo de la cual un rayo entra en la ruleta rusa; si sobrevive, vuelve a esta energía")
+                .defineInRange("rouletteEnergy", 0.1, 0.001, 1.0);
+
+        TRACING_ORIGIN = builder
+                .comment("SOURCE: cada sonido traza sus propios rayos. LISTENER: se traza una vez desde el oyente (al moverse o cambiar el volumen) y cada fuente se conecta a esas trayectorias")
+                .defineEnum("tracingOrigin", TracingOrigin.SOURCE);
+
+        LISTENER_RAYS = builder
+                .comment("Rayos del conjunto de trayectorias del oyente en el modo LISTENER")
+                .defineInRange("listenerRays", 1024, 64, 20000);
+
+        LISTENER_CONNECTIONS = builder
+                .comment("Máximo aproximado de pruebas de visibilidad por fuente en el modo LISTENER; por encima se conecta uno de cada k rayos con peso k")
+                .defineInRange("listenerConnections", 4096, 256, 200000);
+
+        IMAGE_SOURCE_ORDER = builder
+                .comment("Órdenes de reflexión calculados exactos por fuentes imagen sobre las paredes del volumen (0 = desactivado); el trazado de rayos cubre el resto")
+                .defineInRange("imageSourceOrder", 2, 0, 2);
+
+        IMAGE_SOURCE_PLANES = builder
+                .comment("Paredes más cercanas a la fuente y al oyente que se prueban como primera y última reflexión")
+                .defineInRange("imageSourcePlanes", 128, 8, 2048);
+
+        MIXING_TIME_MS = builder
+                .comment("Tiempo de mezcla (ms) de la respuesta al impulso: antes, un tap por captura; después, la energía por intervalos de 10 ms se sintetiza como ruido (0 = solo taps)")
+                .defineInRange("mixingTimeMs", 80, 0, 2000);
+
         COMMON_CONFIG = builder.build();
     }
 
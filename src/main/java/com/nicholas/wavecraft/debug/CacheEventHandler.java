@@ -2,7 +2,8 @@ package com.nicholas.wavecraft.debug;
 
 import com.nicholas.wavecraft.sound.WorldTextureCache;
 import net.minecraft.client.Minecraft;
-import net.minecraft.world.level.ChunkPos;
+import net.minecraft.core.SectionPos;
+import net.minecraft.world.level.Level;
 import net.minecraftforge.api.distmarker.Dist;
 import net.minecraftforge.event.TickEvent;
 import net.minecraftforge.event.level.BlockEvent;
@@ -12,10 +13,11 @@ import net.minecraftforge.fml.common.Mod;
 @Mod.EventBusSubscriber(modid = "wavecraft", value = Dist.CLIENT)
 public class CacheEventHandler {
 
-    private static ChunkPos lastPlayerChunkPos = null;
+    private static SectionPos lastPlayerSectionPos = null;
+    private static Level lastLevel = null;
 
     /**
-     * Se ejecuta cada tick del cliente. Lo usaremos para detectar si el jugador ha cambiado de chunk.
+     * Se ejecuta cada tick del cliente. Lo usaremos para detectar si el jugador ha cambiado de sección de 16³.
      */
     @SubscribeEvent
     public static void onClientTick(TickEvent.ClientTickEvent event) {
@@ -24,13 +26,21 @@ public class CacheEventHandler {
         Minecraft mc = Minecraft.getInstance();
         if (mc.player == null) return;
 
-        ChunkPos currentPlayerChunkPos = mc.player.chunkPosition();
+        SectionPos currentPlayerSectionPos = SectionPos.of(mc.player.blockPosition());
 
-        if (lastPlayerChunkPos == null || !lastPlayerChunkPos.equals(currentPlayerChunkPos)) {
-            // El jugador ha cambiado de chunk, hay que invalidar la caché
-            WorldTextureCache.getInstance().invalidate();
-            lastPlayerChunkPos = currentPlayerChunkPos;
+        if (lastPlayerSectionPos == null || lastLevel != mc.player.level()) {
+            // Primera vez, mundo nuevo o cambio de dimensión: nada del volumen anterior vale, ni siquiera para
+            // seguir en servicio mientras se regenera, así que se retira y el nuevo se genera entero
+            WorldTextureCache.getInstance().levelChanged();
+            lastLevel = mc.player.level();
+        } else if (!lastPlayerSectionPos.equals(currentPlayerSectionPos)) {
+            // El jugador ha cambiado de sección: el volumen se desplaza y solo se muestrean las losas que entran
+            WorldTextureCache.getInstance().followPlayer(mc.player);
         }
+        lastPlayerSectionPos = currentPlayerSectionPos;
+
+        // Lanza la regeneración en segundo plano en cuanto hace falta y pone en servicio la que haya terminado
+        WorldTextureCache.getInstance().tick(mc.player);
     }
 
     /**
@@ -38,9 +48,8 @@ public class CacheEventHandler {
      */
     @SubscribeEvent
     public static void onBlockChanged(BlockEvent.NeighborNotifyEvent event) {
-        // Este evento se dispara mucho, pero es una forma robusta de detectar cambios.
-        // Podríamos añadir una comprobación para ver si el bloque está dentro del volumen
-        // de la textura, pero para empezar, invalidar siempre es seguro.
-        WorldTextureCache.getInstance().invalidate();
+        // Este evento se dispara mucho: solo se marca la sección de 16³ del bloque (si está dentro del volumen)
+        // y en el próximo uso se vuelve a muestrear únicamente lo que cambió.
+        WorldTextureCache.getInstance().markBlockDirty(event.getPos());
     }
 }
\ No newline at end of file
@@ -0,0 +1,680 @@
+package com.nicholas.wavecraft.debug;
+
+import com.nicholas.wavecraft.sound.AcousticRayManager;
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import com.nicholas.wavecraft.sound.CpuRayTracer;
+import com.nicholas.wavecraft.sound.DirectionSampler;
+import com.nicholas.wavecraft.sound.ImageSourceEngine;
+import com.nicholas.wavecraft.sound.ListenerPathSet;
+import com.nicholas.wavecraft.sound.RayImpulseCapture;
+import com.nicholas.wavecraft.sound.RayPathArena;
+import com.nicholas.wavecraft.sound.RayShaderHandler;
+import com.nicholas.wavecraft.sound.RayTermination;
+import com.nicholas.wavecraft.sound.VolumeSnapshot;
+import com.nicholas.wavecraft.sound.VoxelGrid;
+import com.nicholas.wavecraft.sound.WorldTextureCache;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.core.BlockPos;
+import net.minecraft.network.chat.Component;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+
+/**
+ * Mediciones de rendimiento del trazado de rayos que se lanzan desde /wc.
+ * Los resultados se imprimen en consola y en el chat del jugador.
+ */
+public class RayBenchmark {
+
+    private static final int[] BATCH_SIZES = { 10, 100, 1000, 5000 };
+    private static final int REPETITIONS = 5;
+
+    // Escenas sintéticas de los benchmarks en CPU
+    private static final int SCENE_SIZE = 128;
+    private static final int WARMUP_RUNS = 3;
+
+    // Comparativa de modos de trazado en GPU según el número de rebotes
+    private static final int[] BOUNCE_COUNTS = { 5, 10, 20, 30, 40 };
+    private static final int BOUNCE_BENCH_RAYS = 1000;
+
+    // Trayectorias de la GPU frente a CpuRayTracer sobre la misma rejilla
+    private static final int PARITY_RAYS = 2000;
+    private static final float PARITY_POSITION_TOLERANCE = 1e-2f; // Bloques; la GPU calcula en float
+    private static final float PARITY_ENERGY_TOLERANCE = 1e-3f;   // Relativa
+
+    // Pasos de DDA con y sin la pirámide de ocupación
+    private static final int PYRAMID_RAYS = 2000;
+
+    // Trazado por fuente frente a trazado inverso desde el oyente
+    private static final int[] LISTENER_SOURCE_COUNTS = { 1, 4, 16, 64 };
+    private static final int LISTENER_BENCH_RAYS = 1024;
+    private static final ResourceLocation TEST_SOUND = new ResourceLocation("wavecraft", "benchmark");
+
+    // Fuentes imagen: fuentes por escena
+    private static final int IMAGE_SOURCE_SOURCES = 16;
+
+    // Comparativa de generadores de direcciones
+    private static final int[] SAMPLING_RAY_COUNTS = { 100, 250, 500, 1000, 2000 };
+    private static final int SAMPLING_EMISSIONS = 16;
+
+    // Voxelización del mundo real alrededor del jugador
+    private static final int VOXELIZE_SIZE = 128;
+
+    /**
+     * Compara número de rayos frente a tiempo real del trazado por lotes en la GPU.
+     * Incluye la lectura del buffer de feedback, que es la parte que bloquea el hilo de render.
+     * Debe ejecutarse en el hilo de renderizado (p.ej. con RenderSystem.recordRenderCall).
+     */
+    public static void runBatchBenchmark() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) return;
+
+        Vec3 origin = player.getEyePosition();
+        Random random = new Random(1234L);
+        report(player, "[Wavecraft Bench] Trazado por lotes en GPU (" + AcousticRayManager.MAX_RAY_BOUNCES + " rebotes)");
+
+        for (int numRays : BATCH_SIZES) {
+            Vec3[] origins = new Vec3[numRays];
+            Vec3[] directions = new Vec3[numRays];
+            for (int i = 0; i < numRays; i++) {
+                directions[i] = randomDirection(random);
+                origins[i] = origin.add(directions[i].scale(0.1));
+            }
+
+            // Una pasada de calentamiento para que el buffer de feedback ya tenga el tamaño necesario.
+            RayShaderHandler.traceRays(player.level(), player, origins, directions, AcousticRayManager.MAX_RAY_BOUNCES);
+
+            long totalNanos = 0;
+            for (int rep = 0; rep < REPETITIONS; rep++) {
+                long start = System.nanoTime();
+                RayPathArena paths = RayShaderHandler.traceRays(player.level(), player, origins, directions, AcousticRayManager.MAX_RAY_BOUNCES);
+                totalNanos += System.nanoTime() - start;
+                if (paths.getNumRays() != numRays) {
+                    report(player, "  " + numRays + " rayos: el trazado no devolvió resultados (¿recursos sin inicializar?)");
+                    return;
+                }
+            }
+
+            double avgMs = totalNanos / (double) REPETITIONS / 1_000_000.0;
+            report(player, String.format("  %5d rayos: %8.3f ms por lote (%.2f µs por rayo)", numRays, avgMs, avgMs * 1000.0 / numRays));
+        }
+    }
+
+    /**
+     * Compara los dos modos de trazado en GPU para 5 a 40 rebotes con los mismos rayos: PER_VERTEX repite los
+     * rebotes anteriores en cada vértice (n(n+1)/2 pasos de DDA por rayo) y GEOMETRY recorre cada rayo una vez.
+     * También comprueba que ambos modos devuelven las mismas trayectorias.
+     * Debe ejecutarse en el hilo de renderizado.
+     */
+    public static void runBounceBenchmark() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) return;
+        if (!RayShaderHandler.isGeometryTracingAvailable()) {
+            report(player, "[Wavecraft Bench] El driver no enlazó el trazado por geometry shader; no hay nada que comparar.");
+            return;
+        }
+
+        Vec3 origin = player.getEyePosition();
+        Random random = new Random(1234L);
+        Vec3[] origins = new Vec3[BOUNCE_BENCH_RAYS];
+        Vec3[] directions = new Vec3[BOUNCE_BENCH_RAYS];
+        for (int i = 0; i < BOUNCE_BENCH_RAYS; i++) {
+            directions[i] = randomDirection(random);
+            origins[i] = origin.add(directions[i].scale(0.1));
+        }
+
+        report(player, "[Wavecraft Bench] Trazado en GPU por vértice frente a geometry shader (" + BOUNCE_BENCH_RAYS + " rayos)");
+        for (int bounces : BOUNCE_COUNTS) {
+            RayPathArena perVertex = RayShaderHandler.traceRays(player.level(), player, origins, directions, bounces, WavecraftConfig.GpuTraceMode.PER_VERTEX);
+            RayPathArena geometry = RayShaderHandler.traceRays(player.level(), player, origins, directions, bounces, WavecraftConfig.GpuTraceMode.GEOMETRY);
+            if (perVertex.getNumRays() != BOUNCE_BENCH_RAYS || geometry.getNumRays() != BOUNCE_BENCH_RAYS) {
+                report(player, "  el trazado no devolvió resultados (¿recursos sin inicializar?)");
+                return;
+            }
+            boolean same = perVertex.contentEquals(geometry);
+
+            double perVertexMs = timeGpuRuns(player, origins, directions, bounces, WavecraftConfig.GpuTraceMode.PER_VERTEX);
+            double geometryMs = timeGpuRuns(player, origins, directions, bounces, WavecraftConfig.GpuTraceMode.GEOMETRY);
+            report(player, String.format("  %2d rebotes: por vértice %8.3f ms | geometry %8.3f ms (x%.2f)%s", bounces,
+                    perVertexMs, geometryMs, perVertexMs / geometryMs, same ? "" : "  ¡TRAYECTORIAS DISTINTAS!"));
+        }
+    }
+
+    /**
+     * Traza los mismos rayos en la GPU (con cada modo disponible) y con {@link CpuRayTracer} sobre la rejilla que
+     * contiene la textura, y cuenta los rayos con la misma trayectoria: mismo estado y normal en cada vértice,
+     * posiciones a menos de {@value #PARITY_POSITION_TOLERANCE} bloques y energía con error relativo menor que
+     * {@value #PARITY_ENERGY_TOLERANCE}. Valida la subida de la textura del mundo en el formato activo (RGBA8 o, con
+     * {@link WavecraftConfig#PACKED_OCCUPANCY_TEXTURE}, ocupación R32UI y absorción R8) y la de la pirámide.
+     * Debe ejecutarse en el hilo de renderizado.
+     */
+    public static void runGpuParityCheck() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) return;
+
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        cache.getTextureId(player); // Sube la rejilla en servicio si la textura aún no la tiene
+        VoxelGrid grid = cache.getVoxelGrid(player);
+        if (cache.getTextureGeneration() != grid.getGeneration()) {
+            report(player, "[Wavecraft Bench] La textura no tiene aún la rejilla en servicio; repite en unos segundos.");
+            return;
+        }
+
+        int bounces = AcousticRayManager.MAX_RAY_BOUNCES;
+        Vec3 origin = player.getEyePosition();
+        Random random = new Random(1234L);
+        Vec3[] origins = new Vec3[PARITY_RAYS];
+        Vec3[] directions = new Vec3[PARITY_RAYS];
+        for (int i = 0; i < PARITY_RAYS; i++) {
+            directions[i] = randomDirection(random);
+            origins[i] = origin.add(directions[i].scale(0.1));
+        }
+        RayPathArena reference = CpuRayTracer.trace(grid, origins, directions, bounces, RayTermination.NONE, WavecraftConfig.BrickSkipping.NONE);
+
+        report(player, "[Wavecraft Bench] Trayectorias en GPU frente a CPU (" + PARITY_RAYS + " rayos, " + bounces + " rebotes, generación " + grid.getGeneration()
+                + ", textura " + (cache.usesPackedOccupancy() ? "R32UI + R8" : "RGBA8") + ")");
+        for (WavecraftConfig.GpuTraceMode mode : WavecraftConfig.GpuTraceMode.values()) {
+            if (mode == WavecraftConfig.GpuTraceMode.GEOMETRY && !RayShaderHandler.isGeometryTracingAvailable()) continue;
+            RayPathArena paths = RayShaderHandler.traceRays(player.level(), player, origins, directions, bounces, mode);
+            if (paths.getNumRays() != PARITY_RAYS || cache.getTextureGeneration() != grid.getGeneration()) {
+                report(player, "  " + mode + ": el trazado no devolvió resultados o la rejilla cambió entretanto");
+                continue;
+            }
+            int matching = 0, firstMismatch = -1;
+            for (int ray = 0; ray < PARITY_RAYS; ray++) {
+                if (samePath(reference, paths, ray)) {
+                    matching++;
+                } else if (firstMismatch < 0) {
+                    firstMismatch = ray;
+                }
+            }
+            report(player, String.format("  %-10s %d/%d rayos iguales%s", mode, matching, PARITY_RAYS,
+                    firstMismatch < 0 ? "" : "  ¡DISTINTOS! (primero: rayo " + firstMismatch + " hacia " + directions[firstMismatch] + ")"));
+        }
+    }
+
+    private static boolean samePath(RayPathArena expected, RayPathArena actual, int ray) {
+        for (int v = 0; v < expected.getNumVertices(); v++) {
+            if (expected.getBounceStatus(ray, v) != actual.getBounceStatus(ray, v)
+                    || expected.getNormalX(ray, v) != actual.getNormalX(ray, v)
+                    || expected.getNormalY(ray, v) != actual.getNormalY(ray, v)
+                    || expected.getNormalZ(ray, v) != actual.getNormalZ(ray, v)
+                    || Math.abs(expected.getX(ray, v) - actual.getX(ray, v)) > PARITY_POSITION_TOLERANCE
+                    || Math.abs(expected.getY(ray, v) - actual.getY(ray, v)) > PARITY_POSITION_TOLERANCE
+                    || Math.abs(expected.getZ(ray, v) - actual.getZ(ray, v)) > PARITY_POSITION_TOLERANCE
+                    || Math.abs(expected.getEnergy(ray, v) - actual.getEnergy(ray, v))
+                       > PARITY_ENERGY_TOLERANCE * Math.max(1e-6f, Math.abs(expected.getEnergy(ray, v)))) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static double timeGpuRuns(LocalPlayer player, Vec3[] origins, Vec3[] directions, int bounces, WavecraftConfig.GpuTraceMode mode) {
+        long totalNanos = 0;
+        for (int rep = 0; rep < REPETITIONS; rep++) {
+            long start = System.nanoTime();
+            RayShaderHandler.traceRays(player.level(), player, origins, directions, bounces, mode);
+            totalNanos += System.nanoTime() - start;
+        }
+        return totalNanos / (double) REPETITIONS / 1_000_000.0;
+    }
+
+    /**
+     * Mide, en un solo hilo, las iteraciones medias de DDA por rayo y el tiempo de trazado con cada modo de
+     * {@link WavecraftConfig.BrickSkipping} con el escape al cielo, y como referencia el DDA vóxel a vóxel sin él, en
+     * tres escenas sintéticas de 128³: terreno al aire libre, una red de cuevas en roca y el interior de una casa sobre
+     * el terreno. Comprueba que todos dan las mismas trayectorias que la referencia e indica
+     * la fracción de energía que sale del volumen sin volver.
+     */
+    public static void runPyramidBenchmark() {
+        CompletableFuture.runAsync(() -> {
+            int maxBounces = AcousticRayManager.MAX_RAY_BOUNCES;
+            report("[Wavecraft Bench] DDA en CPU por modo de salto de ladrillos (" + PYRAMID_RAYS + " rayos, " + maxBounces + " rebotes, 1 hilo)");
+            Random random = new Random(1234L);
+            Object[][] scenes = {
+                    { "aire libre", buildOpenAirScene(random), new Vec3(64.5, 52.5, 64.5) },
+                    { "cueva", buildCaveScene(random), new Vec3(64.5, 64.5, 64.5) },
+                    { "interior", buildIndoorScene(random), new Vec3(64.5, 44.5, 64.5) },
+            };
+            for (Object[] scene : scenes) {
+                VoxelGrid grid = (VoxelGrid) scene[1];
+                Vec3 source = (Vec3) scene[2];
+                Vec3[] origins = new Vec3[PYRAMID_RAYS];
+                Vec3[] directions = new Vec3[PYRAMID_RAYS];
+                for (int i = 0; i < PYRAMID_RAYS; i++) {
+                    directions[i] = randomDirection(random);
+                    origins[i] = source.add(directions[i].scale(0.1));
+                }
+                RayPathArena reference = null;
+                StringBuilder line = new StringBuilder(String.format("  %-10s", scene[0]));
+                // La primera pasada es la referencia: vóxel a vóxel y sin escape al cielo
+                for (int mode = -1; mode < WavecraftConfig.BrickSkipping.values().length; mode++) {
+                    WavecraftConfig.BrickSkipping skipping = WavecraftConfig.BrickSkipping.values()[Math.max(mode, 0)];
+                    boolean sky = mode >= 0;
+                    RayPathArena paths = new RayPathArena(PYRAMID_RAYS, maxBounces + 1);
+                    double steps = CpuRayTracer.averageDdaSteps(grid, origins, directions, maxBounces, skipping, sky, paths);
+                    double ms = timeRuns(() -> CpuRayTracer.averageDdaSteps(grid, origins, directions, maxBounces, skipping, sky));
+                    boolean same = reference == null || paths.contentEquals(reference);
+                    if (reference == null) reference = paths;
+                    line.append(String.format(" | %s%s %.1f pasos %.1f ms%s", skipping, sky ? "" : " sin cielo", steps, ms, same ? "" : " ¡TRAYECTORIAS DISTINTAS!"));
+                }
+                line.append(String.format(" | energía escapada %.1f%%", 100.0f * reference.getTotalEscapedEnergy() / PYRAMID_RAYS));
+                report(line.toString());
+            }
+        }).exceptionally(RayBenchmark::reportFailure);
+    }
+
+    /**
+     * Coste en CPU de resolver K fuentes simultáneas en la escena interior sintética: trazando {@value #LISTENER_BENCH_RAYS}
+     * rayos desde cada fuente frente a trazar una sola vez desde el oyente y conectar cada fuente con las
+     * trayectorias guardadas ({@link ListenerPathSet#connect}). Las fuentes están repartidas dentro y fuera de la casa.
+     */
+    public static void runListenerBenchmark() {
+        CompletableFuture.runAsync(() -> {
+            int maxBounces = AcousticRayManager.MAX_RAY_BOUNCES;
+            Random random = new Random(1234L);
+            VoxelGrid grid = buildIndoorScene(random);
+            Vec3 listener = new Vec3(64.5, 44.5, 64.5);
+            Vec3 look = new Vec3(0, 0, -1), right = new Vec3(1, 0, 0), up = new Vec3(0, 1, 0);
+            report("[Wavecraft Bench] " + LISTENER_BENCH_RAYS + " rayos por trazado, " + maxBounces + " rebotes: un trazado por fuente frente a uno desde el oyente");
+
+            Vec3[] listenerOrigins = new Vec3[LISTENER_BENCH_RAYS];
+            Vec3[] listenerDirections = new Vec3[LISTENER_BENCH_RAYS];
+            for (int i = 0; i < LISTENER_BENCH_RAYS; i++) {
+                listenerDirections[i] = randomDirection(random);
+                listenerOrigins[i] = listener;
+            }
+
+            for (int sources : LISTENER_SOURCE_COUNTS) {
+                Vec3[] positions = new Vec3[sources];
+                for (int s = 0; s < sources; s++) {
+                    positions[s] = s % 2 == 0
+                            ? new Vec3(56 + random.nextDouble() * 18, 42 + random.nextDouble() * 7, 58 + random.nextDouble() * 14)
+                            : new Vec3(20 + random.nextDouble() * 88, 52 + random.nextDouble() * 10, 20 + random.nextDouble() * 88);
+                }
+
+                long forwardStart = System.nanoTime();
+                for (Vec3 position : positions) {
+                    Vec3[] origins = new Vec3[LISTENER_BENCH_RAYS];
+                    Vec3[] directions = new Vec3[LISTENER_BENCH_RAYS];
+                    for (int i = 0; i < LISTENER_BENCH_RAYS; i++) {
+                        directions[i] = randomDirection(random);
+                        origins[i] = position.add(directions[i].scale(0.1));
+                    }
+                    CpuRayTracer.trace(grid, origins, directions, maxBounces, RayTermination.fromConfig(random.nextInt()));
+                }
+                long forwardNanos = System.nanoTime() - forwardStart;
+
+                long reverseStart = System.nanoTime();
+                RayPathArena set = CpuRayTracer.trace(grid, listenerOrigins, listenerDirections, maxBounces,
+                        RayTermination.fromConfig(random.nextInt()));
+                long traceNanos = System.nanoTime() - reverseStart;
+                int paths = 0;
+                int connections = WavecraftConfig.LISTENER_CONNECTIONS.get();
+                for (Vec3 position : positions) {
+                    paths += ListenerPathSet.connect(grid, set, listener, right, up, look, TEST_SOUND, position, connections, 0, grid.getGeneration()).size();
+                }
+                long reverseNanos = System.nanoTime() - reverseStart;
+
+                report(String.format("  %3d fuentes: por fuente %8.1f ms | desde el oyente %8.1f ms (trazado %.1f ms + conexiones) | %d capturas por fuente",
+                        sources, forwardNanos / 1e6, reverseNanos / 1e6, traceNanos / 1e6, paths / sources));
+            }
+        }).exceptionally(RayBenchmark::reportFailure);
+    }
+
+    /**
+     * Extracción de paredes y taps de fuentes imagen (hasta segundo orden) en la sala y en las escenas sintéticas:
+     * tiempo de la extracción, paredes resultantes y coste y número de taps por fuente.
+     */
+    public static void runImageSourceBenchmark() {
+        CompletableFuture.runAsync(() -> {
+            int maxPlanes = WavecraftConfig.IMAGE_SOURCE_PLANES.get();
+            report("[Wavecraft Bench] Fuentes imagen de orden 2, " + maxPlanes + " paredes candidatas por extremo");
+            Random random = new Random(1234L);
+            String[] names = { "sala", "aire libre", "cueva", "interior" };
+            VoxelGrid[] scenes = { buildRoomScene(), buildOpenAirScene(random), buildCaveScene(random), buildIndoorScene(random) };
+            Vec3 look = new Vec3(0, 0, -1), right = new Vec3(1, 0, 0), up = new Vec3(0, 1, 0);
+
+            for (int i = 0; i < scenes.length; i++) {
+                VoxelGrid grid = scenes[i];
+                List<ImageSourceEngine.WallPlane> planes = ImageSourceEngine.extractPlanes(grid);
+                double extractionMs = timeRuns(() -> ImageSourceEngine.extractPlanes(grid));
+
+                Vec3 listener = i == 0 ? new Vec3(22.5, 3.5, 15.5) : randomAirPoint(grid, random);
+                Vec3[] sources = new Vec3[IMAGE_SOURCE_SOURCES];
+                for (int s = 0; s < sources.length; s++) {
+                    sources[s] = i == 0 ? new Vec3(3 + random.nextDouble() * 26, 2 + random.nextDouble() * 11, 3 + random.nextDouble() * 18)
+                            : randomAirPoint(grid, random);
+                }
+                int[] taps = new int[3];
+                for (Vec3 source : sources) {
+                    for (RayImpulseCapture tap : ImageSourceEngine.computeTaps(grid, planes, 2, maxPlanes, listener, right, up, look, TEST_SOUND, source, grid.getGeneration())) {
+                        taps[tap.bounceCount()]++;
+                    }
+                }
+                double tapsMs = timeRuns(() -> {
+                    for (Vec3 source : sources) {
+                        ImageSourceEngine.computeTaps(grid, planes, 2, maxPlanes, listener, right, up, look, TEST_SOUND, source, grid.getGeneration());
+                    }
+                }) / sources.length;
+
+                report(String.format("  %-10s %6d paredes en %7.1f ms | %6.3f ms por fuente | taps por fuente: %.1f de orden 1, %.1f de orden 2",
+                        names[i], planes.size(), extractionMs, tapsMs, taps[1] / (double) sources.length, taps[2] / (double) sources.length));
+            }
+        }).exceptionally(RayBenchmark::reportFailure);
+    }
+
+    /**
+     * Compara los generadores de direcciones por la estabilidad de la respuesta al impulso: para cada uno y
+     * cada número de rayos, mide la varianza relativa del histograma de energía entre emisiones repetidas
+     * (ver {@link SamplingQuality}). Al final indica cuántos rayos necesita cada generador para igualar
+     * la estabilidad que el muestreo aleatorio consigue con el máximo de rayos.
+     */
+    public static void runSamplingBenchmark() {
+        CompletableFuture.runAsync(() -> {
+            VoxelGrid grid = buildRoomScene();
+            Vec3 source = new Vec3(6.5, 4.5, 6.5);
+            Vec3 listener = new Vec3(22.5, 3.5, 15.5);
+            int maxBounces = AcousticRayManager.MAX_RAY_BOUNCES;
+            WavecraftConfig.DirectionSampling[] modes = WavecraftConfig.DirectionSampling.values();
+
+            report("[Wavecraft Bench] Varianza relativa de la IR entre " + SAMPLING_EMISSIONS + " emisiones (menor es mejor)");
+            double[][] results = new double[modes.length][SAMPLING_RAY_COUNTS.length];
+            for (int m = 0; m < modes.length; m++) {
+                DirectionSampler sampler = DirectionSampler.of(modes[m]);
+                StringBuilder line = new StringBuilder(String.format("  %-10s", modes[m]));
+                for (int c = 0; c < SAMPLING_RAY_COUNTS.length; c++) {
+                    results[m][c] = SamplingQuality.relativeEnergyVariance(grid, source, listener, sampler,
+                            SAMPLING_RAY_COUNTS[c], SAMPLING_EMISSIONS, maxBounces, 99L);
+                    line.append(String.format(" %5d:%.4f", SAMPLING_RAY_COUNTS[c], results[m][c]));
+                }
+                report(line.toString());
+            }
+
+            // Objetivo: lo que consigue RANDOM con el número máximo de rayos
+            double target = results[WavecraftConfig.DirectionSampling.RANDOM.ordinal()][SAMPLING_RAY_COUNTS.length - 1];
+            for (int m = 0; m < modes.length; m++) {
+                int needed = -1;
+                for (int c = 0; c < SAMPLING_RAY_COUNTS.length; c++) {
+                    if (results[m][c] <= target) {
+                        needed = SAMPLING_RAY_COUNTS[c];
+                        break;
+                    }
+                }
+                report(String.format("  %-10s alcanza %.4f con %s", modes[m], target, needed < 0 ? "más de " + SAMPLING_RAY_COUNTS[SAMPLING_RAY_COUNTS.length - 1] + " rayos" : needed + " rayos"));
+            }
+        }).exceptionally(RayBenchmark::reportFailure);
+    }
+
+    /**
+     * Tiempo de una construcción completa de {@value #VOXELIZE_SIZE}³ alrededor del jugador en el mundo real:
+     * recorriendo las secciones de los chunks frente a bloque a bloque con {@code level.getBlockState}.
+     * Comprueba además que ambas dan la misma rejilla, y que también la dan las actualizaciones parciales
+     * (withResampledBoxes, withShiftedOrigin) y fromSnapshot. Lee el Level, así que se ejecuta en el hilo del cliente.
+     */
+    public static void runVoxelizeBenchmark() {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) return;
+
+        BlockPos center = player.blockPosition();
+        BlockPos origin = new BlockPos((center.getX() & -16) - VOXELIZE_SIZE / 2, (center.getY() & -16) - VOXELIZE_SIZE / 2,
+                (center.getZ() & -16) - VOXELIZE_SIZE / 2);
+        report(player, "[Wavecraft Bench] Voxelización de " + VOXELIZE_SIZE + "³ en " + origin + ": por secciones frente a bloque a bloque");
+
+        VoxelGrid[] grids = new VoxelGrid[2];
+        double sections = timeRuns(() -> grids[0] = VoxelGrid.fromLevel(player.level(), origin, VOXELIZE_SIZE, 0, true));
+        double perBlock = timeRuns(() -> grids[1] = VoxelGrid.fromLevel(player.level(), origin, VOXELIZE_SIZE, 0, false));
+        report(player, String.format("  por secciones %.1f ms | bloque a bloque %.1f ms | x%.1f | misma rejilla: %s",
+                sections, perBlock, perBlock / sections, compareGrids(grids[1], grids[0])));
+        reportMixedSections(player, origin, grids[1], grids[0]);
+
+        // Cajas que cortan secciones por la mitad (el camino por bloques de sampleBox) y una sección entera
+        List<int[]> boxes = List.of(new int[] { 8, 5, 8, 40, 37, 40 }, new int[] { 64, 64, 64, 80, 80, 80 },
+                new int[] { 0, 100, 120, VOXELIZE_SIZE, VOXELIZE_SIZE, VOXELIZE_SIZE });
+        VoxelGrid resampled = grids[0].withResampledBoxes(player.level(), boxes, 1);
+        report(player, "  withResampledBoxes: " + compareGrids(grids[0], resampled));
+
+        // Se construye desplazada una sección en cada eje y se trae al mismo origen moviendo solo las losas que entran
+        int[][] shifts = { { 16, 16, 16 }, { -16, -16, -16 }, { 32, 0, -16 } };
+        for (int[] shift : shifts) {
+            VoxelGrid before = VoxelGrid.fromLevel(player.level(), origin.offset(-shift[0], -shift[1], -shift[2]), VOXELIZE_SIZE, 0);
+            VoxelGrid shifted = before.withShiftedOrigin(player.level(), origin.getX(), origin.getY(), origin.getZ(),
+                    VoxelGrid.enteringBoxes(shift[0], shift[1], shift[2], VOXELIZE_SIZE), 1);
+            report(player, String.format("  withShiftedOrigin (%d, %d, %d): %s", shift[0], shift[1], shift[2],
+                    compareGrids(grids[0], shifted)));
+        }
+
+        VoxelGrid fromSnapshot = VoxelGrid.fromSnapshot(VolumeSnapshot.capture(player.level(), origin, VOXELIZE_SIZE), 1);
+        report(player, "  fromSnapshot: " + compareGrids(grids[0], fromSnapshot));
+    }
+
+    /**
+     * Compara vóxel a vóxel (sólido y absorción) las secciones mezcladas del volumen, las que se leen de la paleta
+     * en {@code readSection}, entre la rejilla por secciones y la muestreada bloque a bloque con el Level.
+     */
+    private static void reportMixedSections(LocalPlayer player, BlockPos origin, VoxelGrid perBlock, VoxelGrid bySections) {
+        int mixed = 0, voxels = 0, different = 0;
+        for (int cz = 0; cz < VOXELIZE_SIZE; cz += 16) {
+            for (int cx = 0; cx < VOXELIZE_SIZE; cx += 16) {
+                LevelChunk chunk = player.level().getChunk((origin.getX() + cx) >> 4, (origin.getZ() + cz) >> 4);
+                LevelChunkSection[] chunkSections = chunk.getSections();
+                for (int cy = 0; cy < VOXELIZE_SIZE; cy += 16) {
+                    int index = chunk.getSectionIndex(origin.getY() + cy);
+                    if (index < 0 || index >= chunkSections.length || chunkSections[index].hasOnlyAir()) continue;
+                    PalettedContainer<BlockState> states = chunkSections[index].getStates();
+                    BlockState first = states.get(0, 0, 0);
+                    if (!states.maybeHas(state -> state != first)) continue;
+                    mixed++;
+                    for (int z = cz; z < cz + 16; z++) {
+                        for (int y = cy; y < cy + 16; y++) {
+                            for (int x = cx; x < cx + 16; x++) {
+                                voxels++;
+                                boolean solid = perBlock.isSolidLocal(x, y, z);
+                                if (solid != bySections.isSolidLocal(x, y, z) || (solid
+                                        && perBlock.getAbsorptionByteLocal(x, y, z) != bySections.getAbsorptionByteLocal(x, y, z))) {
+                                    different++;
+                                }
+                            }
+                        }
+                    }
+                }
+            }
+        }
+        report(player, mixed == 0
+                ? "  no hay secciones mezcladas en el volumen: la lectura de la paleta no se ha comprobado"
+                : String.format("  secciones mezcladas: %d (%d vóxeles) | vóxeles distintos del muestreo bloque a bloque: %d%s",
+                        mixed, voxels, different, different == 0 ? "" : "  ¡DISTINTOS!"));
+    }
+
+    /**
+     * Compara una rejilla con la de referencia construida desde cero en el mismo origen: ocupación, absorción de los
+     * sólidos y pirámide tienen que ser idénticas (el almacenamiento es toroidal, así que los arrays se comparan tal cual).
+     * Las alturas de columna solo crecen, así que basta con que sigan siendo cota superior de las de referencia.
+     */
+    private static String compareGrids(VoxelGrid reference, VoxelGrid grid) {
+        int size = reference.getSize();
+        StringBuilder differences = new StringBuilder();
+        if (!Arrays.equals(reference.getOccupancyWords(), grid.getOccupancyWords())) differences.append(" ocupación");
+        // Los vóxeles que pasan a aire conservan su absorción (solo se lee al chocar), así que se comparan los sólidos
+        int[] words = reference.getOccupancyWords();
+        byte[] referenceAbsorption = reference.getAbsorptionBytes(), absorption = grid.getAbsorptionBytes();
+        boolean sameAbsorption = true;
+        for (int i = 0; i < referenceAbsorption.length && sameAbsorption; i++) {
+            sameAbsorption = (words[i >> 5] & (1 << (i & 31))) == 0 || referenceAbsorption[i] == absorption[i];
+        }
+        if (!sameAbsorption) differences.append(" absorción");
+        boolean bricks = true;
+        for (int brickSize = 4; brickSize <= 16 && bricks; brickSize *= 4) {
+            int count = size / brickSize;
+            for (int i = 0; i < count * count * count && bricks; i++) {
+                int bx = i % count, by = (i / count) % count, bz = i / (count * count);
+                bricks = reference.getBrickSolidCount(brickSize, bx, by, bz) == grid.getBrickSolidCount(brickSize, bx, by, bz);
+            }
+        }
+        if (!bricks) differences.append(" ladrillos");
+        boolean tops = true;
+        for (int z = 0; z < size && tops; z++) {
+            for (int x = 0; x < size && tops; x++) {
+                tops = grid.getColumnTop(x, z) >= reference.getColumnTop(x, z);
+            }
+        }
+        if (!tops) differences.append(" alturas");
+        return differences.length() == 0 ? "sí" : "NO (" + differences.toString().trim() + ")";
+    }
+
+    private static double timeRuns(Runnable run) {
+        for (int i = 0; i < WARMUP_RUNS; i++) {
+            run.run();
+        }
+        long totalNanos = 0;
+        for (int rep = 0; rep < REPETITIONS; rep++) {
+            long start = System.nanoTime();
+            run.run();
+            totalNanos += System.nanoTime() - start;
+        }
+        return totalNanos / (double) REPETITIONS / 1_000_000.0;
+    }
+
+    /** Terreno ondulado (alturas 30..45) con el resto del volumen abierto al cielo. */
+    static VoxelGrid buildOpenAirScene(Random random) {
+        VoxelGrid grid = new VoxelGrid(0, 0, 0, SCENE_SIZE, 0);
+        double phaseX = random.nextDouble() * Math.PI, phaseZ = random.nextDouble() * Math.PI;
+        for (int z = 0; z < SCENE_SIZE; z++) {
+            for (int x = 0; x < SCENE_SIZE; x++) {
+                int height = 38 + (int) (4 * Math.sin(x * 0.11 + phaseX) + 3 * Math.sin(z * 0.07 + phaseZ));
+                for (int y = 0; y <= height; y++) {
+                    grid.setSolidLocal(x, y, z, true);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /** Roca maciza atravesada por túneles: paseos aleatorios de esferas de radio 2..4 desde el centro. */
+    static VoxelGrid buildCaveScene(Random random) {
+        VoxelGrid grid = new VoxelGrid(0, 0, 0, SCENE_SIZE, 0);
+        for (int z = 0; z < SCENE_SIZE; z++) {
+            for (int y = 0; y < SCENE_SIZE; y++) {
+                for (int x = 0; x < SCENE_SIZE; x++) {
+                    grid.setSolidLocal(x, y, z, true);
+                }
+            }
+        }
+        for (int tunnel = 0; tunnel < 6; tunnel++) {
+            double x = 64.5, y = 64.5, z = 64.5;
+            double yaw = random.nextDouble() * 2 * Math.PI, pitch = 0;
+            for (int step = 0; step < 120; step++) {
+                int radius = 2 + random.nextInt(3);
+                for (int dz = -radius; dz <= radius; dz++) {
+                    for (int dy = -radius; dy <= radius; dy++) {
+                        for (int dx = -radius; dx <= radius; dx++) {
+                            int cx = (int) x + dx, cy = (int) y + dy, cz = (int) z + dz;
+                            if (dx * dx + dy * dy + dz * dz <= radius * radius
+                                    && cx > 0 && cy > 0 && cz > 0 && cx < SCENE_SIZE - 1 && cy < SCENE_SIZE - 1 && cz < SCENE_SIZE - 1) {
+                                grid.setSolidLocal(cx, cy, cz, false);
+                            }
+                        }
+                    }
+                }
+                yaw += (random.nextDouble() - 0.5) * 0.6;
+                pitch = Math.max(-0.5, Math.min(0.5, pitch + (random.nextDouble() - 0.5) * 0.3));
+                x += Math.cos(yaw) * Math.cos(pitch) * 1.5;
+                y += Math.sin(pitch) * 1.5;
+                z += Math.sin(yaw) * Math.cos(pitch) * 1.5;
+            }
+        }
+        return grid;
+    }
+
+    /** Casa de 20x8x16 bloques de interior, con una puerta y dos ventanas, sobre el terreno de la escena al aire libre. */
+    static VoxelGrid buildIndoorScene(Random random) {
+        VoxelGrid grid = buildOpenAirScene(random);
+        int x0 = 54, y0 = 41, z0 = 56, x1 = 75, y1 = 50, z1 = 73;
+        for (int z = z0; z <= z1; z++) {
+            for (int y = y0; y <= y1; y++) {
+                for (int x = x0; x <= x1; x++) {
+                    boolean shell = x == x0 || x == x1 || y == y0 || y == y1 || z == z0 || z == z1;
+                    grid.setSolidLocal(x, y, z, shell);
+                }
+            }
+        }
+        for (int y = y0 + 1; y <= y0 + 2; y++) {
+            grid.setSolidLocal(64, y, z0, false); // Puerta
+        }
+        grid.setSolidLocal(x0, y0 + 3, 64, false); // Ventanas
+        grid.setSolidLocal(x1, y0 + 3, 64, false);
+        return grid;
+    }
+
+    /** Sala cerrada de 28x12x20 bloques de interior con un pilar, dentro de una rejilla de 32³. */
+    private static VoxelGrid buildRoomScene() {
+        VoxelGrid grid = new VoxelGrid(0, 0, 0, 32, 0);
+        for (int z = 1; z <= 22; z++) {
+            for (int y = 1; y <= 14; y++) {
+                for (int x = 1; x <= 30; x++) {
+                    if (x == 1 || y == 1 || z == 1 || x == 30 || y == 14 || z == 22) {
+                        grid.setSolidLocal(x, y, z, true);
+                    }
+                }
+            }
+        }
+        for (int y = 2; y <= 5; y++) {
+            for (int x = 10; x <= 12; x++) {
+                for (int z = 8; z <= 10; z++) {
+                    grid.setSolidLocal(x, y, z, true);
+                }
+            }
+        }
+        return grid;
+    }
+
+    private static Vec3 randomAirPoint(VoxelGrid grid, Random random) {
+        while (true) {
+            int x = 1 + random.nextInt(SCENE_SIZE - 2), y = 1 + random.nextInt(SCENE_SIZE - 2), z = 1 + random.nextInt(SCENE_SIZE - 2);
+            if (!grid.isSolidLocal(x, y, z)) {
+                return new Vec3(x + 0.5, y + 0.5, z + 0.5);
+            }
+        }
+    }
+
+    private static Vec3 randomDirection(Random random) {
+        double theta = random.nextDouble() * 2 * Math.PI;
+        double phi = Math.acos(2 * random.nextDouble() - 1);
+        return new Vec3(Math.sin(phi) * Math.cos(theta), Math.sin(phi) * Math.sin(theta), Math.cos(phi));
+    }
+
+    private static void report(LocalPlayer player, String line) {
+        System.out.println(line);
+        player.displayClientMessage(Component.literal(line), false);
+    }
+
+    /** Para los benchmarks en segundo plano: sin esto, una excepción en el CompletableFuture no se ve en ningún sitio. */
+    private static Void reportFailure(Throwable error) {
+        Throwable cause = error instanceof CompletionException && error.getCause() != null ? error.getCause() : error;
+        report("[Wavecraft Bench] El benchmark falló: " + cause);
+        cause.printStackTrace();
+        return null;
+    }
+
+    /** Versión para hilos de fondo: el mensaje de chat se entrega en el hilo del cliente. */
+    private static void report(String line) {
+        System.out.println(line);
+        Minecraft.getInstance().execute(() -> {
+            LocalPlayer player = Minecraft.getInstance().player;
+            if (player != null) {
+                player.displayClientMessage(Component.literal(line), false);
+            }
+        });
+    }
+}
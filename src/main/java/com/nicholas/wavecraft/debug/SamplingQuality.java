@@ -0,0 +1,95 @@
+package com.nicholas.wavecraft.debug;
+
+import com.nicholas.wavecraft.sound.CpuRayTracer;
+import com.nicholas.wavecraft.sound.DirectionSampler;
+import com.nicholas.wavecraft.sound.RayPathArena;
+import com.nicholas.wavecraft.sound.VoxelGrid;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Random;
+
+/**
+ * Métrica de estabilidad de la respuesta al impulso para comparar generadores de direcciones.
+ * Se emite varias veces desde la misma fuente, se acumula la energía que llega a una esfera receptora
+ * en un histograma temporal, y se mide cuánto varía ese histograma entre emisiones.
+ * Cuanto menor es la varianza relativa, menos rayos hacen falta para una respuesta estable.
+ */
+public final class SamplingQuality {
+
+    private static final double SPEED_OF_SOUND = 343.0;
+    private static final double BIN_SECONDS = 0.010;
+    private static final int NUM_BINS = 50;               // 0.5 s de respuesta
+    private static final double REFLECTION_FACTOR = 0.8;  // 1 - absorción por defecto de MaterialProperties
+    private static final double LISTENER_RADIUS = 1.0;
+
+    private SamplingQuality() {}
+
+    /**
+     * Suma de la varianza por intervalo entre emisiones dividida entre la suma de la media al cuadrado.
+     * Devuelve NaN si ningún rayo llegó al receptor.
+     */
+    public static double relativeEnergyVariance(VoxelGrid grid, Vec3 source, Vec3 listener, DirectionSampler sampler,
+                                                int numRays, int emissions, int maxBounces, long seed) {
+        Random random = new Random(seed);
+        double[][] histograms = new double[emissions][];
+        for (int e = 0; e < emissions; e++) {
+            Vec3[] directions = sampler.sample(numRays, random);
+            Vec3[] origins = new Vec3[numRays];
+            for (int i = 0; i < numRays; i++) {
+                origins[i] = source.add(directions[i].scale(0.1));
+            }
+            RayPathArena paths = CpuRayTracer.trace(grid, origins, directions, maxBounces);
+            histograms[e] = energyHistogram(paths, listener);
+        }
+
+        double varianceSum = 0.0, meanSquareSum = 0.0;
+        for (int bin = 0; bin < NUM_BINS; bin++) {
+            double mean = 0.0;
+            for (double[] h : histograms) mean += h[bin];
+            mean /= emissions;
+            double variance = 0.0;
+            for (double[] h : histograms) variance += (h[bin] - mean) * (h[bin] - mean);
+            variance /= Math.max(1, emissions - 1);
+            varianceSum += variance;
+            meanSquareSum += mean * mean;
+        }
+        return meanSquareSum > 0 ? varianceSum / meanSquareSum : Double.NaN;
+    }
+
+    /**
+     * Energía que cruza la esfera receptora por intervalo de tiempo de llegada. Cada rayo lleva 1/numRays
+     * de la energía emitida y pierde REFLECTION_FACTOR en cada rebote.
+     */
+    public static double[] energyHistogram(RayPathArena paths, Vec3 listener) {
+        double[] histogram = new double[NUM_BINS];
+        int numRays = paths.getNumRays();
+        if (numRays == 0) return histogram;
+        double rayEnergy = 1.0 / numRays;
+
+        for (int r = 0; r < numRays; r++) {
+            double energy = rayEnergy;
+            double cumulative = 0.0;
+            for (int v = 0; v < paths.getNumVertices() - 1; v++) {
+                if (v > 0 && paths.getBounceStatus(r, v) == RayPathArena.STATUS_BOUNCE) {
+                    energy *= REFLECTION_FACTOR;
+                }
+                double sx = paths.getX(r, v), sy = paths.getY(r, v), sz = paths.getZ(r, v);
+                double dx = paths.getX(r, v + 1) - sx, dy = paths.getY(r, v + 1) - sy, dz = paths.getZ(r, v + 1) - sz;
+                double lengthSq = dx * dx + dy * dy + dz * dz;
+                if (lengthSq < 1e-12) break; // Rayo terminado: los puntos siguientes se repiten
+
+                // Punto del segmento más cercano al centro del receptor
+                double t = ((listener.x - sx) * dx + (listener.y - sy) * dy + (listener.z - sz) * dz) / lengthSq;
+                t = Math.max(0.0, Math.min(1.0, t));
+                double cx = sx + dx * t - listener.x, cy = sy + dy * t - listener.y, cz = sz + dz * t - listener.z;
+                double length = Math.sqrt(lengthSq);
+                if (cx * cx + cy * cy + cz * cz <= LISTENER_RADIUS * LISTENER_RADIUS) {
+                    int bin = (int) ((cumulative + t * length) / SPEED_OF_SOUND / BIN_SECONDS);
+                    if (bin < NUM_BINS) histogram[bin] += energy;
+                }
+                cumulative += length;
+            }
+        }
+        return histogram;
+    }
+}
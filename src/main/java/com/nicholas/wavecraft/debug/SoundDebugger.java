@@ -1,6 +1,7 @@
 package com.nicholas.wavecraft.debug;
 
 import com.mojang.blaze3d.vertex.*;
+import com.nicholas.wavecraft.config.WavecraftConfig;
 import com.nicholas.wavecraft.sound.*;
 import net.minecraft.client.Camera;
 import net.minecraft.client.Minecraft;
@@ -41,7 +42,7 @@ import static org.lwjgl.opengl.GL30.*;
 public class SoundDebugger {
 
     public record TrackedSound(ResourceLocation audioFile, Vec3 position, float volume, long tickAdded) {}
-    public record QueuedSound(ResourceLocation location, Vec3 position, float volume) {}
+    public record QueuedSound(ResourceLocation location, Vec3 position, float volume, SoundSource category) {}
 
 
 
@@ -51,7 +52,6 @@ public class SoundDebugger {
     //public static final List<TrackedSound> activeSounds = new ArrayList<>();
     private static final List<TrackedSound> activeSounds = Collections.synchronizedList(new ArrayList<>());
     public static final List<QueuedSound> queuedSounds = Collections.synchronizedList(new ArrayList<>());
-    private static final List<QueuedSound> soundsForRayEmission = Collections.synchronizedList(new ArrayList<>());
     private static final Map<BlockPos, Double> blockSPLMap = new HashMap<>();
 
     //public static long currentTick = 0;
@@ -116,10 +116,35 @@ public class SoundDebugger {
                 }
 
                 // --- ¡EL CAMBIO CLAVE ESTÁ AQUÍ! ---
-                if (rayEmissionEnabled) {
-                    // ANTES: Se llamaba a emitRays, causando un error de hilo.
-                    // AHORA: Se añade el sonido a una cola para que el hilo de renderizado lo procese.
-                    soundsForRayEmission.add(queued);
+                if (rayEmissionEnabled && mc.player != null) {
+                    Vec3 listener = mc.player.getEyePosition();
+                    // Si el mismo sonido acaba de sonar casi en el mismo sitio, o ya tenemos su IR para esta
+                    // posición del oyente, la reutilizamos sin trazar rayos.
+                    EmissionCoalescer.RecentEmission recent = EmissionCoalescer.getInstance().lookup(queued.location(), pos, listener, worldTime);
+                    ImpulseResponseCache.Entry cached = recent == null ? ImpulseResponseCache.getInstance().lookup(queued.location(), pos, mc.player) : null;
+                    if (recent != null) {
+                        ConvolutionManager.playBakedResponse(recent.soundId(), recent.source(), recent.irLeft(), recent.irRight());
+                    } else if (cached != null) {
+                        ConvolutionManager.playBakedResponse(cached.soundId(), cached.source(), cached.irLeft(), cached.irRight());
+                    } else {
+                        // ANTES: Se llamaba a emitRays, causando un error de hilo.
+                        // AHORA: Se encola en el planificador y el hilo de renderizado lo emite según el presupuesto de rayos.
+                        // En modo LISTENER no se traza nada por sonido: la fuente se conecta a las trayectorias del oyente.
+                        // Las primeras reflexiones salen exactas de las fuentes imagen; el resto, de los rayos.
+                        // El orden cubierto se fija aquí, una vez por emisión, y viaja con ella hasta las capturas.
+                        int imageSourceOrder = ImageSourceEngine.getInstance().addSource(queued.location(), pos, mc.player);
+                        if (WavecraftConfig.TRACING_ORIGIN.get() == WavecraftConfig.TracingOrigin.LISTENER) {
+                            ListenerPathSet.getInstance().addSource(queued.location(), pos, imageSourceOrder);
+                        } else {
+                            // Si el sonido se repite y el oyente apenas se ha movido, se recapturan las trayectorias guardadas.
+                            PathCache.CachedEmission paths = PathCache.getInstance().lookup(queued.location(), pos, listener, worldTime);
+                            if (paths != null) {
+                                AcousticRayManager.getInstance().replayPaths(paths, worldTime, imageSourceOrder);
+                            } else {
+                                EmissionScheduler.getInstance().enqueue(queued.location(), pos, volume, queued.category(), listener, imageSourceOrder);
+                            }
+                        }
+                    }
                 }
 
                 // El resto de la lógica para el mapa de SPL no cambia.
@@ -133,6 +158,10 @@ public class SoundDebugger {
 
         // Los ticks de los managers siguen aquí para actualizar la lógica que no es de OpenGL
         AcousticRayManager.getInstance().tick(mc.level, worldTime);
+        if (mc.player != null) {
+            ImageSourceEngine.getInstance().tick(mc.player);
+            ListenerPathSet.getInstance().tick(mc.player);
+        }
         ConvolutionManager.tick(worldTime);
     }
 
@@ -171,7 +200,7 @@ public class SoundDebugger {
         }
 
         // Añadimos el sonido con los datos extraídos a nuestra cola.
-        queuedSounds.add(new QueuedSound(location, position, volume));
+        queuedSounds.add(new QueuedSound(location, position, volume, sound.getSource()));
 
         // ¡CRÍTICO! Cancelamos el sonido original para que no se reproduzca.
         event.setSound(null);
@@ -229,17 +258,18 @@ public class SoundDebugger {
             return;
         }
 
+        // Un frame nuevo empieza con AFTER_SKY; sirve para medir la latencia de los lotes de rayos.
+        if (event.getStage() == RenderLevelStageEvent.Stage.AFTER_SKY) {
+            AcousticRayManager.getInstance().onRenderFrame();
+        }
+
         // --- NUEVA LÓGICA DE PROCESAMIENTO DE RAYOS ---
         // Se ejecuta en el hilo de renderizado, el lugar correcto para las llamadas a OpenGL.
-        if (!soundsForRayEmission.isEmpty()) {
-            long worldTime = mc.level.getGameTime();
-            // Sincronizamos para evitar problemas si el client tick intentara modificarla al mismo tiempo.
-            synchronized (soundsForRayEmission) {
-                for (QueuedSound sound : soundsForRayEmission) {
-                    // Ahora sí, llamamos a emitRays() de forma segura.
-                    AcousticRayManager.getInstance().emitRays(sound.position(), sound.location(), worldTime);
-                }
-                soundsForRayEmission.clear(); // Limpiamos la cola una vez procesada.
+        // Una vez por frame: el planificador emite los sonidos pendientes que quepan en el presupuesto de rayos.
+        if (event.getStage() == RenderLevelStageEvent.Stage.AFTER_SKY) {
+            EmissionScheduler.getInstance().runFrame(mc.level.getGameTime());
+            if (rayEmissionEnabled && WavecraftConfig.TRACING_ORIGIN.get() == WavecraftConfig.TracingOrigin.LISTENER) {
+                ListenerPathSet.getInstance().runFrame(mc.player, AcousticRayManager.getInstance().getFrameCounter());
             }
         }
 
@@ -579,8 +609,8 @@ public class SoundDebugger {
      * ya esté configurada con las transformaciones de cámara (ej. desde RenderLevelStageEvent).
      *
      * @param poseStack La PoseStack actual del evento de renderizado.
-     * @param visualRaysToRender La lista de objetos VisualRay a dibujar. Cada VisualRay debe
-     * tener un método getPathSegments() que devuelva List<Vec3>.
+     * @param visualRaysToRender La lista de objetos VisualRay a dibujar. Cada VisualRay entrega
+     * sus puntos con buildRenderPath(tick, consumidor).
      */
     // MÉTODO PARA LOS RAYOS ACÚSTICOS REALES (MODIFICADO para usar RenderType.debugLineStrip)
     public static void renderRays(PoseStack poseStack, List<AcousticRay.VisualRay> visualRaysToRender) {
@@ -618,14 +648,10 @@ public class SoundDebugger {
         int raysActuallyDrawn = 0;
         for (AcousticRay.VisualRay visualRay : visualRaysToRender) {
             assert Minecraft.getInstance().level != null;
-            List<Vec3> pathSegments = visualRay.buildRenderPath(Minecraft.getInstance().level.getGameTime());
-
-            if (pathSegments == null || pathSegments.size() < 2) {
+            if (visualRay.getNumPoints() < 2) {
                 continue;
             }
 
-            //System.out.println("  Procesando rayo acústico (RenderType) " + (raysActuallyDrawn + 1) + "/" + visualRaysToRender.size() + " con " + pathSegments.size() + " puntos. PrimerPunto: " + pathSegments.get(0));
-
             // Obtener el VertexConsumer PARA ESTE RAYO (dentro del bucle de rayos, antes del bucle de puntos)
             // Esto asegura que cada LINE_STRIP tenga la oportunidad de ser un nuevo batch si es necesario.
             VertexConsumer vertexConsumer = bufferSource.getBuffer(rayRenderType);
@@ -636,14 +662,13 @@ public class SoundDebugger {
             int b = 0;
             int a = (int)(0.8f * 255);
 
-            for (Vec3 point : pathSegments) { // No hay necesidad de un índice 'i' aquí
-                if (point == null) continue;
+            // Los puntos salen directamente de la arena de trayectorias, sin lista intermedia
+            visualRay.buildRenderPath(Minecraft.getInstance().level.getGameTime(), (x, y, z) ->
+                    vertexConsumer.vertex(matrix, x, y, z)
+                            .color(r, g, b, a)
+                            .normal(poseStack.last().normal(), 0f, 1f, 0f) // Normal dummy
+                            .endVertex());
 
-                vertexConsumer.vertex(matrix, (float)point.x, (float)point.y, (float)point.z)
-                        .color(r, g, b, a)
-                        .normal(poseStack.last().normal(), 0f, 1f, 0f) // Normal dummy
-                        .endVertex();
-            }
             // Finalizar el batch para ESTE RenderType DESPUÉS de CADA rayo (LINE_STRIP)
             // Esto es importante porque RenderType.debugLineStrip() es un tipo específico.
             // Si no lo haces, todos los LINE_STRIPs se conectarán o podrías tener errores.
@@ -35,30 +35,60 @@ public class AcousticRay {
 
     private int lastCaptureBounceCount = -1;
 
-    public AcousticRay(Vec3 origin, Vec3 direction, float propagationSpeed, long currentTick, ResourceLocation soundId, int maxBounces) {
+    private final float propagationSpeed;
+    // Un rayo está pendiente desde que se envía su lote al trazador hasta que llega su trayectoria.
+    private boolean pending = true;
+    private long gridGeneration = RayImpulseCapture.UNKNOWN_GENERATION; // Rejilla sobre la que se trazó la trayectoria
+    private int imageSourceOrder = 0; // Reflexiones de la emisión que ya salen de ImageSourceEngine
+
+    /**
+     * Crea el rayo en estado pendiente. Su trayectoria llega más tarde, cuando el lote
+     * de la emisión termina de trazarse (ver {@link #resolvePath}).
+     */
+    public AcousticRay(float propagationSpeed, long currentTick, ResourceLocation soundId, int maxBounces) {
         this.soundId = soundId;
         this.maxBounces = maxBounces;
+        this.propagationSpeed = propagationSpeed;
 
-        this.instantRay = new InstantRay(origin, direction, Float.MAX_VALUE);
+        this.instantRay = new InstantRay(Float.MAX_VALUE);
         this.visualRay = new VisualRay(instantRay, currentTick, AcousticRayManager.getSoundSpeed());
 
+        this.simulationExpireTick = Long.MAX_VALUE;
+        this.visualExpireTick = Long.MAX_VALUE;
+    }
+
+    /**
+     * Asigna la trayectoria calculada por el trazador (la fila {@code rayIndex} de la arena del lote)
+     * y arranca la simulación a partir de este tick. {@code gridGeneration} es la de la rejilla sobre la que se trazó
+     * e {@code imageSourceOrder} el orden que cubrió ImageSourceEngine al encolar la emisión.
+     */
+    public void resolvePath(RayPathArena paths, int rayIndex, long currentTick, long gridGeneration, int imageSourceOrder) {
+        this.instantRay.setPath(paths, rayIndex);
+        this.pending = false;
+        this.gridGeneration = gridGeneration;
+        this.imageSourceOrder = imageSourceOrder;
+
         this.simulationExpireTick = currentTick + 2;
 
         if (SoundDebugger.renderRays) {
             float distance = Math.min(instantRay.getTotalLength(), AcousticRayManager.MAX_RAY_DISTANCE);
             long travelTimeTicks = (long) Math.ceil((distance / propagationSpeed) * 20);
             this.visualExpireTick = currentTick + travelTimeTicks + 20; // 1 segundo de margen
-            //this.simulationExpireTick = currentTick + 1;  // la simulación solo necesita 1 tick
         } else {
             this.visualExpireTick = this.simulationExpireTick;
-            //this.simulationExpireTick = currentTick + 2;
         }
     }
 
+    public boolean isPending() {
+        return pending;
+    }
+
     public InstantRay getInstantRay() { return instantRay; }
     public VisualRay getVisualRay() { return visualRay; }
 
     public ResourceLocation getSoundId() { return soundId; }
+    public long getGridGeneration() { return gridGeneration; }
+    public int getImageSourceOrder() { return imageSourceOrder; }
 
     public int getLastCaptureBounceCount() {
         return this.lastCaptureBounceCount;
@@ -79,59 +109,40 @@ public class AcousticRay {
         }
     }
 
-    /**
-     * Un record anidado para almacenar todos los datos de un único vértice de la trayectoria del rayo,
-     * tal y como se reciben desde el shader de Transform Feedback.
-     */
-    public record PathPoint(
-            Vec3 position,
-            float bounceStatus,
-            Vec3 normal,
-            float debugCode
-    ) {}
+    /** Recibe los puntos de una trayectoria sin crear un Vec3 por punto. */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(float x, float y, float z);
+    }
 
     public class InstantRay {
-        private final List<PathPoint> path = new ArrayList<>();
+        // La trayectoria vive en la arena compartida del lote; el rayo solo guarda su fila.
+        private RayPathArena paths = null;
+        private int rayIndex = -1;
         private final List<Integer> bounceIndices = new ArrayList<>();
         private final float speed;
 
-        public InstantRay(Vec3 origin, Vec3 direction, float speed) {
+        public InstantRay(float speed) {
             this.speed = speed;
-            calculatePath(origin, direction);
         }
 
-        private void calculatePath(Vec3 origin, Vec3 direction) {
-            Minecraft mc = Minecraft.getInstance();
-            LocalPlayer player = mc.player;
-            assert player != null;
-            Level level = player.level();
-            // 1. Pide a RayShaderHandler que calcule la trayectoria
-            List<PathPoint> trajectory = RayShaderHandler.calculateRayPath(level, player, origin, direction, AcousticRayManager.getSoundSpeed(), maxBounces);
-
-
-            // 2. Guarda el resultado en patht/
-            this.path.clear();
-            this.path.addAll(trajectory);
+        private void setPath(RayPathArena paths, int rayIndex) {
+            this.paths = paths;
+            this.rayIndex = rayIndex;
         }
 
+        public RayPathArena getPaths() { return paths; }
+        public int getRayIndex() { return rayIndex; }
 
-        public List<Vec3> getPath() {
-            List<Vec3> positions = new ArrayList<>();
-            for (PathPoint p : path) {
-                positions.add(p.position());
-            }
-            return positions;
+        /** Número de puntos útiles de la trayectoria, hasta el de terminación (0 si está pendiente o si su trazado falló). */
+        public int getNumPoints() {
+            return paths != null && rayIndex < paths.getNumRays() ? paths.getVertexCount(rayIndex) : 0;
         }
+
         public List<Integer> getBounceIndices() { return bounceIndices; }
-        public List<PathPoint> getPathPoints() { return path; }
 
         public float getTotalLength() {
-            float total = 0;
-            for (int i = 1; i < path.size(); i++) {
-                // Accedemos al campo .position() de cada PathPoint antes de calcular la distancia
-                total += (float) path.get(i).position().distanceTo(path.get(i - 1).position());
-            }
-            return total;
+            return getNumPoints() > 0 ? paths.totalLength(rayIndex) : 0f;
         }
 
     }
@@ -152,10 +163,14 @@ public class AcousticRay {
         }
         public float getTickLaunched() { return tickLaunched; }
 
-        public List<Vec3> getPath() { return instantRay.getPath();}
+        public int getNumPoints() { return instantRay.getNumPoints(); }
         public List<Integer> getBounceIndices() { return instantRay.getBounceIndices(); }
 
-        public List<Vec3> buildRenderPath(long currentTick) {
+        /**
+         * Entrega a {@code out} los puntos de la parte de la trayectoria que ya se ha recorrido en este tick.
+         * @return El número de puntos entregados.
+         */
+        public int buildRenderPath(long currentTick, PointConsumer out) {
             // --- INICIO DE SECCIÓN DE DEBUG ---
             if (currentTick % 5 == 0) { // Imprimir solo cada 5 ticks para no saturar la consola
                 float debugMaxDistance = getDistanceTraveled(currentTick);
@@ -165,7 +180,7 @@ public class AcousticRay {
                         " | Ticks transcurridos: " + (currentTick - this.tickLaunched) +
                         " | Velocidad: " + this.propagationSpeed +
                         " | MaxDist Calculada: " + String.format("%.2f", debugMaxDistance) +
-                        " | Puntos en Origen (Shader): " + this.instantRay.getPath().size()
+                        " | Puntos en Origen (Shader): " + this.instantRay.getNumPoints()
         );*/
             }
             // --- FIN DE SECCIÓN DE DEBUG ---
@@ -187,43 +202,45 @@ public class AcousticRay {
 
             // El resto de la lógica del método para construir el camino permanece igual,
             // pero ahora usará la 'maxDistance' correcta.
-            List<Vec3> src = instantRay.getPath();
-            List<Vec3> dst = new ArrayList<>();
-
-            if (src.isEmpty()) {
-                return dst;
+            int numPoints = instantRay.getNumPoints();
+            if (numPoints == 0) {
+                return 0;
             }
+            RayPathArena src = instantRay.getPaths();
+            int ray = instantRay.getRayIndex();
 
-            dst.add(src.get(0));
+            out.accept(src.getX(ray, 0), src.getY(ray, 0), src.getZ(ray, 0));
+            int emitted = 1;
             float accumulatedDistance = 0f;
 
-            for (int i = 0; i < src.size() - 1; i++) {
-                Vec3 start = src.get(i);
-                Vec3 end = src.get(i + 1);
-                float segmentLength = (float) start.distanceTo(end);
+            for (int i = 0; i < numPoints - 1; i++) {
+                float segmentLength = src.segmentLength(ray, i);
 
                 if (accumulatedDistance + segmentLength > maxDistance) {
                     if (segmentLength == 0) continue;
                     float remainingDistance = maxDistance - accumulatedDistance;
                     float t = remainingDistance / segmentLength;
-                    Vec3 finalPoint = start.add(end.subtract(start).scale(t));
-                    dst.add(finalPoint);
-                    return dst;
+                    float sx = src.getX(ray, i), sy = src.getY(ray, i), sz = src.getZ(ray, i);
+                    out.accept(sx + (src.getX(ray, i + 1) - sx) * t,
+                               sy + (src.getY(ray, i + 1) - sy) * t,
+                               sz + (src.getZ(ray, i + 1) - sz) * t);
+                    return emitted + 1;
                 } else {
-                    dst.add(end);
+                    out.accept(src.getX(ray, i + 1), src.getY(ray, i + 1), src.getZ(ray, i + 1));
+                    emitted++;
                     accumulatedDistance += segmentLength;
                 }
             }
-            return dst;
+            return emitted;
         }
     }
 
     public boolean isExpired(long currentTick) {
-        return currentTick >= simulationExpireTick;
+        return !pending && currentTick >= simulationExpireTick;
     }
 
     public boolean isVisualExpired(long currentTick) {
-        return currentTick >= visualExpireTick;
+        return !pending && currentTick >= visualExpireTick;
     }
     public boolean hasSegmentBeenProcessed(int segmentIndex) {
         return processedSegments.contains(segmentIndex);
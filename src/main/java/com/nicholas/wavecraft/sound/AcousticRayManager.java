@@ -1,16 +1,13 @@
 package com.nicholas.wavecraft.sound;
 
 import com.mojang.blaze3d.systems.RenderSystem;
+import com.nicholas.wavecraft.config.WavecraftConfig;
 import com.nicholas.wavecraft.debug.SoundDebugger;
 import net.minecraft.client.Minecraft;
 import net.minecraft.client.player.LocalPlayer;
-import net.minecraft.core.BlockPos;
 import net.minecraft.resources.ResourceLocation;
-import net.minecraft.world.level.ClipContext;
 import net.minecraft.world.level.Level;
-import net.minecraft.world.level.block.Block;
 import net.minecraft.world.phys.BlockHitResult;
-import net.minecraft.world.phys.HitResult;
 import net.minecraft.world.phys.Vec3;
 
 import java.util.*;
@@ -36,9 +33,31 @@ public class AcousticRayManager {
     private final List<AcousticRay> activeRays = new ArrayList<>();
     private final List<AcousticRay> pendingRays = new ArrayList<>(); // La lista de espera para los rayos recién creados.
 
+    // Backends de trazado; el activo se elige en la configuración (rayTracer).
+    private final RayTracer gpuTracer = new GpuRayTracer();
+    private final RayTracer cpuTracer = new CpuRayTracer();
+
+    // Generador compartido por todas las emisiones.
+    private final Random random = new Random();
+
+    // Lotes enviados al trazador cuyas trayectorias aún no han llegado.
+    private final List<RayBatch> inFlightBatches = new ArrayList<>();
+
+    // Contador de frames de render, para medir cuántos frames tarda cada lote en volver.
+    private long frameCounter = 0;
+    private long lastBatchLatencyFrames = -1;
+    private float lastBatchVertexFraction = 1.0f;
+    private float lastBatchEscapedFraction = 0.0f;
+    private long completedBatches = 0;
+    private long totalLatencyFrames = 0;
+
     //public final List<RayImpulseCapture> impulseLeft = new ArrayList<>();
     //public final List<RayImpulseCapture> impulseRight = new ArrayList<>();
 
+    // Cruces de plano encontrados en este tick; se convierten en capturas cuando se conoce su línea de visión.
+    private final List<CaptureCandidate> captureCandidates = new ArrayList<>();
+    private final LineOfSightBatch lineOfSight = new LineOfSightBatch();
+
     // Este Set guardará las claves de los sonidos cuyo rayo directo ya hemos procesado.
     private final Set<String> directPathProcessed = new HashSet<>();
 
@@ -51,7 +70,7 @@ public class AcousticRayManager {
     private static int numRays = 100;
     private static final int MAX_RAYS = 10000;
     public static final float MAX_RAY_DISTANCE = 1000.0f;
-    private static final int   MAX_RAY_BOUNCES  = 40;
+    public static final int   MAX_RAY_BOUNCES  = 40;
 
     public static int getNumRays() {
         return numRays;
@@ -85,10 +104,82 @@ public class AcousticRayManager {
         return raysToRender;
     }
 
+    /** El backend de trazado seleccionado en la configuración. */
+    public RayTracer getActiveTracer() {
+        return WavecraftConfig.RAY_TRACER.get() == WavecraftConfig.RayTracerBackend.CPU ? cpuTracer : gpuTracer;
+    }
+
+    /** Lo llama el renderizador una vez por frame. */
+    public void onRenderFrame() {
+        frameCounter++;
+    }
+
+    public long getFrameCounter() {
+        return frameCounter;
+    }
+
+    /** Frames que tardó en volver el último lote completado (-1 si aún no ha terminado ninguno). */
+    public long getLastBatchLatencyFrames() {
+        return lastBatchLatencyFrames;
+    }
+
+    /** Fracción de los vértices reservados que el último lote produjo de verdad (el resto los ahorró la terminación por energía). */
+    public float getLastBatchVertexFraction() {
+        return lastBatchVertexFraction;
+    }
+
+    /** Fracción de la energía emitida en el último lote que escapó del volumen sin volver (cielo abierto, sin paredes). */
+    public float getLastBatchEscapedFraction() {
+        return lastBatchEscapedFraction;
+    }
+
+    public double getAverageBatchLatencyFrames() {
+        return completedBatches == 0 ? 0.0 : totalLatencyFrames / (double) completedBatches;
+    }
+
+    public int getBatchesInFlight() {
+        return inFlightBatches.size();
+    }
+
+    /**
+     * Recoge, sin esperar a la GPU, los lotes cuyo trazado terminó en algún frame anterior
+     * y entrega a sus rayos pendientes la trayectoria calculada. Las trayectorias quedan además en el
+     * {@link PathCache} por si el sonido se repite.
+     */
+    private void collectFinishedBatches(long currentTick, Vec3 listener) {
+        Iterator<RayBatch> it = inFlightBatches.iterator();
+        while (it.hasNext()) {
+            RayBatch batch = it.next();
+            if (!batch.getTracer().poll(batch, frameCounter)) continue;
+            it.remove();
+
+            RayPathArena paths = batch.getPaths();
+            List<AcousticRay> rays = batch.getRays();
+            for (int i = 0; i < rays.size(); i++) {
+                // Si el trazado falló, la arena no tiene rayos: el rayo queda sin puntos y expira sin capturas.
+                rays.get(i).resolvePath(paths, i, currentTick, batch.getGridGeneration(), batch.getImageSourceOrder());
+            }
+
+            if (paths.getNumRays() > 0) {
+                // Con la generación sobre la que se trazó: si el mundo cambió mientras tanto, no se reutilizarán
+                PathCache.getInstance().store(new PathCache.CachedEmission(batch.getSoundId(), batch.getSource(), listener,
+                        batch.getGridGeneration(), currentTick, paths));
+                lastBatchVertexFraction = paths.getProducedVertices() / (float) (paths.getNumRays() * paths.getNumVertices());
+                lastBatchEscapedFraction = paths.getTotalEscapedEnergy() / paths.getNumRays();
+            }
+            lastBatchLatencyFrames = batch.getLatencyFrames();
+            totalLatencyFrames += lastBatchLatencyFrames;
+            completedBatches++;
+        }
+    }
+
     public void tick(Level level, long currentTick) {
         LocalPlayer player = Minecraft.getInstance().player;
         if (player == null) return;
 
+        // 0. Recoger los lotes que la GPU ya ha terminado (nunca bloquea).
+        collectFinishedBatches(currentTick, player.getEyePosition());
+
         // Usamos un bloque sincronizado para toda la operación, garantizando seguridad
         synchronized (activeRays) {
 
@@ -102,12 +193,24 @@ public class AcousticRayManager {
             // 2. Iterar y procesar con un ÚNICO bucle seguro.
             // Usamos un Iterador explícito, que es la única forma segura de eliminar
             // elementos de una lista mientras se recorre.
+            // Los ejes del jugador se calculan una vez por tick y se comparten entre todos los rayos.
+            Vec3 playerPos = player.getEyePosition();
+            Vec3 lookVec = player.getViewVector(1.0f);
+            Vec3 rightVec = lookVec.cross(new Vec3(0, 1, 0)).normalize();
+            Vec3 upVec = player.getUpVector(1.0f);
+
+            captureCandidates.clear();
+            lineOfSight.reset();
+
             Iterator<AcousticRay> it = activeRays.iterator();
             while (it.hasNext()) {
                 AcousticRay ray = it.next();
+                if (ray.isPending()) {
+                    continue; // Su trayectoria aún no ha llegado del trazador
+                }
                 if (!ray.isExpired(currentTick)) {
                     // 1. Procesar la trayectoria del rayo mientras esté activo
-                    checkRayPlaneIntersections(ray, player, level, currentTick);
+                    checkRayPlaneIntersections(ray, playerPos, lookVec, rightVec, upVec);
                 } else {
                     // 2. El rayo terminó su simulación; manejar visualización y limpieza
                     if (renderRays && !ray.isVisualExpired(currentTick)) {
@@ -118,84 +221,121 @@ public class AcousticRayManager {
                     }
                 }
             }
+
+            // 3. Todas las líneas de visión del tick se resuelven de una pasada sobre la rejilla que ya está en
+            //    servicio (las actualizaciones pendientes las aplica WorldTextureCache, no este bucle), y después se
+            //    generan las capturas en el mismo orden en que se encontraron los cruces.
+            if (!captureCandidates.isEmpty()) {
+                VoxelGrid grid = WorldTextureCache.getInstance().getGridInService();
+                if (grid != null) {
+                    lineOfSight.resolve(grid);
+                    for (CaptureCandidate candidate : captureCandidates) {
+                        emitCapture(candidate, playerPos, rightVec, currentTick);
+                    }
+                }
+                captureCandidates.clear();
+            }
         }
     }
 
 
-    public void spawnRay(Vec3 origin, Vec3 direction, float speed, long currentTick, ResourceLocation soundId) {
+    /**
+     * Crea un rayo pendiente para el lote. Devuelve null si ya se alcanzó el límite de rayos activos.
+     */
+    private AcousticRay spawnRay(float speed, long currentTick, ResourceLocation soundId) {
         // Añade un bloque sincronizado aquí para evitar la race condition
         synchronized (activeRays) {
-            if (activeRays.size() < MAX_RAYS) {
-                AcousticRay ray = new AcousticRay(origin, direction, speed, currentTick, soundId, MAX_RAY_BOUNCES);
-                //activeRays.add(ray);
+            if (activeRays.size() + pendingRays.size() < MAX_RAYS) {
+                AcousticRay ray = new AcousticRay(speed, currentTick, soundId, MAX_RAY_BOUNCES);
                 synchronized (pendingRays) {
                     pendingRays.add(ray);
                 }
+                return ray;
             }
         }
+        return null;
+    }
+
+    /**
+     * Genera todas las direcciones de la emisión y las envía como un único lote al trazador activo.
+     * No espera al resultado: los rayos quedan pendientes hasta que {@link #tick} recoge el lote.
+     * Debe llamarse desde el hilo de renderizado.
+     *
+     * @return false si el trazador no puede aceptar el lote ahora; el sonido debe reintentarse en otro frame.
+     */
+    public boolean emitRays(Vec3 sourcePos, ResourceLocation soundId, long currentTick) {
+        return emitRays(sourcePos, soundId, currentTick, numRays, 0);
     }
 
-    public void emitRays(Vec3 sourcePos, ResourceLocation soundId, long currentTick) {
-        final AcousticRayManager manager = this;
-        Random random = new Random();
-
-        for (int i = 0; i < numRays; i++) {
-            Vec3 dir = randomDirection(random);
-            Vec3 safeStartPos = sourcePos.add(dir.scale(0.1));
-
-            // --- LA CORRECCIÓN FINAL ---
-            // RenderSystem.recordRenderCall() asegura que nuestro código OpenGL
-            // se ejecuta en el momento adecuado dentro del ciclo de renderizado de Minecraft,
-            // evitando conflictos con otros procesos de renderizado.
-            //RenderSystem.recordRenderCall(() -> {
-            //    manager.spawnRay(safeStartPos, dir, getSoundSpeed(), currentTick, soundId);
-            //});
-            //manager.spawnRay(safeStartPos, dir, getSoundSpeed(), currentTick, soundId);
-            this.spawnRay(safeStartPos, dir, getSoundSpeed(), currentTick, soundId);
+    /**
+     * Igual que {@link #emitRays(Vec3, ResourceLocation, long)} pero con un número de rayos concreto (lo usa
+     * EmissionScheduler al degradar) y el orden de reflexión que ya cubrió ImageSourceEngine para este sonido.
+     */
+    public boolean emitRays(Vec3 sourcePos, ResourceLocation soundId, long currentTick, int rayCount, int imageSourceOrder) {
+        LocalPlayer player = Minecraft.getInstance().player;
+        if (player == null) return true;
+        RayTracer tracer = getActiveTracer();
+        if (!tracer.canAccept()) return false;
+
+        Vec3[] directions = DirectionSampler.of(WavecraftConfig.DIRECTION_SAMPLING.get()).sample(rayCount, random);
+        Vec3[] origins = new Vec3[rayCount];
+        for (int i = 0; i < rayCount; i++) {
+            origins[i] = sourcePos.add(directions[i].scale(0.1));
         }
+
+        RayBatch batch = new RayBatch(soundId, sourcePos, currentTick, origins, directions, MAX_RAY_BOUNCES,
+                RayTermination.fromConfig(random.nextInt()), imageSourceOrder);
+        if (!tracer.submit(player, batch, frameCounter)) {
+            return false;
+        }
+        batch.setTracer(tracer);
+
+        for (int i = 0; i < rayCount; i++) {
+            AcousticRay ray = this.spawnRay(getSoundSpeed(), currentTick, soundId);
+            if (ray == null) break; // Límite alcanzado: el resto de trayectorias del lote se descartan
+            batch.getRays().add(ray);
+        }
+        inFlightBatches.add(batch);
+        return true;
     }
 
-    private Vec3 randomDirection(Random random) {
-        double theta = random.nextDouble() * 2 * Math.PI;
-        double phi = Math.acos(2 * random.nextDouble() - 1);
-        double x = Math.sin(phi) * Math.cos(theta);
-        double y = Math.sin(phi) * Math.sin(theta);
-        double z = Math.cos(phi);
-        return new Vec3(x, y, z);
+    /**
+     * Vuelve a pasar por la captura las trayectorias guardadas de una emisión, con la pose del oyente de ahora,
+     * sin trazar nada (ver {@link PathCache}). Los rayos se crean ya resueltos y capturan en el siguiente tick,
+     * igual que los de un lote recién llegado.
+     */
+    public void replayPaths(PathCache.CachedEmission emission, long currentTick, int imageSourceOrder) {
+        RayPathArena paths = emission.paths();
+        for (int i = 0; i < paths.getNumRays(); i++) {
+            AcousticRay ray = this.spawnRay(getSoundSpeed(), currentTick, emission.soundId());
+            if (ray == null) break; // Límite alcanzado, como en emitRays
+            ray.resolvePath(paths, i, currentTick, emission.gridGeneration(), imageSourceOrder);
+        }
     }
 
     /**
      * Comprueba cada segmento de un rayo contra los tres planos ortogonales del jugador.
      * Si encuentra una intersección válida que no ha sido procesada, genera un impulso.
+     * Lee la trayectoria directamente de la arena del lote: el recorrido de segmentos no crea objetos.
      */
-    private void checkRayPlaneIntersections(AcousticRay ray, LocalPlayer player, Level level, long currentTick) {
-        List<AcousticRay.PathPoint> path = ray.getInstantRay().getPathPoints();
-        if (path.size() < 2) return;
-
-        Vec3 playerPos = player.getEyePosition();
-        Vec3 lookVec = player.getViewVector(1.0f);
-        Vec3 rightVec = lookVec.cross(new Vec3(0, 1, 0)).normalize();
-        Vec3 upVec = player.getUpVector(1.0f);
+    private void checkRayPlaneIntersections(AcousticRay ray,
+                                            Vec3 playerPos, Vec3 lookVec, Vec3 rightVec, Vec3 upVec) {
+        AcousticRay.InstantRay instantRay = ray.getInstantRay();
+        int numPoints = instantRay.getNumPoints();
+        if (numPoints < 2) return;
+        RayPathArena path = instantRay.getPaths();
+        int r = instantRay.getRayIndex();
 
         float cumulativeDistance = 0f;
         int bounceCount = 0;
         float reflectionAttenuation = 1.0f; // La energía del rayo, empieza al 100%
 
-        for (int i = 0; i < path.size() - 1; i++) {
-            AcousticRay.PathPoint startPoint = path.get(i);
-            Vec3 start = startPoint.position();
-            Vec3 end = path.get(i + 1).position();
-
+        for (int i = 0; i < numPoints - 1; i++) {
             // 1. ACTUALIZAR la energía si hubo un rebote al inicio de este segmento.
-            if (i > 0 && startPoint.bounceStatus() == 2.0f) {
+            //    El trazador ya la acumuló con la absorción de cada vóxel golpeado: no hay consultas al mundo.
+            if (i > 0 && path.getBounceStatus(r, i) == RayPathArena.STATUS_BOUNCE) {
                 bounceCount++;
-
-                BlockPos hitBlockPos = BlockPos.containing(startPoint.position().subtract(startPoint.normal().scale(0.01)));
-                Block hitBlock = level.getBlockState(hitBlockPos).getBlock();
-
-                // Usamos tu clase MaterialProperties para obtener la absorción
-                float absorption = MaterialProperties.getAbsorptionCoefficient(hitBlock);
-                reflectionAttenuation *= (1.0f - absorption);
+                reflectionAttenuation = path.getEnergy(r, i);
             }
 
             // 2. COMPROBAR si el rayo sigue "vivo" CON LA ENERGÍA YA ACTUALIZADA.
@@ -203,6 +343,7 @@ public class AcousticRayManager {
             float totalAttenuation = reflectionAttenuation * distanceAttenuation;
 
             // Si la atenuación total es demasiado alta, el rayo muere aquí y ahora.
+            // (La energía ya la recorta el trazador; este corte queda para la caída por distancia.)
             if (totalAttenuation < 0.001f) {
                 // Le decimos al rayo que su simulación terminó en este punto.
                 ray.setMaxAudibleDistance(cumulativeDistance);
@@ -210,124 +351,185 @@ public class AcousticRayManager {
             }
 
             // 3. PROCESAR las intersecciones solo si el rayo sigue vivo.
-            findIntersection(level, start, end, playerPos, rightVec, lookVec, upVec, rightVec, RayImpulseCapture.Plane.YZ, cumulativeDistance, ray, currentTick, i, bounceCount, reflectionAttenuation);
-            findIntersection(level, start, end, playerPos, upVec, lookVec, rightVec, rightVec, RayImpulseCapture.Plane.XZ, cumulativeDistance, ray, currentTick, i, bounceCount, reflectionAttenuation);
-            findIntersection(level, start, end, playerPos, lookVec, upVec, rightVec, rightVec, RayImpulseCapture.Plane.XY, cumulativeDistance, ray, currentTick, i, bounceCount, reflectionAttenuation);
+            int firstCandidate = captureCandidates.size();
+            findIntersection(path, r, i, playerPos, rightVec, lookVec, upVec, RayImpulseCapture.Plane.YZ, cumulativeDistance, ray, bounceCount, reflectionAttenuation);
+            findIntersection(path, r, i, playerPos, upVec, lookVec, rightVec, RayImpulseCapture.Plane.XZ, cumulativeDistance, ray, bounceCount, reflectionAttenuation);
+            findIntersection(path, r, i, playerPos, lookVec, upVec, rightVec, RayImpulseCapture.Plane.XY, cumulativeDistance, ray, bounceCount, reflectionAttenuation);
+
+            // Los tres planos comparten el tramo virtual (último rebote -> oyente): una sola consulta por segmento.
+            if (captureCandidates.size() > firstCandidate) {
+                int from = bounceCount == 0 ? 0 : i;
+                int query = lineOfSight.add(path.getX(r, from), path.getY(r, from), path.getZ(r, from), playerPos.x, playerPos.y, playerPos.z);
+                for (int c = firstCandidate; c < captureCandidates.size(); c++) {
+                    captureCandidates.get(c).lineOfSightQuery = query;
+                }
+            }
 
             // 4. AVANZAR la distancia acumulada para la siguiente iteración.
-            cumulativeDistance += (float) start.distanceTo(end);
+            cumulativeDistance += path.segmentLength(r, i);
         }
     }
 
 
+    /** Cruce de un segmento con uno de los planos del jugador, pendiente de la comprobación de línea de visión. */
+    private static final class CaptureCandidate {
+        final AcousticRay ray;
+        final RayPathArena path;
+        final int r, segmentIndex;
+        final double lx, ly, lz; // Punto de cruce relativo al centro del plano
+        final RayImpulseCapture.Plane planeType;
+        final float distanceSoFar;
+        final int bounceCount;
+        final float reflectionAttenuation;
+        int lineOfSightQuery = -1;
+
+        CaptureCandidate(AcousticRay ray, RayPathArena path, int r, int segmentIndex, double lx, double ly, double lz,
+                         RayImpulseCapture.Plane planeType, float distanceSoFar, int bounceCount, float reflectionAttenuation) {
+            this.ray = ray;
+            this.path = path;
+            this.r = r;
+            this.segmentIndex = segmentIndex;
+            this.lx = lx;
+            this.ly = ly;
+            this.lz = lz;
+            this.planeType = planeType;
+            this.distanceSoFar = distanceSoFar;
+            this.bounceCount = bounceCount;
+            this.reflectionAttenuation = reflectionAttenuation;
+        }
+    }
+
     /**
-     * Calcula si un segmento de línea intersecta un plano y, si lo hace, genera un RayImpulseCapture.
+     * Calcula si el segmento {@code segmentIndex} del rayo intersecta un plano y, si lo hace, guarda un candidato a captura.
+     * Los descartes (sin cruce, fuera del plano) se hacen con aritmética escalar; la línea de visión y la captura
+     * se resuelven después para todo el tick en {@link #emitCapture}.
      */
     private void findIntersection(
-            Level level,
-            Vec3 start, Vec3 end,
+            RayPathArena path, int r, int segmentIndex,
             Vec3 planeOrigin, Vec3 planeNormal,
             Vec3 surfaceAxis1, Vec3 surfaceAxis2,
-            Vec3 rightVec,
             RayImpulseCapture.Plane planeType,
             float distanceSoFar,
             AcousticRay ray,
-            long currentTick,
-            int segmentIndex,
             int bounceCountSoFar,
             float reflectionAttenuation // Parámetro de la atenuación por materiales
     ) {
-        Vec3 segmentDir = end.subtract(start);
-        double dotProduct = segmentDir.dot(planeNormal);
+        double sx = path.getX(r, segmentIndex), sy = path.getY(r, segmentIndex), sz = path.getZ(r, segmentIndex);
+        double dx = path.getX(r, segmentIndex + 1) - sx;
+        double dy = path.getY(r, segmentIndex + 1) - sy;
+        double dz = path.getZ(r, segmentIndex + 1) - sz;
+        double dotProduct = dx * planeNormal.x + dy * planeNormal.y + dz * planeNormal.z;
 
         if (Math.abs(dotProduct) < 1e-6) return;
 
-        Vec3 startToPlane = planeOrigin.subtract(start);
-        double t = startToPlane.dot(planeNormal) / dotProduct;
+        double t = ((planeOrigin.x - sx) * planeNormal.x + (planeOrigin.y - sy) * planeNormal.y + (planeOrigin.z - sz) * planeNormal.z) / dotProduct;
 
         // Comprueba si la intersección ocurre DENTRO del segmento de línea
         if (t >= 0 && t <= 1) {
-            Vec3 intersectionPoint = start.add(segmentDir.scale(t));
+            // Punto de intersección relativo al centro del plano
+            double lx = sx + dx * t - planeOrigin.x;
+            double ly = sy + dy * t - planeOrigin.y;
+            double lz = sz + dz * t - planeOrigin.z;
 
             // Comprueba si la intersección ocurre DENTRO de los límites del plano
-            Vec3 localHitPos = intersectionPoint.subtract(planeOrigin);
             float halfDim = SoundDebugger.dimensions / 2.0f;
-            if (Math.abs(localHitPos.dot(surfaceAxis1)) > halfDim || Math.abs(localHitPos.dot(surfaceAxis2)) > halfDim) {
+            if (Math.abs(lx * surfaceAxis1.x + ly * surfaceAxis1.y + lz * surfaceAxis1.z) > halfDim
+                    || Math.abs(lx * surfaceAxis2.x + ly * surfaceAxis2.y + lz * surfaceAxis2.z) > halfDim) {
                 return;
             }
 
-            // --- INICIO DE LA LÓGICA DE CAPTURA AVANZADA ---
+            captureCandidates.add(new CaptureCandidate(ray, path, r, segmentIndex, lx, ly, lz, planeType,
+                    distanceSoFar, bounceCountSoFar, reflectionAttenuation));
+        }
+    }
 
-            // Regla #1: ¿Ya hemos capturado un impulso para este rayo en este MISMO nivel de rebote?
-            if (bounceCountSoFar == ray.getLastCaptureBounceCount()) {
-                return;
-            }
+    /**
+     * Aplica las reglas de captura a un candidato (ya con su línea de visión resuelta) y, si las pasa,
+     * genera los impulsos de cada oído.
+     */
+    private void emitCapture(CaptureCandidate candidate, Vec3 planeOrigin, Vec3 rightVec, long currentTick) {
+        AcousticRay ray = candidate.ray;
+        int bounceCountSoFar = candidate.bounceCount;
+        double lx = candidate.lx, ly = candidate.ly, lz = candidate.lz;
 
-            // Regla #2: Comprobación de Línea de Visión (Raycast)
-            Vec3 lastBouncePoint = (bounceCountSoFar == 0) ? ray.getInstantRay().getPathPoints().get(0).position() : start;
-            ClipContext context = new ClipContext(lastBouncePoint, planeOrigin, ClipContext.Block.OUTLINE, ClipContext.Fluid.NONE, null);
-            if (level.clip(context).getType() == HitResult.Type.BLOCK) {
-                return; // ¡No hay impulso si el eco está bloqueado por un muro!
-            }
+        // --- INICIO DE LA LÓGICA DE CAPTURA AVANZADA ---
+
+        // Regla #1: ¿Ya hemos capturado un impulso para este rayo en este MISMO nivel de rebote?
+        if (bounceCountSoFar == ray.getLastCaptureBounceCount()) {
+            return;
+        }
+
+        // Regla #1b: las primeras reflexiones ya las añadió exactas ImageSourceEngine al encolar esta emisión
+        if (bounceCountSoFar > 0 && bounceCountSoFar <= ray.getImageSourceOrder()) {
+            return;
+        }
 
-            // --- CÁLCULOS FINALES (si hemos pasado todos los filtros) ---
+        // Regla #2: Comprobación de Línea de Visión, resuelta sobre la rejilla de vóxeles
+        if (!lineOfSight.isClear(candidate.lineOfSightQuery)) {
+            return; // ¡No hay impulso si el eco está bloqueado por un muro!
+        }
 
-            double virtualLegDistance = lastBouncePoint.distanceTo(planeOrigin);
-            double totalVirtualDistance = distanceSoFar + virtualLegDistance;
-            float timeSeconds = (float) (totalVirtualDistance / getSoundSpeed());
+        // --- CÁLCULOS FINALES (si hemos pasado todos los filtros) ---
 
-            // Atenuación por distancia (ley de la inversa)
-            float distanceAttenuation = 1.0f / (float) Math.max(1.0, totalVirtualDistance);
+        Vec3 lastBouncePoint = candidate.path.getPosition(candidate.r, bounceCountSoFar == 0 ? 0 : candidate.segmentIndex);
+        double virtualLegDistance = lastBouncePoint.distanceTo(planeOrigin);
+        double totalVirtualDistance = candidate.distanceSoFar + virtualLegDistance;
+        float timeSeconds = (float) (totalVirtualDistance / getSoundSpeed());
 
-            // Factor de mezcla para las reflexiones
-            float reflectionMix = 1.0f;
-            if (bounceCountSoFar > 0) {
-                reflectionMix = SoundDebugger.reflectionsMixFactor;
-            }
+        // Atenuación por distancia (ley de la inversa)
+        float distanceAttenuation = 1.0f / (float) Math.max(1.0, totalVirtualDistance);
 
-            // La atenuación final es el producto de todos los factores: distancia, material y mezcla.
-            float finalAttenuation = distanceAttenuation * reflectionAttenuation * reflectionMix;
-
-            // Cálculo de pesos binaurales
-            float panFactor = (float)Math.max(-1.0, Math.min(1.0, localHitPos.dot(rightVec) / halfDim));
-            float mix = SoundDebugger.binauralMixFactor;
-            float finalWeightRight = (0.5f * (1.0f + panFactor)) * (1.0f - mix) + 0.5f * mix;
-            float finalWeightLeft = (0.5f * (1.0f - panFactor)) * (1.0f - mix) + 0.5f * mix;
-
-            // --- CREACIÓN Y ENVÍO DE IMPULSOS ---
-
-            boolean impulseGenerated = false;
-            Vec3 sourcePosition = ray.getInstantRay().getPathPoints().get(0).position();
-
-            // Impulso para el oído izquierdo
-            if (finalWeightLeft > 0.01f) {
-                boolean isDirectPath = (bounceCountSoFar == 0);
-                String directPathKeyLeft = ray.getSoundId().toString() + "_L";
-                if (!isDirectPath || !directPathProcessed.contains(directPathKeyLeft)) {
-                    if (isDirectPath) directPathProcessed.add(directPathKeyLeft);
-                    RayImpulseCapture captureLeft = new RayImpulseCapture(ray.getSoundId(), sourcePosition, totalVirtualDistance, intersectionPoint, 0, timeSeconds, bounceCountSoFar, finalAttenuation, planeType, finalWeightLeft, false);
-                    ConvolutionManager.addCapture(captureLeft, currentTick);
-                    impulseGenerated = true;
-                }
-            }
+        // Factor de mezcla para las reflexiones
+        float reflectionMix = 1.0f;
+        if (bounceCountSoFar > 0) {
+            reflectionMix = SoundDebugger.reflectionsMixFactor;
+        }
 
-            // Impulso para el oído derecho
-            if (finalWeightRight > 0.01f) {
-                boolean isDirectPath = (bounceCountSoFar == 0);
-                String directPathKeyRight = ray.getSoundId().toString() + "_R";
-                if (!isDirectPath || !directPathProcessed.contains(directPathKeyRight)) {
-                    if (isDirectPath) directPathProcessed.add(directPathKeyRight);
-                    RayImpulseCapture captureRight = new RayImpulseCapture(ray.getSoundId(), sourcePosition, totalVirtualDistance, intersectionPoint, 0, timeSeconds, bounceCountSoFar, finalAttenuation, planeType, finalWeightRight, true);
-                    ConvolutionManager.addCapture(captureRight, currentTick);
-                    impulseGenerated = true;
-                }
+        // La atenuación final es el producto de todos los factores: distancia, material y mezcla.
+        float finalAttenuation = distanceAttenuation * candidate.reflectionAttenuation * reflectionMix;
+
+        // Cálculo de pesos binaurales
+        float halfDim = SoundDebugger.dimensions / 2.0f;
+        float panFactor = (float)Math.max(-1.0, Math.min(1.0, (lx * rightVec.x + ly * rightVec.y + lz * rightVec.z) / halfDim));
+        float mix = SoundDebugger.binauralMixFactor;
+        float finalWeightRight = (0.5f * (1.0f + panFactor)) * (1.0f - mix) + 0.5f * mix;
+        float finalWeightLeft = (0.5f * (1.0f - panFactor)) * (1.0f - mix) + 0.5f * mix;
+
+        // --- CREACIÓN Y ENVÍO DE IMPULSOS ---
+
+        boolean impulseGenerated = false;
+        Vec3 sourcePosition = candidate.path.getPosition(candidate.r, 0);
+        Vec3 intersectionPoint = new Vec3(planeOrigin.x + lx, planeOrigin.y + ly, planeOrigin.z + lz);
+        RayImpulseCapture.Plane planeType = candidate.planeType;
+
+        // Impulso para el oído izquierdo
+        if (finalWeightLeft > 0.01f) {
+            boolean isDirectPath = (bounceCountSoFar == 0);
+            String directPathKeyLeft = ray.getSoundId().toString() + "_L";
+            if (!isDirectPath || !directPathProcessed.contains(directPathKeyLeft)) {
+                if (isDirectPath) directPathProcessed.add(directPathKeyLeft);
+                RayImpulseCapture captureLeft = new RayImpulseCapture(ray.getSoundId(), sourcePosition, totalVirtualDistance, intersectionPoint, 0, timeSeconds, bounceCountSoFar, finalAttenuation, planeType, finalWeightLeft, false, ray.getGridGeneration());
+                ConvolutionManager.addCapture(captureLeft, currentTick);
+                impulseGenerated = true;
             }
+        }
 
-            // Si hemos generado al menos un impulso, actualizamos la memoria del rayo.
-            if (impulseGenerated) {
-                ray.setLastCaptureBounceCount(bounceCountSoFar);
+        // Impulso para el oído derecho
+        if (finalWeightRight > 0.01f) {
+            boolean isDirectPath = (bounceCountSoFar == 0);
+            String directPathKeyRight = ray.getSoundId().toString() + "_R";
+            if (!isDirectPath || !directPathProcessed.contains(directPathKeyRight)) {
+                if (isDirectPath) directPathProcessed.add(directPathKeyRight);
+                RayImpulseCapture captureRight = new RayImpulseCapture(ray.getSoundId(), sourcePosition, totalVirtualDistance, intersectionPoint, 0, timeSeconds, bounceCountSoFar, finalAttenuation, planeType, finalWeightRight, true, ray.getGridGeneration());
+                ConvolutionManager.addCapture(captureRight, currentTick);
+                impulseGenerated = true;
             }
         }
+
+        // Si hemos generado al menos un impulso, actualizamos la memoria del rayo.
+        if (impulseGenerated) {
+            ray.setLastCaptureBounceCount(bounceCountSoFar);
+        }
     }
 
     /**
@@ -2,6 +2,7 @@ package com.nicholas.wavecraft.sound;
 
 import com.mojang.blaze3d.audio.OggAudioStream;
 import com.mojang.blaze3d.audio.SoundBuffer;
+import com.nicholas.wavecraft.config.WavecraftConfig;
 import com.nicholas.wavecraft.debug.SoundDebugger;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
 import net.minecraft.client.Minecraft;
@@ -37,7 +38,9 @@ import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.HashMap;
+import java.util.Random;
 import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
 
 //import edu.emory.mathcs.jtransforms.fft.DoubleFFT_1D;
 
@@ -49,6 +52,7 @@ public class ConvolutionManager {
     private static final long TIMEOUT_TICKS = 1; // 20 ticks por segundo
 
     private static final Map<String, IRBuilder> impulseResponses = new HashMap<>();
+    private static final int IR_SAMPLE_RATE = 44100; // mismo que los OGG vanilla
 
     private static final Map<ResourceLocation, short[]> pcmCache = new HashMap<>(); // Caché para los datos PCM de los sonidos
 
@@ -61,20 +65,40 @@ public class ConvolutionManager {
         return cap.soundId().toString() + (cap.isRightEar() ? "_R" : "_L");
     }
 
+    /**
+     * Respuesta al impulso de un sonido para un oído. Hasta el tiempo de mezcla cada captura es un tap (delta);
+     * a partir de ahí solo se acumula su energía en intervalos de LATE_BIN_SAMPLES, y al hornear esa curva de
+     * caída se sintetiza como ruido con la misma energía por intervalo. La cola sale densa aunque lleguen pocos
+     * rayos, y su forma converge mucho antes que la posición de cada tap.
+     */
     public static class IRBuilder {
+        private static final int LATE_BIN_SAMPLES = IR_SAMPLE_RATE / 100; // 10 ms
+
         private final ResourceLocation srcId;
+        private final Vec3 sourcePos;
         private final boolean rightEar;
         private final long seed;
         private final FloatArrayList taps = new FloatArrayList();
-        private final int sampleRate = 44100; // mismo que los OGG vanilla
+        private final int sampleRate = IR_SAMPLE_RATE;
         private int captureCount = 0;
+        // Generación de rejilla común a todas las capturas, o UNKNOWN_GENERATION si llegaron de rejillas distintas
+        private long gridGeneration = RayImpulseCapture.UNKNOWN_GENERATION;
 
         private final int maxIRLengthSamples = (int)(2.0 * sampleRate); // Límite de 2 segundos
 
-        public IRBuilder(ResourceLocation srcId, boolean rightEar, long seed) {
+        // Campo tardío: energía por intervalo desde mixingSample (vacío si el tiempo de mezcla es 0)
+        private final int mixingSample;
+        private final float[] lateEnergy;
+        private int lastLateBin = -1;
+
+        public IRBuilder(ResourceLocation srcId, Vec3 sourcePos, boolean rightEar, long seed) {
             this.srcId = srcId;
+            this.sourcePos = sourcePos;
             this.rightEar = rightEar;
             this.seed = seed;
+            int mixingMs = WavecraftConfig.MIXING_TIME_MS.get();
+            this.mixingSample = mixingMs > 0 ? Math.min(maxIRLengthSamples, mixingMs * sampleRate / 1000) : maxIRLengthSamples;
+            this.lateEnergy = new float[(maxIRLengthSamples - mixingSample + LATE_BIN_SAMPLES - 1) / LATE_BIN_SAMPLES];
         }
 
         public long getSeed() {
@@ -82,6 +106,9 @@ public class ConvolutionManager {
         }
 
         public void add(RayImpulseCapture c) {
+            gridGeneration = captureCount == 0 || c.gridGeneration() == gridGeneration
+                    ? c.gridGeneration() : RayImpulseCapture.UNKNOWN_GENERATION;
+            captureCount++;
             int index = Math.round(c.timeSeconds() * sampleRate);
 
             if (index >= maxIRLengthSamples) {
@@ -106,21 +133,37 @@ public class ConvolutionManager {
             }
             // --- FIN DE LA NUEVA LÓGICA ---
 
+            // Después del tiempo de mezcla solo cuenta la energía: los caminos llegan con fases incoherentes
+            if (index >= mixingSample) {
+                int bin = (index - mixingSample) / LATE_BIN_SAMPLES;
+                lateEnergy[bin] += added * added;
+                lastLateBin = Math.max(lastLateBin, bin);
+                return;
+            }
+
             ensureSize(index);
             float current = taps.getFloat(index);
             taps.set(index, current + added);
         }
 
         public short[] bakePCM() {
-            if (taps.isEmpty()) {
+            int lateEnd = lastLateBin < 0 ? 0 : Math.min(maxIRLengthSamples, mixingSample + (lastLateBin + 1) * LATE_BIN_SAMPLES);
+            int length = Math.max(taps.size(), lateEnd);
+            if (length == 0) {
                 return new short[0];
             }
 
+            float[] ir = new float[length];
+            for (int i = 0; i < taps.size(); i++) {
+                ir[i] = taps.getFloat(i);
+            }
+            synthesizeLateField(ir, lateEnd);
+
             // Usamos la normalización de pico simple para evitar clipping.
             float maxAmplitude = 0.0f;
-            for (int i = 0; i < taps.size(); i++) {
-                if (Math.abs(taps.getFloat(i)) > maxAmplitude) {
-                    maxAmplitude = Math.abs(taps.getFloat(i));
+            for (int i = 0; i < ir.length; i++) {
+                if (Math.abs(ir[i]) > maxAmplitude) {
+                    maxAmplitude = Math.abs(ir[i]);
                 }
             }
 
@@ -129,19 +172,51 @@ public class ConvolutionManager {
                 peakNormalizationFactor = 1.0f / maxAmplitude;
             }
 
-            short[] pcm = new short[taps.size()];
+            short[] pcm = new short[ir.length];
             for (int i = 0; i < pcm.length; i++) {
-                float finalSample = taps.getFloat(i) * peakNormalizationFactor;
+                float finalSample = ir[i] * peakNormalizationFactor;
                 pcm[i] = (short) Math.round(finalSample * 32767);
             }
 
             return pcm;
         }
 
+        /**
+         * Suma a {@code ir} ruido gaussiano desde mixingSample hasta lateEnd con la energía de cada intervalo.
+         * La amplitud eficaz se interpola entre los centros de los intervalos para que la envolvente no tenga
+         * escalones cada 10 ms. La semilla es la del sonido: la misma emisión da siempre la misma cola.
+         */
+        private void synthesizeLateField(float[] ir, int lateEnd) {
+            if (lateEnd <= mixingSample) return;
+            float[] rms = new float[lastLateBin + 1];
+            for (int bin = 0; bin <= lastLateBin; bin++) {
+                rms[bin] = (float) Math.sqrt(lateEnergy[bin] / LATE_BIN_SAMPLES);
+            }
+
+            Random noise = new Random(seed ^ (rightEar ? 0x5DEECE66DL : 0L)); // Colas distintas por oído: más sensación de espacio
+            for (int i = mixingSample; i < lateEnd; i++) {
+                float position = (i - mixingSample + 0.5f) / LATE_BIN_SAMPLES - 0.5f;
+                int bin = (int) Math.floor(position);
+                float t = position - bin;
+                float a = rms[Math.max(0, Math.min(lastLateBin, bin))];
+                float b = rms[Math.max(0, Math.min(lastLateBin, bin + 1))];
+                ir[i] += (float) noise.nextGaussian() * (a + (b - a) * t);
+            }
+        }
+
         public ResourceLocation getSourceId() {
             return srcId;
         }
 
+        /** Rejilla sobre la que se calcularon todas las capturas; UNKNOWN_GENERATION si no hay una sola. */
+        public long getGridGeneration() {
+            return gridGeneration;
+        }
+
+        public Vec3 getSourcePos() {
+            return sourcePos;
+        }
+
         public boolean isRightEar() {
             return rightEar;
         }
@@ -169,49 +244,106 @@ public class ConvolutionManager {
         // para que pueda aceptar nuevos rayos directos en el siguiente.
         AcousticRayManager.getInstance().onResponsesProcessed();
 
+        // Las IR se hornean en la tarea de fondo de cada oído; al volver al hilo principal se guardan en el
+        // EmissionCoalescer junto a la posición del oyente y la generación del volumen sobre la que se trazaron.
+        LocalPlayer player = Minecraft.getInstance().player;
+        Vec3 listener = player != null ? player.getEyePosition() : Vec3.ZERO;
+        long currentTick = player != null ? player.level().getGameTime() : 0;
+
+        // Agrupamos los dos oídos de cada sonido para guardarlos juntos.
+        Map<ResourceLocation, IRBuilder[]> earsBySound = new HashMap<>();
         for (IRBuilder irBuilder : responsesToProcess.values()) {
+            earsBySound.computeIfAbsent(irBuilder.getSourceId(), id -> new IRBuilder[2])[irBuilder.isRightEar() ? 1 : 0] = irBuilder;
+        }
 
-            // CompletableFuture.supplyAsync() ejecuta el código en un hilo de fondo.
-            CompletableFuture.supplyAsync(() -> {
+        for (IRBuilder[] ears : earsBySound.values()) {
+            @SuppressWarnings("unchecked")
+            CompletableFuture<short[]>[] baked = new CompletableFuture[2];
+            IRBuilder any = null;
+            long gridGeneration = RayImpulseCapture.UNKNOWN_GENERATION;
+            boolean sameGeneration = true;
+            for (int ear = 0; ear < 2; ear++) {
+                IRBuilder irBuilder = ears[ear];
+                if (irBuilder == null) {
+                    baked[ear] = CompletableFuture.completedFuture(null);
+                    continue;
+                }
+                sameGeneration &= any == null || irBuilder.getGridGeneration() == gridGeneration;
+                gridGeneration = irBuilder.getGridGeneration();
+                any = irBuilder;
+                // El builder ya no recibe capturas (se sacó de impulseResponses), así que puede hornearse fuera
+                baked[ear] = convolveAndPlay(irBuilder.getSourceId(), irBuilder.getSeed(), irBuilder::bakePCM, irBuilder.isRightEar());
+            }
+            // Solo se reutiliza una IR cuyas capturas salieron todas de la misma rejilla: con capturas de lotes
+            // trazados antes y después de un cambio del mundo no describe ninguno de los dos
+            if (player != null && any != null && sameGeneration && gridGeneration != RayImpulseCapture.UNKNOWN_GENERATION) {
+                IRBuilder sound = any;
+                long generation = gridGeneration;
+                CompletableFuture.allOf(baked).thenRunAsync(() -> {
+                    short[] left = baked[0].join(), right = baked[1].join();
+                    EmissionCoalescer.getInstance().store(new EmissionCoalescer.RecentEmission(
+                            sound.getSourceId(), sound.getSourcePos(), listener, generation, currentTick, left, right));
+                    ImpulseResponseCache.getInstance().store(sound.getSourceId(), sound.getSourcePos(), player, generation, left, right);
+                }, Minecraft.getInstance());
+            }
+        }
+    }
 
-                // --- ESTO SE EJECUTA EN SEGUNDO PLANO ---
+    /**
+     * Reproduce un sonido con IR ya horneadas (de EmissionCoalescer o ImpulseResponseCache), sin trazar rayos.
+     */
+    public static void playBakedResponse(ResourceLocation soundId, Vec3 source, short[] irLeft, short[] irRight) {
+        long seed = source.hashCode();
+        if (irLeft != null) convolveAndPlay(soundId, seed, () -> irLeft, false);
+        if (irRight != null) convolveAndPlay(soundId, seed, () -> irRight, true);
+    }
 
-                // 1. Cargar el sonido original (I/O)
-                short[] originalPcm = loadSoundPCM(irBuilder.getSourceId(), irBuilder.getSeed());
-                if (originalPcm == null) return null; // Si falla, devolvemos null
+    /**
+     * Hornea la IR y convoluciona con ella el sonido original en un hilo de fondo, y lo reproduce en el hilo principal.
+     * @return La IR horneada, completada en el hilo principal después de reproducir (null si falló el horneado).
+     */
+    private static CompletableFuture<short[]> convolveAndPlay(ResourceLocation sourceId, long seed, Supplier<short[]> impulseResponse,
+                                                              boolean rightEar) {
+        short[][] baked = new short[1][];
+        // CompletableFuture.supplyAsync() ejecuta el código en un hilo de fondo.
+        return CompletableFuture.supplyAsync(() -> {
 
-                // 2. Hornear la respuesta al impulso
-                short[] impulseResponsePcm = irBuilder.bakePCM();
+            // --- ESTO SE EJECUTA EN SEGUNDO PLANO ---
 
-                System.out.println("Wavecraft Debug: Sonido Original Longitud = " + originalPcm.length);
-                System.out.println("Wavecraft Debug: Respuesta al Impulso Longitud = " + impulseResponsePcm.length);
+            // 0. Hornear la IR (con la síntesis de la cola tardía, que es lo caro)
+            short[] impulseResponsePcm = impulseResponse.get();
+            baked[0] = impulseResponsePcm;
 
+            // 1. Cargar el sonido original (I/O)
+            short[] originalPcm = loadSoundPCM(sourceId, seed);
+            if (originalPcm == null) return null; // Si falla, devolvemos null
 
-                // 3. Convolucionar (Cálculo pesado)
-                short[] convolvedPcm = convolve(originalPcm, impulseResponsePcm);
-                if (convolvedPcm == null) return null;
+            System.out.println("Wavecraft Debug: Sonido Original Longitud = " + originalPcm.length);
+            System.out.println("Wavecraft Debug: Respuesta al Impulso Longitud = " + impulseResponsePcm.length);
 
-                // 4. Aplicar el Pitch
-                float pitch = getOriginalPitch(irBuilder.getSourceId());
-                int pitchedSampleRate = Math.max(4000, Math.min(96000,
-                        (int)(irBuilder.sampleRate * pitch)));
+            // 2. Convolucionar (Cálculo pesado)
+            short[] convolvedPcm = convolve(originalPcm, impulseResponsePcm);
+            if (convolvedPcm == null) return null;
 
-                // 5. Empaquetar el resultado para devolverlo al hilo principal
-                return new ConvolvedAudio(convolvedPcm, pitchedSampleRate, irBuilder.isRightEar());
+            // 3. Aplicar el Pitch
+            float pitch = getOriginalPitch(sourceId);
+            int pitchedSampleRate = Math.max(4000, Math.min(96000,
+                    (int)(IR_SAMPLE_RATE * pitch)));
 
-            }).thenAcceptAsync(result -> {
+            // 4. Empaquetar el resultado para devolverlo al hilo principal
+            return new ConvolvedAudio(convolvedPcm, pitchedSampleRate, rightEar);
 
-                // --- ESTO SE EJECUTA DE VUELTA EN EL HILO PRINCIPAL DE MINECRAFT ---
+        }).thenApplyAsync(result -> {
 
-                if (result != null) {
-                    // 6. Reproducir el audio ya procesado. Esta parte es rápida.
-                    playRawPCM(result.pcm(), result.sampleRate(), result.isRightEar());
-                    //System.out.println("[DEBUG AUDIO] Reproduciendo audio convolucionado...");
+            // --- ESTO SE EJECUTA DE VUELTA EN EL HILO PRINCIPAL DE MINECRAFT ---
 
-                }
+            if (result != null) {
+                // 5. Reproducir el audio ya procesado. Esta parte es rápida.
+                playRawPCM(result.pcm(), result.sampleRate(), result.isRightEar());
+            }
+            return baked[0];
 
-            }, Minecraft.getInstance()); // El segundo argumento asegura que se ejecute en el hilo de MC
-        }
+        }, Minecraft.getInstance()); // El segundo argumento asegura que se ejecute en el hilo de MC
     }
     /** Se llama tan pronto generas cada captura */
     /*public static void schedule(RayImpulseCapture cap, long currentTick) {
@@ -236,6 +368,7 @@ public class ConvolutionManager {
         String key = generateKey(capture);
         impulseResponses.computeIfAbsent(key, k -> new IRBuilder(
                 capture.soundId(),
+                capture.sourcePos(),
                 capture.isRightEar(),
                 capture.sourcePos().hashCode()
         )).add(capture);
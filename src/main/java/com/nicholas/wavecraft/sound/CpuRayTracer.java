@@ -0,0 +1,390 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Trazado en CPU: la misma lógica de rebotes DDA que ddaBounce en ray_vertex.glsl,
+ * pero sobre la {@link VoxelGrid} empaquetada y repartiendo los rayos del lote en un ForkJoinPool.
+ * No necesita contexto de OpenGL, así que no ocupa el hilo de render y puede usarse sin cliente gráfico.
+ */
+public class CpuRayTracer implements RayTracer {
+
+    // --- CONSTANTES (idénticas a las de ray_vertex.glsl) ---
+    private static final double EPSILON = 0.001;
+    private static final int MAX_DDA_STEPS = 256;
+    private static final double MAX_DISTANCE = 500.0;
+
+    private static final int MAX_BATCHES_IN_FLIGHT = 4;
+    private static final int RAYS_PER_TASK = 32; // Por debajo de este tamaño un subtrabajo ya no se divide
+
+    private final ForkJoinPool pool;
+    private final Map<RayBatch, ForkJoinTask<RayPathArena>> inFlight = new IdentityHashMap<>();
+
+    public CpuRayTracer() {
+        this(Math.max(1, Runtime.getRuntime().availableProcessors() - 1));
+    }
+
+    public CpuRayTracer(int parallelism) {
+        ForkJoinPool.ForkJoinWorkerThreadFactory factory = p -> {
+            ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(p);
+            thread.setName("Wavecraft-RayTracer-" + thread.getPoolIndex());
+            thread.setDaemon(true);
+            return thread;
+        };
+        this.pool = new ForkJoinPool(parallelism, factory, null, false);
+    }
+
+    @Override
+    public boolean canAccept() {
+        return inFlight.size() < MAX_BATCHES_IN_FLIGHT;
+    }
+
+    @Override
+    public boolean submit(LocalPlayer player, RayBatch batch, long frame) {
+        if (!canAccept()) return false;
+
+        // La rejilla se obtiene en el hilo de render; después es de solo lectura y segura para los workers.
+        VoxelGrid grid = WorldTextureCache.getInstance().getVoxelGrid(player);
+        Vec3[] origins = batch.getOrigins();
+        Vec3[] directions = batch.getDirections();
+        int maxBounces = batch.getMaxBounces();
+        RayTermination termination = batch.getTermination();
+        WavecraftConfig.BrickSkipping skipping = WavecraftConfig.CPU_BRICK_SKIPPING.get();
+
+        inFlight.put(batch, pool.submit(() -> trace(grid, origins, directions, maxBounces, termination, skipping)));
+        batch.markSubmitted(frame, grid.getGeneration());
+        return true;
+    }
+
+    @Override
+    public boolean poll(RayBatch batch, long frame) {
+        ForkJoinTask<RayPathArena> task = inFlight.get(batch);
+        if (task == null || !task.isDone()) return false;
+        inFlight.remove(batch);
+
+        RayPathArena paths;
+        try {
+            paths = task.join();
+        } catch (RuntimeException e) {
+            System.err.println("[Wavecraft] El trazado en CPU falló; se descarta el lote de " + batch.getNumRays() + " rayos.");
+            e.printStackTrace();
+            paths = RayPathArena.empty(batch.getNumVertices());
+        }
+        batch.complete(paths, frame);
+        return true;
+    }
+
+    /**
+     * Traza todos los rayos en paralelo y devuelve una trayectoria por rayo, en el orden de {@code origins}.
+     * Cada trayectoria tiene exactamente {@code maxBounces + 1} puntos, como el buffer de feedback de la GPU.
+     */
+    public static RayPathArena trace(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces) {
+        return trace(grid, origins, directions, maxBounces, RayTermination.NONE);
+    }
+
+    public static RayPathArena trace(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces, RayTermination termination) {
+        return trace(grid, origins, directions, maxBounces, termination, WavecraftConfig.CPU_BRICK_SKIPPING.get());
+    }
+
+    /** Igual, eligiendo qué ladrillos vacíos de la pirámide se saltan; las trayectorias no cambian, solo el coste. */
+    public static RayPathArena trace(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces, RayTermination termination,
+                                     WavecraftConfig.BrickSkipping skipping) {
+        RayPathArena out = new RayPathArena(origins.length, maxBounces + 1);
+        new TraceRange(grid, origins, directions, maxBounces, termination, skipping, out, 0, origins.length).invoke();
+        return out;
+    }
+
+    private static class TraceRange extends RecursiveAction {
+        private final VoxelGrid grid;
+        private final Vec3[] origins;
+        private final Vec3[] directions;
+        private final int maxBounces;
+        private final RayTermination termination;
+        private final WavecraftConfig.BrickSkipping skipping;
+        private final RayPathArena out;
+        private final int from, to;
+
+        TraceRange(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces, RayTermination termination,
+                   WavecraftConfig.BrickSkipping skipping, RayPathArena out, int from, int to) {
+            this.grid = grid;
+            this.origins = origins;
+            this.directions = directions;
+            this.maxBounces = maxBounces;
+            this.termination = termination;
+            this.skipping = skipping;
+            this.out = out;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= RAYS_PER_TASK) {
+                DdaHit hit = new DdaHit();
+                hit.skipBrickSize = skipBrickSize(skipping);
+                for (int i = from; i < to; i++) {
+                    traceRay(grid, origins[i], directions[i], maxBounces, termination, hit, out, i);
+                }
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new TraceRange(grid, origins, directions, maxBounces, termination, skipping, out, from, mid),
+                      new TraceRange(grid, origins, directions, maxBounces, termination, skipping, out, mid, to));
+        }
+    }
+
+    /** Resultado de un paso de DDA; se reutiliza entre llamadas para no crear objetos por rebote. */
+    static final class DdaHit {
+        double x, y, z;
+        int normalX, normalY, normalZ;
+        float absorption; // Del vóxel golpeado; solo válida si hay normal
+        // Ladrillo vacío más pequeño que se salta de un paso: 4 (4³ y 16³), 16 (solo 16³) o 0 (vóxel a vóxel)
+        int skipBrickSize = 0;
+        boolean escapeToSky = true; // Cortar los rayos que suben por encima del terreno (ver VoxelGrid.hasOpenSky)
+        long steps; // Iteraciones de DDA acumuladas (un salto de ladrillo cuenta como una), para las mediciones
+
+        boolean hasNormal() {
+            return normalX != 0 || normalY != 0 || normalZ != 0;
+        }
+    }
+
+    /** Equivalente a main() de ray_vertex.glsl para todos los vértices de un rayo; escribe en la fila {@code ray} de la arena. */
+    static void traceRay(VoxelGrid grid, Vec3 origin, Vec3 direction, int maxBounces, RayTermination termination,
+                         DdaHit hit, RayPathArena out, int ray) {
+        out.set(ray, 0, (float) origin.x, (float) origin.y, (float) origin.z, RayPathArena.STATUS_ORIGIN, 0, 0, 0, 1.0f);
+        float energy = 1.0f;
+
+        double len = Math.sqrt(direction.x * direction.x + direction.y * direction.y + direction.z * direction.z);
+        double ox = origin.x, oy = origin.y, oz = origin.z;
+        double dx = len > 0 ? direction.x / len : 0, dy = len > 0 ? direction.y / len : 0, dz = len > 0 ? direction.z / len : 0;
+
+        for (int bounceNum = 0; bounceNum < maxBounces; bounceNum++) {
+            ddaBounce(grid, ox, oy, oz, dx, dy, dz, hit);
+
+            float remaining = hit.hasNormal() ? termination.apply(energy * (1.0f - hit.absorption), ray, bounceNum) : energy;
+            if (!hit.hasNormal() || remaining == RayTermination.KILLED) {
+                // Terminación: el rayo escapó o se quedó sin energía; el resto de vértices repiten este punto
+                out.set(ray, bounceNum + 1, (float) hit.x, (float) hit.y, (float) hit.z, RayPathArena.STATUS_TERMINATED, 0, 0, 0,
+                        hit.hasNormal() ? 0.0f : energy);
+                for (int v = bounceNum + 2; v <= maxBounces; v++) {
+                    out.repeatTerminated(ray, v);
+                }
+                out.setVertexCount(ray, bounceNum + 2);
+                return;
+            }
+
+            energy = remaining;
+            out.set(ray, bounceNum + 1, (float) hit.x, (float) hit.y, (float) hit.z, RayPathArena.STATUS_BOUNCE,
+                    hit.normalX, hit.normalY, hit.normalZ, energy);
+
+            ox = hit.x + hit.normalX * EPSILON;
+            oy = hit.y + hit.normalY * EPSILON;
+            oz = hit.z + hit.normalZ * EPSILON;
+            // reflect(d, n) = d - 2 * dot(n, d) * n
+            double dot = dx * hit.normalX + dy * hit.normalY + dz * hit.normalZ;
+            dx -= 2 * dot * hit.normalX;
+            dy -= 2 * dot * hit.normalY;
+            dz -= 2 * dot * hit.normalZ;
+        }
+    }
+
+    static int skipBrickSize(WavecraftConfig.BrickSkipping skipping) {
+        return switch (skipping) {
+            case NONE -> 0;
+            case BRICK16 -> 16;
+            case ALL -> 4;
+        };
+    }
+
+    /**
+     * Iteraciones medias de DDA por rayo al trazar el lote en un solo hilo, saltando unos u otros ladrillos vacíos
+     * de la pirámide y con o sin el escape al cielo. Lo usan los benchmarks de /wc para medir cuánto recorrido
+     * ahorra cada uno.
+     */
+    public static double averageDdaSteps(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces,
+                                         WavecraftConfig.BrickSkipping skipping, boolean escapeToSky) {
+        return averageDdaSteps(grid, origins, directions, maxBounces, skipping, escapeToSky, null);
+    }
+
+    /** Igual, dejando las trayectorias en {@code out} si no es null (para compararlas y medir la energía escapada). */
+    public static double averageDdaSteps(VoxelGrid grid, Vec3[] origins, Vec3[] directions, int maxBounces,
+                                         WavecraftConfig.BrickSkipping skipping, boolean escapeToSky, RayPathArena out) {
+        if (out == null) out = new RayPathArena(origins.length, maxBounces + 1);
+        DdaHit hit = new DdaHit();
+        hit.skipBrickSize = skipBrickSize(skipping);
+        hit.escapeToSky = escapeToSky;
+        for (int i = 0; i < origins.length; i++) {
+            traceRay(grid, origins[i], directions[i], maxBounces, RayTermination.NONE, hit, out, i);
+        }
+        return origins.length == 0 ? 0.0 : hit.steps / (double) origins.length;
+    }
+
+    /** Distancia (en unidades de t) hasta la siguiente frontera de celda en un eje, como la inicialización de ddaBounce. */
+    static double sideDistance(int map, int step, double origin, double tDelta) {
+        return step > 0 ? (map + 1.0 - origin) * tDelta : (origin - map) * tDelta;
+    }
+
+    /**
+     * Equivalente a ddaBounce de ray_dda.glsl. Si la celda actual está en un ladrillo vacío de la pirámide,
+     * el paso cruza el ladrillo entero: sale por la cara que el rayo alcanza primero y continúa en la celda
+     * vecina, con las distancias a las fronteras recalculadas desde el origen del segmento.
+     * El límite de MAX_DDA_STEPS cuenta celdas cruzadas, no iteraciones: un salto gasta las celdas que habría
+     * recorrido el DDA vóxel a vóxel, así que saltar ladrillos no cambia hasta dónde llega el rayo.
+     */
+    static void ddaBounce(VoxelGrid grid, double ox, double oy, double oz, double dx, double dy, double dz, DdaHit hit) {
+        hit.normalX = 0; hit.normalY = 0; hit.normalZ = 0;
+        if (Math.sqrt(dx * dx + dy * dy + dz * dz) < 0.001) {
+            hit.x = ox; hit.y = oy; hit.z = oz;
+            return;
+        }
+
+        int mapX = (int) Math.floor(ox), mapY = (int) Math.floor(oy), mapZ = (int) Math.floor(oz);
+        double tDeltaX = Math.abs(1.0 / dx), tDeltaY = Math.abs(1.0 / dy), tDeltaZ = Math.abs(1.0 / dz);
+        int stepX = (int) Math.signum(dx), stepY = (int) Math.signum(dy), stepZ = (int) Math.signum(dz);
+
+        double sideX = sideDistance(mapX, stepX, ox, tDeltaX);
+        double sideY = sideDistance(mapY, stepY, oy, tDeltaY);
+        double sideZ = sideDistance(mapZ, stepZ, oz, tDeltaZ);
+
+        // El bucle exterior consulta la pirámide; el interior avanza celda a celda sin volver a consultarla
+        // mientras el rayo siga dentro del mismo ladrillo de 4³ ocupado.
+        int cells = 0; // Celdas cruzadas, para el límite de pasos
+        int steps = 0; // Iteraciones, para las mediciones
+        double travel = 0;
+        int skip = hit.skipBrickSize;
+        march:
+        while (cells < MAX_DDA_STEPS) {
+            int brick = skip > 0 ? grid.emptyBrickSize(mapX, mapY, mapZ) : 0;
+            if (brick < skip) brick = 0;
+            if (brick > 0) {
+                steps++;
+                // En el cielo: si ya no queda terreno por encima del rayo, escapa sin recorrer el resto
+                if (brick == 16 && stepY > 0 && hit.escapeToSky
+                        && grid.hasOpenSky(ox + dx * travel, oy + dy * travel, oz + dz * travel, dx, dy, dz)) {
+                    break;
+                }
+                // Celdas del ladrillo en coordenadas del mundo (alineado al origen de la rejilla; brick es potencia de 2)
+                int minX = grid.getOriginX() + ((mapX - grid.getOriginX()) & -brick);
+                int minY = grid.getOriginY() + ((mapY - grid.getOriginY()) & -brick);
+                int minZ = grid.getOriginZ() + ((mapZ - grid.getOriginZ()) & -brick);
+                double exitX = stepX == 0 ? Double.POSITIVE_INFINITY : sideDistance(stepX > 0 ? minX + brick - 1 : minX, stepX, ox, tDeltaX);
+                double exitY = stepY == 0 ? Double.POSITIVE_INFINITY : sideDistance(stepY > 0 ? minY + brick - 1 : minY, stepY, oy, tDeltaY);
+                double exitZ = stepZ == 0 ? Double.POSITIVE_INFINITY : sideDistance(stepZ > 0 ? minZ + brick - 1 : minZ, stepZ, oz, tDeltaZ);
+
+                // Mismo desempate que el paso simple: x solo si es estrictamente la menor, y antes que z
+                int fromX = mapX, fromY = mapY, fromZ = mapZ;
+                if (exitX < exitY && exitX < exitZ) {
+                    travel = exitX;
+                    mapX = (stepX > 0 ? minX + brick - 1 : minX) + stepX;
+                    mapY = clamp((int) Math.floor(oy + dy * travel), minY, minY + brick - 1);
+                    mapZ = clamp((int) Math.floor(oz + dz * travel), minZ, minZ + brick - 1);
+                    hit.normalX = -stepX; hit.normalY = 0; hit.normalZ = 0;
+                } else if (exitY < exitZ) {
+                    travel = exitY;
+                    mapX = clamp((int) Math.floor(ox + dx * travel), minX, minX + brick - 1);
+                    mapY = (stepY > 0 ? minY + brick - 1 : minY) + stepY;
+                    mapZ = clamp((int) Math.floor(oz + dz * travel), minZ, minZ + brick - 1);
+                    hit.normalX = 0; hit.normalY = -stepY; hit.normalZ = 0;
+                } else {
+                    travel = exitZ;
+                    mapX = clamp((int) Math.floor(ox + dx * travel), minX, minX + brick - 1);
+                    mapY = clamp((int) Math.floor(oy + dy * travel), minY, minY + brick - 1);
+                    mapZ = (stepZ > 0 ? minZ + brick - 1 : minZ) + stepZ;
+                    hit.normalX = 0; hit.normalY = 0; hit.normalZ = -stepZ;
+                }
+                sideX = sideDistance(mapX, stepX, ox, tDeltaX);
+                sideY = sideDistance(mapY, stepY, oy, tDeltaY);
+                sideZ = sideDistance(mapZ, stepZ, oz, tDeltaZ);
+
+                // El DDA vóxel a vóxel habría llegado a la misma celda cruzando una frontera por celda; si se queda
+                // sin pasos dentro del ladrillo vacío, tampoco habría chocado con nada
+                cells += Math.abs(mapX - fromX) + Math.abs(mapY - fromY) + Math.abs(mapZ - fromZ);
+                if (cells > MAX_DDA_STEPS || travel > MAX_DISTANCE) break;
+                if (grid.isSolid(mapX, mapY, mapZ)) {
+                    hit.steps += steps;
+                    setHit(grid, mapX, mapY, mapZ, ox, oy, oz, dx, dy, dz, travel, hit);
+                    return;
+                }
+                continue;
+            }
+
+            // Límites del ladrillo ocupado actual (del menor tamaño que se salta); sin pirámide el recorrido no se corta nunca
+            int loX = Integer.MIN_VALUE, loY = Integer.MIN_VALUE, loZ = Integer.MIN_VALUE;
+            int hiX = Integer.MAX_VALUE, hiY = Integer.MAX_VALUE, hiZ = Integer.MAX_VALUE;
+            if (skip > 0) {
+                loX = grid.getOriginX() + ((mapX - grid.getOriginX()) & -skip); hiX = loX + skip - 1;
+                loY = grid.getOriginY() + ((mapY - grid.getOriginY()) & -skip); hiY = loY + skip - 1;
+                loZ = grid.getOriginZ() + ((mapZ - grid.getOriginZ()) & -skip); hiZ = loZ + skip - 1;
+            }
+            do {
+                cells++;
+                steps++;
+                if (sideX < sideY && sideX < sideZ) {
+                    travel = sideX;
+                    sideX += tDeltaX;
+                    mapX += stepX;
+                    hit.normalX = -stepX; hit.normalY = 0; hit.normalZ = 0;
+                } else if (sideY < sideZ) {
+                    travel = sideY;
+                    sideY += tDeltaY;
+                    mapY += stepY;
+                    hit.normalX = 0; hit.normalY = -stepY; hit.normalZ = 0;
+                } else {
+                    travel = sideZ;
+                    sideZ += tDeltaZ;
+                    mapZ += stepZ;
+                    hit.normalX = 0; hit.normalY = 0; hit.normalZ = -stepZ;
+                }
+
+                if (travel > MAX_DISTANCE) break march;
+                if (grid.isSolid(mapX, mapY, mapZ)) {
+                    hit.steps += steps;
+                    setHit(grid, mapX, mapY, mapZ, ox, oy, oz, dx, dy, dz, travel, hit);
+                    return;
+                }
+                // El escape al cielo solo usa las alturas de columna, no la pirámide, así que también se comprueba
+                // sin saltar ladrillos: en cada capa que sube el rayo por el aire (la altura es lo que lo hace posible)
+                // y solo si ya está por encima de su propia columna, que es lo barato de descartar bajo un techo
+                if (hit.normalY < 0 && hit.escapeToSky && !belowColumnTop(grid, mapX, mapY, mapZ)
+                        && grid.hasOpenSky(ox + dx * travel, oy + dy * travel, oz + dz * travel, dx, dy, dz)) {
+                    break march;
+                }
+            } while (cells < MAX_DDA_STEPS
+                    && mapX >= loX && mapX <= hiX && mapY >= loY && mapY <= hiY && mapZ >= loZ && mapZ <= hiZ);
+        }
+
+        hit.steps += steps;
+        hit.normalX = 0; hit.normalY = 0; hit.normalZ = 0;
+        hit.x = ox + dx * MAX_DISTANCE;
+        hit.y = oy + dy * MAX_DISTANCE;
+        hit.z = oz + dz * MAX_DISTANCE;
+    }
+
+    private static void setHit(VoxelGrid grid, int mapX, int mapY, int mapZ, double ox, double oy, double oz,
+                               double dx, double dy, double dz, double travel, DdaHit hit) {
+        hit.absorption = grid.getAbsorption(mapX, mapY, mapZ);
+        hit.x = ox + dx * travel;
+        hit.y = oy + dy * travel;
+        hit.z = oz + dz * travel;
+    }
+
+    /** true si la celda del mundo está dentro del volumen y por debajo de la altura de su columna. */
+    static boolean belowColumnTop(VoxelGrid grid, int worldX, int worldY, int worldZ) {
+        int x = worldX - grid.getOriginX(), z = worldZ - grid.getOriginZ();
+        if (x < 0 || z < 0 || x >= grid.getSize() || z >= grid.getSize()) return false;
+        return worldY - grid.getOriginY() < grid.getColumnTop(x, z);
+    }
+
+    static int clamp(int v, int min, int max) {
+        return v < min ? min : (v > max ? max : v);
+    }
+}
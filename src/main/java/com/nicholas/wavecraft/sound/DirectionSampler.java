@@ -0,0 +1,140 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Random;
+
+/**
+ * Genera las direcciones unitarias de una emisión. Los conjuntos de baja discrepancia cubren la esfera
+ * de forma más uniforme que las muestras independientes, así que hacen falta menos rayos para que la
+ * respuesta al impulso sea estable. Para que emisiones repetidas no tracen siempre los mismos rayos,
+ * los conjuntos deterministas se giran con una rotación aleatoria en cada emisión.
+ */
+public interface DirectionSampler {
+
+    /** Devuelve {@code count} direcciones unitarias. */
+    Vec3[] sample(int count, Random random);
+
+    static DirectionSampler of(WavecraftConfig.DirectionSampling mode) {
+        switch (mode) {
+            case FIBONACCI: return new FibonacciSphere();
+            case HALTON: return new RotatedHalton();
+            case STRATIFIED: return new JitteredStratified();
+            case RANDOM:
+            default: return new UniformRandom();
+        }
+    }
+
+    /** Muestras uniformes independientes (el comportamiento original de emitRays). */
+    final class UniformRandom implements DirectionSampler {
+        @Override
+        public Vec3[] sample(int count, Random random) {
+            Vec3[] out = new Vec3[count];
+            for (int i = 0; i < count; i++) {
+                out[i] = toSphere(random.nextDouble(), random.nextDouble());
+            }
+            return out;
+        }
+    }
+
+    /** Espiral de Fibonacci: puntos de igual área separados por el ángulo áureo. */
+    final class FibonacciSphere implements DirectionSampler {
+        private static final double GOLDEN_ANGLE = Math.PI * (3.0 - Math.sqrt(5.0));
+
+        @Override
+        public Vec3[] sample(int count, Random random) {
+            Rotation rotation = Rotation.random(random);
+            Vec3[] out = new Vec3[count];
+            for (int i = 0; i < count; i++) {
+                double z = 1.0 - (2.0 * i + 1.0) / count;
+                double r = Math.sqrt(Math.max(0.0, 1.0 - z * z));
+                double phi = GOLDEN_ANGLE * i;
+                out[i] = rotation.apply(r * Math.cos(phi), r * Math.sin(phi), z);
+            }
+            return out;
+        }
+    }
+
+    /** Secuencia de Halton en bases 2 y 3 llevada a la esfera con la proyección de igual área. */
+    final class RotatedHalton implements DirectionSampler {
+        @Override
+        public Vec3[] sample(int count, Random random) {
+            Rotation rotation = Rotation.random(random);
+            Vec3[] out = new Vec3[count];
+            for (int i = 0; i < count; i++) {
+                out[i] = rotation.apply(toSphere(radicalInverse(i + 1, 2), radicalInverse(i + 1, 3)));
+            }
+            return out;
+        }
+
+        static double radicalInverse(int index, int base) {
+            double result = 0.0;
+            double fraction = 1.0 / base;
+            while (index > 0) {
+                result += (index % base) * fraction;
+                index /= base;
+                fraction /= base;
+            }
+            return result;
+        }
+    }
+
+    /**
+     * Estratificación con jitter: la esfera se parte en bandas de igual área en z y cada banda en celdas
+     * de igual área en el azimut; cada rayo cae en un punto aleatorio de su celda.
+     */
+    final class JitteredStratified implements DirectionSampler {
+        @Override
+        public Vec3[] sample(int count, Random random) {
+            Vec3[] out = new Vec3[count];
+            if (count == 0) return out;
+            int bands = Math.max(1, (int) Math.round(Math.sqrt(count / 2.0)));
+            int index = 0;
+            for (int band = 0; band < bands; band++) {
+                // Repartimos el resto entre las primeras bandas para que el total sea exactamente count
+                int cells = count / bands + (band < count % bands ? 1 : 0);
+                for (int cell = 0; cell < cells; cell++) {
+                    double u = (band + random.nextDouble()) / bands;
+                    double v = (cell + random.nextDouble()) / cells;
+                    out[index++] = toSphere(u, v);
+                }
+            }
+            return out;
+        }
+    }
+
+    /** Proyección de igual área del cuadrado unidad a la esfera: z uniforme en [-1, 1] y azimut uniforme. */
+    static Vec3 toSphere(double u, double v) {
+        double z = 1.0 - 2.0 * u;
+        double r = Math.sqrt(Math.max(0.0, 1.0 - z * z));
+        double phi = 2.0 * Math.PI * v;
+        return new Vec3(r * Math.cos(phi), r * Math.sin(phi), z);
+    }
+
+    /** Rotación uniforme aleatoria (cuaternión de Shoemake) guardada como matriz 3x3. */
+    final class Rotation {
+        private final double m00, m01, m02, m10, m11, m12, m20, m21, m22;
+
+        private Rotation(double x, double y, double z, double w) {
+            m00 = 1 - 2 * (y * y + z * z); m01 = 2 * (x * y - z * w);     m02 = 2 * (x * z + y * w);
+            m10 = 2 * (x * y + z * w);     m11 = 1 - 2 * (x * x + z * z); m12 = 2 * (y * z - x * w);
+            m20 = 2 * (x * z - y * w);     m21 = 2 * (y * z + x * w);     m22 = 1 - 2 * (x * x + y * y);
+        }
+
+        static Rotation random(Random random) {
+            double u1 = random.nextDouble(), u2 = random.nextDouble(), u3 = random.nextDouble();
+            double a = Math.sqrt(1 - u1), b = Math.sqrt(u1);
+            return new Rotation(a * Math.sin(2 * Math.PI * u2), a * Math.cos(2 * Math.PI * u2),
+                                b * Math.sin(2 * Math.PI * u3), b * Math.cos(2 * Math.PI * u3));
+        }
+
+        Vec3 apply(double x, double y, double z) {
+            return new Vec3(m00 * x + m01 * y + m02 * z, m10 * x + m11 * y + m12 * z, m20 * x + m21 * y + m22 * z);
+        }
+
+        Vec3 apply(Vec3 v) {
+            return apply(v.x, v.y, v.z);
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Reutiliza la respuesta al impulso de una emisión reciente cuando el mismo sonido vuelve a sonar
+ * casi en el mismo sitio (pasos, mobs, romper bloques seguidos...). Si la fuente y el oyente están
+ * dentro de la tolerancia configurada y el volumen de vóxeles no ha cambiado, no se trazan rayos:
+ * se convoluciona directamente con la IR guardada.
+ */
+public class EmissionCoalescer {
+
+    private static final EmissionCoalescer INSTANCE = new EmissionCoalescer();
+
+    private EmissionCoalescer() {}
+
+    public static EmissionCoalescer getInstance() {
+        return INSTANCE;
+    }
+
+    private static final int MAX_ENTRIES = 64;
+
+    /** IR horneada de una emisión; cualquiera de los dos oídos puede faltar si no le llegó ningún rayo. */
+    public record RecentEmission(ResourceLocation soundId, Vec3 source, Vec3 listener, long gridGeneration,
+                                 long tick, short[] irLeft, short[] irRight) {}
+
+    private final Deque<RecentEmission> recent = new ArrayDeque<>(); // La más reciente primero
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Busca una emisión reciente equivalente. Cuenta un acierto o un fallo; devuelve null si no hay ninguna
+     * o si el agrupamiento está desactivado (tolerancia 0).
+     */
+    public synchronized RecentEmission lookup(ResourceLocation soundId, Vec3 source, Vec3 listener, long currentTick) {
+        double tolerance = WavecraftConfig.COALESCE_DISTANCE.get();
+        if (tolerance <= 0) return null;
+        expire(currentTick);
+
+        double toleranceSq = tolerance * tolerance;
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        for (RecentEmission emission : recent) {
+            if (emission.soundId().equals(soundId)
+                    && emission.source().distanceToSqr(source) <= toleranceSq
+                    && emission.listener().distanceToSqr(listener) <= toleranceSq
+                    && cache.isCurrent(emission.gridGeneration())) {
+                hits++;
+                return emission;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /** Guarda la IR recién horneada de una emisión trazada. */
+    public synchronized void store(RecentEmission emission) {
+        if (WavecraftConfig.COALESCE_DISTANCE.get() <= 0) return;
+        recent.addFirst(emission);
+        while (recent.size() > MAX_ENTRIES) {
+            recent.removeLast();
+        }
+    }
+
+    private void expire(long currentTick) {
+        int window = WavecraftConfig.COALESCE_WINDOW_TICKS.get();
+        Iterator<RecentEmission> it = recent.iterator();
+        while (it.hasNext()) {
+            if (currentTick - it.next().tick() > window) it.remove();
+        }
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized int getEntries() { return recent.size(); }
+}
@@ -0,0 +1,162 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.sounds.SoundSource;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Reparte las emisiones de rayos entre frames según un presupuesto de rayos por frame.
+ * Las emisiones pendientes se ordenan por audibilidad (volumen, distancia al oyente y categoría del sonido);
+ * cuando lo pendiente no cabe en unos pocos frames, las menos audibles se degradan (menos rayos)
+ * en lugar de descartarse, y ninguna espera más de MAX_WAIT_FRAMES.
+ */
+public class EmissionScheduler {
+
+    private static final EmissionScheduler INSTANCE = new EmissionScheduler();
+
+    private EmissionScheduler() {}
+
+    public static EmissionScheduler getInstance() {
+        return INSTANCE;
+    }
+
+    private static final int MIN_RAYS = 16;          // Por debajo de esto la respuesta al impulso no sirve
+    private static final int MAX_WAIT_FRAMES = 8;    // Pasado este tiempo una emisión sale aunque sea degradada
+
+    // Peso de cada categoría en la audibilidad; lo que no aparece cuenta como 1.
+    private static final Map<SoundSource, Float> CATEGORY_WEIGHTS = new EnumMap<>(SoundSource.class);
+    static {
+        CATEGORY_WEIGHTS.put(SoundSource.MUSIC, 0.2f);
+        CATEGORY_WEIGHTS.put(SoundSource.RECORDS, 0.8f);
+        CATEGORY_WEIGHTS.put(SoundSource.WEATHER, 0.4f);
+        CATEGORY_WEIGHTS.put(SoundSource.BLOCKS, 0.8f);
+        CATEGORY_WEIGHTS.put(SoundSource.NEUTRAL, 0.7f);
+        CATEGORY_WEIGHTS.put(SoundSource.AMBIENT, 0.3f);
+    }
+
+    private static final class PendingEmission {
+        final ResourceLocation location;
+        final Vec3 position;
+        final float priority;
+        final long sequence;
+        final int imageSourceOrder;
+        int rays;
+        int waitedFrames = 0;
+        boolean degraded = false;
+
+        PendingEmission(ResourceLocation location, Vec3 position, float priority, long sequence, int imageSourceOrder, int rays) {
+            this.location = location;
+            this.position = position;
+            this.priority = priority;
+            this.sequence = sequence;
+            this.imageSourceOrder = imageSourceOrder;
+            this.rays = rays;
+        }
+    }
+
+    // Más audible primero; a igual prioridad, la más antigua.
+    private final PriorityQueue<PendingEmission> queue = new PriorityQueue<>(
+            Comparator.comparingDouble((PendingEmission e) -> -e.priority).thenComparingLong(e -> e.sequence));
+    private long nextSequence = 0;
+
+    // Estadísticas para /wc rayStats
+    private int lastFrameRays = 0;
+    private long degradedEmissions = 0;
+
+    /** Audibilidad aproximada en el oyente: volumen por peso de categoría con caída de inversa del cuadrado. */
+    public static float audibility(float volume, Vec3 position, Vec3 listener, SoundSource category) {
+        double distanceSq = Math.max(1.0, position.distanceToSqr(listener));
+        float weight = category == null ? 1.0f : CATEGORY_WEIGHTS.getOrDefault(category, 1.0f);
+        return (float) (volume * weight / distanceSq);
+    }
+
+    /**
+     * Encola una emisión con el número de rayos configurado; se trazará en algún frame posterior.
+     * {@code imageSourceOrder} es el orden que ya cubrió ImageSourceEngine para este sonido.
+     */
+    public synchronized void enqueue(ResourceLocation location, Vec3 position, float volume, SoundSource category, Vec3 listener,
+                                     int imageSourceOrder) {
+        float priority = audibility(volume, position, listener, category);
+        queue.add(new PendingEmission(location, position, priority, nextSequence++, imageSourceOrder, AcousticRayManager.getNumRays()));
+    }
+
+    /**
+     * Emite lo que cabe en el presupuesto de este frame. Debe llamarse una vez por frame desde el hilo de render.
+     */
+    public synchronized void runFrame(long worldTime) {
+        lastFrameRays = 0;
+        if (queue.isEmpty()) return;
+
+        int budget = WavecraftConfig.RAY_BUDGET_PER_FRAME.get();
+        degradeToFit(budget);
+
+        AcousticRayManager manager = AcousticRayManager.getInstance();
+        // 1. En orden de prioridad, mientras quepan en el presupuesto
+        while (!queue.isEmpty() && queue.peek().rays <= budget) {
+            PendingEmission emission = queue.peek();
+            if (!manager.emitRays(emission.position, emission.location, worldTime, emission.rays, emission.imageSourceOrder)) {
+                break; // Trazador ocupado: se reintenta en el siguiente frame
+            }
+            queue.poll();
+            budget -= emission.rays;
+            lastFrameRays += emission.rays;
+        }
+
+        // 2. Las que ya esperaron demasiado salen con el mínimo de rayos aunque superen el presupuesto
+        List<PendingEmission> overdue = new ArrayList<>();
+        for (PendingEmission emission : queue) {
+            if (++emission.waitedFrames >= MAX_WAIT_FRAMES) {
+                overdue.add(emission);
+            }
+        }
+        for (PendingEmission emission : overdue) {
+            int rays = Math.min(emission.rays, Math.max(MIN_RAYS, budget));
+            if (!manager.emitRays(emission.position, emission.location, worldTime, rays, emission.imageSourceOrder)) {
+                break;
+            }
+            if (rays < emission.rays && !emission.degraded) degradedEmissions++;
+            queue.remove(emission);
+            budget -= rays;
+            lastFrameRays += rays;
+        }
+    }
+
+    /**
+     * Si los rayos pendientes no caben en MAX_WAIT_FRAMES frames de presupuesto, reduce a la mitad
+     * los de la emisión menos audible (sin bajar de MIN_RAYS) hasta que quepan o no se pueda más.
+     */
+    private void degradeToFit(int budget) {
+        long capacity = (long) budget * MAX_WAIT_FRAMES;
+        long pending = 0;
+        for (PendingEmission emission : queue) pending += emission.rays;
+
+        while (pending > capacity) {
+            PendingEmission weakest = null;
+            for (PendingEmission emission : queue) {
+                if (emission.rays > MIN_RAYS && (weakest == null || emission.priority < weakest.priority)) {
+                    weakest = emission;
+                }
+            }
+            if (weakest == null) return; // Todas al mínimo: esperan su turno
+            int reduced = Math.max(MIN_RAYS, weakest.rays / 2);
+            pending -= weakest.rays - reduced;
+            weakest.rays = reduced;
+            if (!weakest.degraded) {
+                weakest.degraded = true;
+                degradedEmissions++;
+            }
+        }
+    }
+
+    public synchronized int getQueuedEmissions() { return queue.size(); }
+    public synchronized int getLastFrameRays() { return lastFrameRays; }
+    public synchronized long getDegradedEmissions() { return degradedEmissions; }
+}
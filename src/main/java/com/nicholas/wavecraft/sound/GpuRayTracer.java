@@ -0,0 +1,25 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.client.player.LocalPlayer;
+
+/**
+ * Trazado en la GPU: el DDA de ray_vertex.glsl mediante Transform Feedback instanciado,
+ * con lectura diferida a través del anillo de buffers de {@link RayShaderHandler}.
+ */
+public class GpuRayTracer implements RayTracer {
+
+    @Override
+    public boolean canAccept() {
+        return RayShaderHandler.hasFreeFeedbackSlot();
+    }
+
+    @Override
+    public boolean submit(LocalPlayer player, RayBatch batch, long frame) {
+        return RayShaderHandler.submitBatch(player, batch, frame);
+    }
+
+    @Override
+    public boolean poll(RayBatch batch, long frame) {
+        return RayShaderHandler.pollBatch(batch, frame);
+    }
+}
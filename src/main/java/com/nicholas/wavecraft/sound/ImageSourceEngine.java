@@ -0,0 +1,324 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import com.nicholas.wavecraft.debug.SoundDebugger;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Reflexiones tempranas exactas por el método de las fuentes imagen. Las paredes se extraen del volumen de vóxeles
+ * fundiendo caras expuestas coplanarias en rectángulos (mallado voraz por capas) y se guardan mientras no cambie
+ * la generación de {@link WorldTextureCache}. Para cada sonido se reflejan la fuente en esas paredes (y la imagen
+ * otra vez para el segundo orden), se comprueba que el punto de reflexión cae dentro del rectángulo y que cada
+ * tramo es visible con el DDA del trazador, y se añade un tap por oído.
+ *
+ * Mientras las paredes del volumen actual estén listas, el trazador de rayos descarta las capturas de esos órdenes
+ * ({@link #getCoveredOrder}) y solo aporta el campo tardío, que converge con muchos menos rayos.
+ */
+public class ImageSourceEngine {
+
+    private static final ImageSourceEngine INSTANCE = new ImageSourceEngine();
+
+    private ImageSourceEngine() {}
+
+    public static ImageSourceEngine getInstance() {
+        return INSTANCE;
+    }
+
+    private static final int MIN_PLANE_AREA = 4;          // Caras más pequeñas difractan más de lo que reflejan: se quedan sin imagen
+    private static final float MAX_PATH_SECONDS = 2.0f;   // Lo mismo que guarda IRBuilder
+    private static final double SURFACE_OFFSET = 0.001;   // El EPSILON del trazador
+
+    /**
+     * Rectángulo de caras de vóxel coplanarias y del mismo material, en coordenadas del mundo. La pared está en
+     * {@code axis} = {@code coordinate} (0 = X, 1 = Y, 2 = Z), el aire queda del lado de {@code side} (+1 o -1)
+     * y abarca [u0, u1] × [v0, v1] en los ejes (axis + 1) % 3 y (axis + 2) % 3.
+     */
+    public record WallPlane(int axis, int side, int coordinate, int u0, int v0, int u1, int v1, float absorption) {
+
+        /** true si el punto está en el lado del aire de la pared. */
+        boolean faces(double[] p) {
+            return side * (p[axis] - coordinate) > 0;
+        }
+
+        /** Distancia al cuadrado del punto al rectángulo. */
+        double distanceSq(double[] p) {
+            double du = Math.max(0, Math.max(u0 - p[(axis + 1) % 3], p[(axis + 1) % 3] - u1));
+            double dv = Math.max(0, Math.max(v0 - p[(axis + 2) % 3], p[(axis + 2) % 3] - v1));
+            double da = p[axis] - coordinate;
+            return da * da + du * du + dv * dv;
+        }
+    }
+
+    // Paredes del volumen de la generación planesGeneration; la extracción va en segundo plano
+    private List<WallPlane> planes = null;
+    private long planesGeneration = -1;
+    private CompletableFuture<List<WallPlane>> extracting = null;
+    private long extractingGeneration = -1;
+
+    // Estadísticas para /wc rayStats
+    private long resolvedSources = 0;
+    private int lastTaps = 0;
+
+    /**
+     * Recoge la extracción en curso si ya terminó y lanza otra si las paredes no corresponden al volumen actual.
+     * Una vez por tick desde el hilo principal.
+     */
+    public synchronized void tick(LocalPlayer player) {
+        if (WavecraftConfig.IMAGE_SOURCE_ORDER.get() == 0) return;
+        if (extracting != null && extracting.isDone()) {
+            planes = extracting.join();
+            planesGeneration = extractingGeneration;
+            extracting = null;
+        }
+
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        if (extracting == null && !cache.isCurrent(planesGeneration)) {
+            VoxelGrid grid = cache.getVoxelGrid(player);
+            extractingGeneration = grid.getGeneration();
+            extracting = CompletableFuture.supplyAsync(() -> extractPlanes(grid));
+        }
+    }
+
+    /** Orden de reflexión hasta el que los taps salen de aquí y no del trazador; 0 si no hay paredes del volumen actual. */
+    public synchronized int getCoveredOrder() {
+        if (planes == null || !WorldTextureCache.getInstance().isCurrent(planesGeneration)) return 0;
+        return WavecraftConfig.IMAGE_SOURCE_ORDER.get();
+    }
+
+    /**
+     * Calcula fuera del hilo principal los taps de las reflexiones tempranas de este sonido, con la pose actual
+     * del oyente, y los entrega al ConvolutionManager de vuelta en él (como las conexiones de ListenerPathSet).
+     * @return El orden hasta el que se añadieron taps (0 si ninguno). Las capturas de rayos de esta misma emisión
+     *         tienen que filtrarse con este valor, no con el de {@link #getCoveredOrder} cuando lleguen.
+     */
+    public synchronized int addSource(ResourceLocation soundId, Vec3 source, LocalPlayer player) {
+        int order = getCoveredOrder();
+        if (order == 0) return 0;
+
+        VoxelGrid grid = WorldTextureCache.getInstance().getVoxelGrid(player);
+        List<WallPlane> walls = planes;
+        // Las paredes y las visibilidades tienen que salir de la misma rejilla para que la IR pueda guardarse
+        long generation = grid.getGeneration() == planesGeneration ? planesGeneration : RayImpulseCapture.UNKNOWN_GENERATION;
+        int maxPlanes = WavecraftConfig.IMAGE_SOURCE_PLANES.get();
+        Vec3 listener = player.getEyePosition();
+        Vec3 look = player.getViewVector(1.0f);
+        Vec3 right = look.cross(new Vec3(0, 1, 0)).normalize();
+        Vec3 up = player.getUpVector(1.0f);
+
+        CompletableFuture.supplyAsync(() -> computeTaps(grid, walls, order, maxPlanes, listener, right, up, look, soundId, source, generation))
+                .thenAcceptAsync(taps -> {
+                    Minecraft mc = Minecraft.getInstance();
+                    if (mc.level == null) return;
+                    long tick = mc.level.getGameTime();
+                    for (RayImpulseCapture tap : taps) {
+                        ConvolutionManager.addCapture(tap, tick);
+                    }
+                    synchronized (this) {
+                        resolvedSources++;
+                        lastTaps = taps.size();
+                    }
+                }, Minecraft.getInstance());
+        return order;
+    }
+
+    /**
+     * Funde las caras expuestas de la rejilla en rectángulos: para cada eje, sentido y capa, una máscara con la
+     * absorción de cada cara (0 = sin cara) y un recorrido voraz que crece primero a lo ancho y luego a lo alto.
+     * Fuera del volumen se considera aire, como en el trazador.
+     */
+    public static List<WallPlane> extractPlanes(VoxelGrid grid) {
+        int n = grid.getSize();
+        int[] origin = { grid.getOriginX(), grid.getOriginY(), grid.getOriginZ() };
+        int[] mask = new int[n * n];
+        int[] cell = new int[3];
+        List<WallPlane> planes = new ArrayList<>();
+
+        for (int axis = 0; axis < 3; axis++) {
+            int ua = (axis + 1) % 3, va = (axis + 2) % 3;
+            for (int side = -1; side <= 1; side += 2) {
+                for (int s = 0; s < n; s++) {
+                    boolean any = false;
+                    for (int v = 0; v < n; v++) {
+                        for (int u = 0; u < n; u++) {
+                            cell[axis] = s;
+                            cell[ua] = u;
+                            cell[va] = v;
+                            int m = 0;
+                            if (grid.isSolidLocal(cell[0], cell[1], cell[2])) {
+                                int absorption = grid.getAbsorptionByteLocal(cell[0], cell[1], cell[2]);
+                                cell[axis] = s + side;
+                                if (!grid.isSolidLocal(cell[0], cell[1], cell[2])) {
+                                    m = absorption + 1;
+                                    any = true;
+                                }
+                            }
+                            mask[v * n + u] = m;
+                        }
+                    }
+                    if (!any) continue;
+
+                    int coordinate = origin[axis] + s + (side > 0 ? 1 : 0);
+                    for (int v = 0; v < n; v++) {
+                        for (int u = 0; u < n; u++) {
+                            int m = mask[v * n + u];
+                            if (m == 0) continue;
+                            int w = 1;
+                            while (u + w < n && mask[v * n + u + w] == m) w++;
+                            int h = 1;
+                            grow:
+                            while (v + h < n) {
+                                for (int k = 0; k < w; k++) {
+                                    if (mask[(v + h) * n + u + k] != m) break grow;
+                                }
+                                h++;
+                            }
+                            for (int j = 0; j < h; j++) {
+                                for (int k = 0; k < w; k++) {
+                                    mask[(v + j) * n + u + k] = 0;
+                                }
+                            }
+                            if (w * h >= MIN_PLANE_AREA) {
+                                planes.add(new WallPlane(axis, side, coordinate, origin[ua] + u, origin[va] + v,
+                                        origin[ua] + u + w, origin[va] + v + h, (m - 1) / 255.0f));
+                            }
+                            u += w - 1;
+                        }
+                    }
+                }
+            }
+        }
+        return planes;
+    }
+
+    /**
+     * Taps de primer y (si {@code order} ≥ 2) segundo orden para ambos oídos. Solo se consideran las
+     * {@code maxPlanes} paredes más cercanas a la fuente (primera reflexión) y al oyente (última).
+     * Los taps llevan la generación {@code gridGeneration}. No toca el mundo ni OpenGL.
+     */
+    public static List<RayImpulseCapture> computeTaps(VoxelGrid grid, List<WallPlane> planes, int order, int maxPlanes,
+                                                      Vec3 listener, Vec3 right, Vec3 up, Vec3 look,
+                                                      ResourceLocation soundId, Vec3 source, long gridGeneration) {
+        float soundSpeed = AcousticRayManager.getSoundSpeed();
+        float mix = SoundDebugger.reflectionsMixFactor;
+        double[] s = { source.x, source.y, source.z };
+        double[] l = { listener.x, listener.y, listener.z };
+        List<WallPlane> nearSource = nearest(planes, s, maxPlanes);
+        List<WallPlane> nearListener = order >= 2 ? nearest(planes, l, maxPlanes) : List.of();
+        CpuRayTracer.DdaHit hit = new CpuRayTracer.DdaHit();
+        List<RayImpulseCapture> captures = new ArrayList<>();
+
+        for (WallPlane first : nearSource) {
+            double[] image1 = mirror(s, first);
+
+            // 1. Fuente -> pared -> oyente
+            if (first.faces(l)) {
+                double length = distance(l, image1);
+                float attenuation = (1.0f - first.absorption()) / (float) Math.max(1.0, length) * mix;
+                double[] r1 = crossing(l, image1, first);
+                if (r1 != null && length / soundSpeed <= MAX_PATH_SECONDS && attenuation >= 0.001f
+                        && isOpen(grid, l, r1, hit) && reachesSource(grid, r1, source, hit)) {
+                    addTap(captures, soundId, source, l, r1, length, 1, attenuation, soundSpeed, right, up, look, gridGeneration);
+                }
+            }
+            if (order < 2) continue;
+
+            // 2. Fuente -> primera pared -> segunda pared -> oyente, desandado desde el oyente
+            for (WallPlane second : nearListener) {
+                if (second == first || !second.faces(image1) || !second.faces(l)) continue;
+                double[] image2 = mirror(image1, second);
+                double length = distance(l, image2);
+                float attenuation = (1.0f - first.absorption()) * (1.0f - second.absorption()) / (float) Math.max(1.0, length) * mix;
+                if (length / soundSpeed > MAX_PATH_SECONDS || attenuation < 0.001f) continue;
+
+                double[] r2 = crossing(l, image2, second);
+                if (r2 == null) continue;
+                double[] r1 = crossing(r2, image1, first);
+                if (r1 == null || !second.faces(r1)) continue;
+                if (isOpen(grid, l, r2, hit) && isOpen(grid, r2, r1, hit) && reachesSource(grid, r1, source, hit)) {
+                    addTap(captures, soundId, source, l, r2, length, 2, attenuation, soundSpeed, right, up, look, gridGeneration);
+                }
+            }
+        }
+        return captures;
+    }
+
+    private static void addTap(List<RayImpulseCapture> captures, ResourceLocation soundId, Vec3 source, double[] listener,
+                               double[] reflection, double length, int bounces, float attenuation, float soundSpeed,
+                               Vec3 right, Vec3 up, Vec3 look, long gridGeneration) {
+        Vec3 hitPos = new Vec3(reflection[0], reflection[1], reflection[2]);
+        Vec3 arrival = new Vec3(reflection[0] - listener[0], reflection[1] - listener[1], reflection[2] - listener[2]).normalize();
+        ListenerPathSet.addCaptures(captures, soundId, source, hitPos, arrival, (float) length, bounces, attenuation,
+                soundSpeed, right, up, look, gridGeneration);
+    }
+
+    /** Las {@code max} paredes que miran al punto, de la más cercana a la más lejana. */
+    private static List<WallPlane> nearest(List<WallPlane> planes, double[] p, int max) {
+        List<WallPlane> facing = new ArrayList<>();
+        for (WallPlane plane : planes) {
+            if (plane.faces(p)) facing.add(plane);
+        }
+        if (facing.size() > max) {
+            facing.sort(Comparator.comparingDouble(plane -> plane.distanceSq(p)));
+            return facing.subList(0, max);
+        }
+        return facing;
+    }
+
+    private static double[] mirror(double[] p, WallPlane plane) {
+        double[] image = p.clone();
+        image[plane.axis()] = 2.0 * plane.coordinate() - p[plane.axis()];
+        return image;
+    }
+
+    /**
+     * Punto donde el segmento from -> to cruza la pared, apartado SURFACE_OFFSET hacia el aire;
+     * null si no la cruza o si el cruce cae fuera del rectángulo.
+     */
+    private static double[] crossing(double[] from, double[] to, WallPlane plane) {
+        int a = plane.axis();
+        double denominator = to[a] - from[a];
+        if (Math.abs(denominator) < 1e-9) return null;
+        double t = (plane.coordinate() - from[a]) / denominator;
+        if (t <= 0 || t >= 1) return null;
+
+        double[] point = new double[3];
+        for (int k = 0; k < 3; k++) {
+            point[k] = from[k] + (to[k] - from[k]) * t;
+        }
+        double u = point[(a + 1) % 3], v = point[(a + 2) % 3];
+        if (u < plane.u0() || u > plane.u1() || v < plane.v0() || v > plane.v1()) return null;
+        point[a] = plane.coordinate() + plane.side() * SURFACE_OFFSET;
+        return point;
+    }
+
+    /** true si el DDA del trazador va de a hasta b sin golpear antes un vóxel sólido. */
+    private static boolean isOpen(VoxelGrid grid, double[] a, double[] b, CpuRayTracer.DdaHit hit) {
+        double length = distance(a, b);
+        if (length < 1e-6) return true;
+        CpuRayTracer.ddaBounce(grid, a[0], a[1], a[2], (b[0] - a[0]) / length, (b[1] - a[1]) / length, (b[2] - a[2]) / length, hit);
+        if (!hit.hasNormal()) return true;
+        double hx = hit.x - a[0], hy = hit.y - a[1], hz = hit.z - a[2];
+        return Math.sqrt(hx * hx + hy * hy + hz * hz) >= length - SURFACE_OFFSET;
+    }
+
+    private static boolean reachesSource(VoxelGrid grid, double[] from, Vec3 source, CpuRayTracer.DdaHit hit) {
+        return ListenerPathSet.reachesSource(grid, from[0], from[1], from[2], source, hit);
+    }
+
+    private static double distance(double[] a, double[] b) {
+        double dx = b[0] - a[0], dy = b[1] - a[1], dz = b[2] - a[2];
+        return Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public synchronized int getPlaneCount() { return planes == null ? 0 : planes.size(); }
+    public synchronized long getResolvedSources() { return resolvedSources; }
+    public synchronized int getLastTaps() { return lastTaps; }
+}
@@ -0,0 +1,98 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.util.Mth;
+import net.minecraft.world.entity.player.Player;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Caché LRU de respuestas al impulso ya horneadas (ambos oídos), limitada por bytes.
+ * La clave es el bloque de la fuente, el bloque del oyente, hacia dónde mira el oyente (8 sectores de 45°)
+ * y la generación del volumen de vóxeles: mientras nada de eso cambie, la IR sigue siendo válida
+ * y el sonido puede reproducirse sin emitir rayos. Pensada para bases estáticas donde las mismas
+ * máquinas suenan una y otra vez; EmissionCoalescer cubre en cambio las repeticiones rápidas con tolerancia.
+ */
+public class ImpulseResponseCache {
+
+    private static final ImpulseResponseCache INSTANCE = new ImpulseResponseCache();
+
+    private ImpulseResponseCache() {}
+
+    public static ImpulseResponseCache getInstance() {
+        return INSTANCE;
+    }
+
+    private static final int FACING_BUCKETS = 8;
+    private static final long ENTRY_OVERHEAD_BYTES = 64; // Clave, arrays y nodo del mapa, aproximado
+
+    private record Key(ResourceLocation soundId, long sourceBlock, long listenerBlock, int facingBucket, long gridGeneration) {}
+
+    public record Entry(ResourceLocation soundId, Vec3 source, short[] irLeft, short[] irRight) {
+        long sizeBytes() {
+            long samples = (irLeft != null ? irLeft.length : 0) + (irRight != null ? irRight.length : 0);
+            return samples * Short.BYTES + ENTRY_OVERHEAD_BYTES;
+        }
+    }
+
+    // accessOrder = true: iterar empieza por la entrada usada hace más tiempo
+    private final LinkedHashMap<Key, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+    private long totalBytes = 0;
+    private long hits = 0;
+    private long misses = 0;
+
+    private static Key keyFor(ResourceLocation soundId, Vec3 source, Player listener, long gridGeneration) {
+        int facing = Mth.floor(Mth.wrapDegrees(listener.getYRot()) / (360.0f / FACING_BUCKETS) + 0.5f) & (FACING_BUCKETS - 1);
+        return new Key(soundId, BlockPos.containing(source).asLong(), BlockPos.containing(listener.getEyePosition()).asLong(),
+                facing, gridGeneration);
+    }
+
+    /** Busca la IR de este sonido para la posición y orientación actuales del oyente. Cuenta aciertos y fallos. */
+    public synchronized Entry lookup(ResourceLocation soundId, Vec3 source, Player listener) {
+        if (WavecraftConfig.IR_CACHE_MAX_KB.get() <= 0) return null;
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        long generation = cache.getGeneration();
+        Entry entry = cache.isCurrent(generation) ? entries.get(keyFor(soundId, source, listener, generation)) : null;
+        if (entry != null) hits++; else misses++;
+        return entry;
+    }
+
+    /** Guarda las IR recién horneadas y expulsa las menos usadas hasta volver al límite de memoria. */
+    public synchronized void store(ResourceLocation soundId, Vec3 source, Player listener, long gridGeneration,
+                                   short[] irLeft, short[] irRight) {
+        long maxBytes = WavecraftConfig.IR_CACHE_MAX_KB.get() * 1024L;
+        if (maxBytes <= 0) return;
+
+        // Las entradas de generaciones anteriores ya no pueden acertar; se liberan antes de nada.
+        Iterator<Map.Entry<Key, Entry>> it = entries.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<Key, Entry> e = it.next();
+            if (e.getKey().gridGeneration() != gridGeneration) {
+                totalBytes -= e.getValue().sizeBytes();
+                it.remove();
+            }
+        }
+
+        Entry entry = new Entry(soundId, source, irLeft, irRight);
+        if (entry.sizeBytes() > maxBytes) return;
+        Entry previous = entries.put(keyFor(soundId, source, listener, gridGeneration), entry);
+        if (previous != null) totalBytes -= previous.sizeBytes();
+        totalBytes += entry.sizeBytes();
+
+        it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            totalBytes -= it.next().getValue().sizeBytes();
+            it.remove();
+        }
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized int getEntries() { return entries.size(); }
+    public synchronized long getTotalBytes() { return totalBytes; }
+}
@@ -0,0 +1,53 @@
+package com.nicholas.wavecraft.sound;
+
+import java.util.Arrays;
+
+/**
+ * Consultas de línea de visión acumuladas durante un tick y resueltas de una pasada contra la {@link VoxelGrid}.
+ * Los extremos se guardan en arrays planos que se reutilizan entre ticks, así que añadir consultas no crea objetos.
+ */
+public class LineOfSightBatch {
+    private double[] from = new double[3 * 256];
+    private double[] to = new double[3 * 256];
+    private boolean[] clear = new boolean[256];
+    private int count = 0;
+
+    /** Vacía el lote para el siguiente tick, conservando la memoria. */
+    public void reset() {
+        count = 0;
+    }
+
+    /** Añade una consulta y devuelve su índice para leer el resultado después de {@link #resolve}. */
+    public int add(double ax, double ay, double az, double bx, double by, double bz) {
+        if (count == clear.length) {
+            int capacity = clear.length * 2;
+            from = Arrays.copyOf(from, 3 * capacity);
+            to = Arrays.copyOf(to, 3 * capacity);
+            clear = Arrays.copyOf(clear, capacity);
+        }
+        int i = count++;
+        from[3 * i] = ax;
+        from[3 * i + 1] = ay;
+        from[3 * i + 2] = az;
+        to[3 * i] = bx;
+        to[3 * i + 1] = by;
+        to[3 * i + 2] = bz;
+        return i;
+    }
+
+    /** Responde todas las consultas pendientes. */
+    public void resolve(VoxelGrid grid) {
+        for (int i = 0; i < count; i++) {
+            clear[i] = grid.isSegmentClear(from[3 * i], from[3 * i + 1], from[3 * i + 2],
+                                           to[3 * i], to[3 * i + 1], to[3 * i + 2]);
+        }
+    }
+
+    public boolean isClear(int index) {
+        return clear[index];
+    }
+
+    public int size() {
+        return count;
+    }
+}
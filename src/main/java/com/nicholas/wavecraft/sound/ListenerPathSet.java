@@ -0,0 +1,265 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import com.nicholas.wavecraft.debug.SoundDebugger;
+import net.minecraft.client.Minecraft;
+import net.minecraft.client.player.LocalPlayer;
+import net.minecraft.core.BlockPos;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Trazado inverso (modo LISTENER de tracingOrigin): los rayos salen del oyente y no de cada fuente.
+ * El conjunto de trayectorias se traza una vez, con el trazador activo, cada vez que el oyente cambia de bloque
+ * o se regenera el volumen; mientras tanto cada sonido nuevo se resuelve conectando su fuente con los puntos
+ * de rebote guardados mediante una línea de visión sobre la {@link VoxelGrid}, con el mismo DDA que el trazador.
+ * El coste de trazado depende así del número de oyentes y no del número de fuentes.
+ *
+ * Un rebote v del rayo r conectado a la fuente da el camino fuente -> v -> ... -> oyente, con la energía que el
+ * rayo llevaba tras ese rebote y la dirección de llegada del primer tramo del rayo. Cada conexión pesa 1/N
+ * (N rayos del conjunto): el conjunto estima la media sobre todas las direcciones de llegada. Con más rebotes
+ * que listenerConnections solo se conecta uno de cada k rayos, con peso k/N.
+ */
+public class ListenerPathSet {
+
+    private static final ListenerPathSet INSTANCE = new ListenerPathSet();
+
+    private ListenerPathSet() {}
+
+    public static ListenerPathSet getInstance() {
+        return INSTANCE;
+    }
+
+    private static final float MAX_PATH_SECONDS = 2.0f; // Lo mismo que guarda IRBuilder; lo que llegue después se descarta
+    private static final double SURFACE_OFFSET = 0.001; // El EPSILON del trazador
+
+    private record PendingSource(ResourceLocation soundId, Vec3 position, int imageSourceOrder) {}
+
+    private final Random random = new Random();
+
+    // Conjunto vigente: trayectorias, desde dónde se trazaron y sobre qué volumen
+    private RayPathArena paths = null;
+    private Vec3 pathsOrigin = null;
+    private long pathsBlock = 0;
+    private long pathsGeneration = -1;
+
+    // Conjunto que se está trazando (el anterior sigue en uso hasta que llega)
+    private RayBatch inFlight = null;
+    private long inFlightBlock = 0;
+    private long inFlightGeneration = -1;
+
+    // Fuentes que llegaron antes del primer conjunto
+    private final List<PendingSource> waiting = new ArrayList<>();
+
+    // Estadísticas para /wc rayStats
+    private long traces = 0;
+    private long resolvedSources = 0;
+    private int lastConnections = 0;
+
+    /**
+     * Pide que se resuelva un sonido contra el conjunto del oyente; si aún no hay conjunto, espera a que llegue.
+     * {@code imageSourceOrder} es el que devolvió ImageSourceEngine.addSource para este mismo sonido.
+     */
+    public synchronized void addSource(ResourceLocation soundId, Vec3 position, int imageSourceOrder) {
+        waiting.add(new PendingSource(soundId, position, imageSourceOrder));
+    }
+
+    /**
+     * Recoge el conjunto en vuelo si ya terminó y lanza uno nuevo si el vigente no corresponde a la posición
+     * del oyente o al volumen actual. Una vez por frame, desde el hilo de render (los trazadores lo exigen).
+     */
+    public synchronized void runFrame(LocalPlayer player, long frame) {
+        if (inFlight != null && inFlight.getTracer().poll(inFlight, frame)) {
+            if (inFlight.getPaths().getNumRays() > 0) {
+                paths = inFlight.getPaths();
+                pathsOrigin = inFlight.getOrigins()[0];
+                pathsBlock = inFlightBlock;
+                pathsGeneration = inFlightGeneration;
+                traces++;
+            }
+            inFlight = null;
+        }
+
+        long block = BlockPos.containing(player.getEyePosition()).asLong();
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        // Mientras se regenera el volumen la rejilla en servicio no cambia: el conjunto trazado sobre ella vale
+        boolean current = cache.isCurrent(pathsGeneration) || cache.isServingDuringRebuild(pathsGeneration);
+        boolean stale = paths == null || block != pathsBlock || !current;
+        if (inFlight == null && stale) {
+            submit(player, block, frame);
+        }
+    }
+
+    private void submit(LocalPlayer player, long block, long frame) {
+        RayTracer tracer = AcousticRayManager.getInstance().getActiveTracer();
+        if (!tracer.canAccept()) return;
+
+        int count = WavecraftConfig.LISTENER_RAYS.get();
+        Vec3 eye = player.getEyePosition();
+        Vec3[] directions = DirectionSampler.of(WavecraftConfig.DIRECTION_SAMPLING.get()).sample(count, random);
+        Vec3[] origins = new Vec3[count];
+        for (int i = 0; i < count; i++) {
+            origins[i] = eye; // Todas desde el mismo punto: el primer tramo de cada rayo es la dirección de llegada
+        }
+        long generation = WorldTextureCache.getInstance().getVoxelGrid(player).getGeneration();
+        RayBatch batch = new RayBatch(null, eye, player.level().getGameTime(), origins, directions,
+                AcousticRayManager.MAX_RAY_BOUNCES, RayTermination.fromConfig(random.nextInt()), 0);
+        if (!tracer.submit(player, batch, frame)) return;
+        batch.setTracer(tracer);
+        inFlight = batch;
+        inFlightBlock = block;
+        inFlightGeneration = generation;
+    }
+
+    /**
+     * Resuelve las fuentes en espera contra el conjunto vigente. Las líneas de visión se calculan fuera del hilo
+     * principal (la rejilla y la arena son de solo lectura) y las capturas vuelven a él para el ConvolutionManager.
+     */
+    public synchronized void tick(LocalPlayer player) {
+        if (paths == null || waiting.isEmpty()) return;
+
+        // La rejilla en servicio tal cual: las actualizaciones pendientes se aplican al trazar, no en cada tick
+        VoxelGrid grid = WorldTextureCache.getInstance().getGridInService();
+        if (grid == null) return;
+        RayPathArena set = paths;
+        Vec3 listener = pathsOrigin;
+        Vec3 look = player.getViewVector(1.0f);
+        Vec3 right = look.cross(new Vec3(0, 1, 0)).normalize();
+        Vec3 up = player.getUpVector(1.0f);
+        int maxConnections = WavecraftConfig.LISTENER_CONNECTIONS.get();
+        // Las capturas combinan el conjunto trazado con las visibilidades de esta rejilla
+        long generation = grid.getGeneration() == pathsGeneration ? pathsGeneration : RayImpulseCapture.UNKNOWN_GENERATION;
+
+        for (PendingSource source : waiting) {
+            CompletableFuture.supplyAsync(() -> connect(grid, set, listener, right, up, look, source.soundId(), source.position(),
+                            maxConnections, source.imageSourceOrder(), generation))
+                    .thenAcceptAsync(captures -> {
+                        Minecraft mc = Minecraft.getInstance();
+                        if (mc.level == null) return;
+                        long tick = mc.level.getGameTime();
+                        for (RayImpulseCapture capture : captures) {
+                            ConvolutionManager.addCapture(capture, tick);
+                        }
+                        synchronized (this) {
+                            lastConnections = captures.size();
+                            resolvedSources++;
+                        }
+                    }, Minecraft.getInstance());
+        }
+        waiting.clear();
+    }
+
+    /**
+     * Conecta la fuente con el oyente (camino directo) y con cada punto de rebote del conjunto, y devuelve
+     * las capturas de los caminos visibles para ambos oídos, con la generación {@code gridGeneration}.
+     * No toca el mundo ni OpenGL.
+     */
+    public static List<RayImpulseCapture> connect(VoxelGrid grid, RayPathArena set, Vec3 listener, Vec3 right, Vec3 up, Vec3 look,
+                                                  ResourceLocation soundId, Vec3 source, int maxConnections, int imageSourceOrder,
+                                                  long gridGeneration) {
+        float soundSpeed = AcousticRayManager.getSoundSpeed();
+
+        // Cada prueba de visibilidad cuesta lo mismo que un rebote trazado: si el conjunto tiene más rebotes que
+        // el presupuesto, se conecta uno de cada 'stride' rayos (con desfase por fuente) y cada uno pesa 'stride'
+        long bounces = 0;
+        for (int r = 0; r < set.getNumRays(); r++) bounces += Math.max(0, set.getVertexCount(r) - 1);
+        int stride = (int) Math.max(1, (bounces + maxConnections - 1) / maxConnections);
+        int firstRay = Math.floorMod(source.hashCode(), stride);
+        float weight = SoundDebugger.reflectionsMixFactor * stride / set.getNumRays();
+        CpuRayTracer.DdaHit hit = new CpuRayTracer.DdaHit();
+        List<RayImpulseCapture> captures = new ArrayList<>();
+
+        // 1. Camino directo
+        if (reachesSource(grid, listener.x, listener.y, listener.z, source, hit)) {
+            float direct = (float) listener.distanceTo(source);
+            addCaptures(captures, soundId, source, source, source.subtract(listener).normalize(), direct, 0,
+                    1.0f / Math.max(1.0f, direct), soundSpeed, right, up, look, gridGeneration);
+        }
+
+        // 2. Un camino por punto de rebote visible desde la fuente
+        for (int r = firstRay; r < set.getNumRays(); r += stride) {
+            if (set.getVertexCount(r) < 2) continue;
+            Vec3 arrival = set.getPosition(r, 1).subtract(listener).normalize(); // Primer tramo del rayo
+            float length = 0;
+            for (int v = 1; v < set.getVertexCount(r); v++) {
+                length += set.segmentLength(r, v - 1);
+                if (length / soundSpeed > MAX_PATH_SECONDS) break; // Los vértices siguientes llegan aún más tarde
+                if (set.getBounceStatus(r, v) != RayPathArena.STATUS_BOUNCE) continue;
+                if (v <= imageSourceOrder) continue; // El camino tiene v reflexiones: las tempranas son de ImageSourceEngine
+
+                double px = set.getX(r, v), py = set.getY(r, v), pz = set.getZ(r, v);
+                float total = length + (float) Math.sqrt((source.x - px) * (source.x - px)
+                        + (source.y - py) * (source.y - py) + (source.z - pz) * (source.z - pz));
+                if (total / soundSpeed > MAX_PATH_SECONDS) continue;
+
+                // El mismo corte que el recorrido directo: energía por caída con la distancia
+                float attenuation = set.getEnergy(r, v) / Math.max(1.0f, total);
+                if (attenuation < 0.001f) continue;
+
+                // Se sale del punto de rebote apartándose de la cara, como hace el trazador
+                if (!reachesSource(grid, px + set.getNormalX(r, v) * SURFACE_OFFSET, py + set.getNormalY(r, v) * SURFACE_OFFSET,
+                        pz + set.getNormalZ(r, v) * SURFACE_OFFSET, source, hit)) continue;
+
+                addCaptures(captures, soundId, source, set.getPosition(r, v), arrival, total, v,
+                        attenuation * weight, soundSpeed, right, up, look, gridGeneration);
+            }
+        }
+        return captures;
+    }
+
+    /**
+     * Visibilidad con el DDA del trazador (pirámide y escape al cielo incluidos): true si desde el punto se llega
+     * a la celda de la fuente sin atravesar antes un vóxel sólido. La celda de la fuente no cuenta como obstáculo,
+     * porque muchos sonidos salen del centro de su propio bloque.
+     */
+    static boolean reachesSource(VoxelGrid grid, double x, double y, double z, Vec3 source, CpuRayTracer.DdaHit hit) {
+        double dx = source.x - x, dy = source.y - y, dz = source.z - z;
+        double distance = Math.sqrt(dx * dx + dy * dy + dz * dz);
+        if (distance < 1e-6) return true;
+        CpuRayTracer.ddaBounce(grid, x, y, z, dx / distance, dy / distance, dz / distance, hit);
+        if (!hit.hasNormal()) return true;
+        // Vóxel golpeado: al otro lado de la cara respecto de la normal
+        int vx = (int) Math.floor(hit.x - hit.normalX * 0.5);
+        int vy = (int) Math.floor(hit.y - hit.normalY * 0.5);
+        int vz = (int) Math.floor(hit.z - hit.normalZ * 0.5);
+        if (vx == (int) Math.floor(source.x) && vy == (int) Math.floor(source.y) && vz == (int) Math.floor(source.z)) return true;
+        double hx = hit.x - x, hy = hit.y - y, hz = hit.z - z;
+        return hx * hx + hy * hy + hz * hz >= distance * distance;
+    }
+
+    /** Capturas de un camino para cada oído, con el reparto binaural del recorrido directo. */
+    static void addCaptures(List<RayImpulseCapture> captures, ResourceLocation soundId, Vec3 source, Vec3 hitPos,
+                                    Vec3 arrival, float distance, int bounces, float attenuation, float soundSpeed,
+                                    Vec3 right, Vec3 up, Vec3 look, long gridGeneration) {
+        float mix = SoundDebugger.binauralMixFactor;
+        float pan = (float) Math.max(-1.0, Math.min(1.0, arrival.dot(right)));
+        float weightRight = (0.5f * (1.0f + pan)) * (1.0f - mix) + 0.5f * mix;
+        float weightLeft = (0.5f * (1.0f - pan)) * (1.0f - mix) + 0.5f * mix;
+        RayImpulseCapture.Plane plane = planeFor(arrival, right, up, look);
+        if (weightLeft > 0.01f) {
+            captures.add(new RayImpulseCapture(soundId, source, distance, hitPos, 0, distance / soundSpeed, bounces,
+                    attenuation, plane, weightLeft, false, gridGeneration));
+        }
+        if (weightRight > 0.01f) {
+            captures.add(new RayImpulseCapture(soundId, source, distance, hitPos, 0, distance / soundSpeed, bounces,
+                    attenuation, plane, weightRight, true, gridGeneration));
+        }
+    }
+
+    /** Plano del oyente que cruzaría el camino: el de normal más alineada con la dirección de llegada. */
+    private static RayImpulseCapture.Plane planeFor(Vec3 arrival, Vec3 right, Vec3 up, Vec3 look) {
+        double r = Math.abs(arrival.dot(right)), u = Math.abs(arrival.dot(up)), l = Math.abs(arrival.dot(look));
+        if (r >= u && r >= l) return RayImpulseCapture.Plane.YZ;
+        return u >= l ? RayImpulseCapture.Plane.XZ : RayImpulseCapture.Plane.XY;
+    }
+
+    public synchronized long getTraces() { return traces; }
+    public synchronized long getResolvedSources() { return resolvedSources; }
+    public synchronized int getLastConnections() { return lastConnections; }
+    public synchronized boolean isReady() { return paths != null; }
+}
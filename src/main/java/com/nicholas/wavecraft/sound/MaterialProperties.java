@@ -2,6 +2,7 @@ package com.nicholas.wavecraft.sound;
 
 import net.minecraft.world.level.block.Block;
 import net.minecraft.world.level.block.Blocks;
+import net.minecraft.world.level.block.state.BlockState;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -14,6 +15,10 @@ public class MaterialProperties {
     // Un coeficiente por defecto para los bloques que no definamos explícitamente.
     private static final float DEFAULT_ABSORPTION = 0.2f; // 20% de absorción por defecto
 
+    // Tabla densa indexada por el id del BlockState (Block.getId). Se construye la primera vez
+    // que se usa, cuando los registros ya están cargados.
+    private static float[] absorptionByStateId = null;
+
     // Este bloque estático se ejecuta una sola vez cuando la clase se carga.
     // Aquí es donde definimos nuestras propiedades.
     static {
@@ -37,4 +42,33 @@ public class MaterialProperties {
     public static float getAbsorptionCoefficient(Block block) {
         return ABSORPTION_COEFFICIENTS.getOrDefault(block, DEFAULT_ABSORPTION);
     }
+
+    /** Coeficiente de absorción de un estado de bloque; es un acceso a array, sin mapas. */
+    public static float getAbsorption(BlockState state) {
+        int id = Block.getId(state);
+        float[] table = absorptionByStateId;
+        if (table == null || id >= table.length) {
+            table = buildStateTable();
+        }
+        return table[id];
+    }
+
+    /** Absorción cuantizada a un byte sin signo (0..255 = 0..1), tal y como la guardan VoxelGrid y la textura 3D. */
+    public static int getAbsorptionByte(BlockState state) {
+        return Math.round(getAbsorption(state) * 255.0f);
+    }
+
+    private static synchronized float[] buildStateTable() {
+        int size = Block.BLOCK_STATE_REGISTRY.size();
+        if (absorptionByStateId != null && absorptionByStateId.length >= size) {
+            return absorptionByStateId;
+        }
+        float[] table = new float[size];
+        for (BlockState state : Block.BLOCK_STATE_REGISTRY) {
+            table[Block.getId(state)] = getAbsorptionCoefficient(state.getBlock());
+        }
+        absorptionByStateId = table;
+        System.out.println("[Wavecraft] Tabla de absorción construida para " + size + " estados de bloque.");
+        return table;
+    }
 }
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
+/**
+ * Guarda durante unos ticks las trayectorias trazadas de cada emisión. La geometría de los rayos no depende
+ * del oyente: solo la captura (cruce con los planos del jugador, línea de visión y reparto binaural) usa su pose.
+ * Si el mismo sonido vuelve a sonar en el mismo sitio y el oyente solo se ha movido dentro de la tolerancia,
+ * las trayectorias guardadas pasan otra vez por la captura con la pose actual y la IR se recalcula sin trazar.
+ * A diferencia de EmissionCoalescer, que reutiliza la IR horneada tal cual, aquí girar la cabeza o dar un paso
+ * cambia el resultado; la rotación no tiene límite porque los planos se vuelven a orientar en cada captura.
+ */
+public class PathCache {
+
+    private static final PathCache INSTANCE = new PathCache();
+
+    private PathCache() {}
+
+    public static PathCache getInstance() {
+        return INSTANCE;
+    }
+
+    private static final int MAX_ENTRIES = 16;              // Cada arena ocupa ~1 MB con 1024 rayos y 40 rebotes
+    private static final double SOURCE_TOLERANCE_SQ = 0.01; // La fuente tiene que ser la misma (0.1 bloques)
+
+    /** Trayectorias de una emisión trazada, con la posición del oyente cuando llegaron. */
+    public record CachedEmission(ResourceLocation soundId, Vec3 source, Vec3 listener, long gridGeneration,
+                                 long tick, RayPathArena paths) {}
+
+    private final Deque<CachedEmission> recent = new ArrayDeque<>(); // La más reciente primero
+    private long hits = 0;
+    private long misses = 0;
+
+    /**
+     * Busca trayectorias reutilizables para este sonido. Cuenta un acierto o un fallo; devuelve null si no hay
+     * ninguna o si la caché está desactivada (tolerancia 0).
+     */
+    public synchronized CachedEmission lookup(ResourceLocation soundId, Vec3 source, Vec3 listener, long currentTick) {
+        double tolerance = WavecraftConfig.PATH_CACHE_DISTANCE.get();
+        if (tolerance <= 0) return null;
+        expire(currentTick);
+
+        double toleranceSq = tolerance * tolerance;
+        WorldTextureCache cache = WorldTextureCache.getInstance();
+        for (CachedEmission emission : recent) {
+            if (emission.soundId().equals(soundId)
+                    && emission.source().distanceToSqr(source) <= SOURCE_TOLERANCE_SQ
+                    && emission.listener().distanceToSqr(listener) <= toleranceSq
+                    && cache.isCurrent(emission.gridGeneration())) {
+                hits++;
+                return emission;
+            }
+        }
+        misses++;
+        return null;
+    }
+
+    /** Guarda las trayectorias de un lote recién completado. */
+    public synchronized void store(CachedEmission emission) {
+        if (WavecraftConfig.PATH_CACHE_DISTANCE.get() <= 0 || emission.paths().getNumRays() == 0) return;
+        recent.addFirst(emission);
+        while (recent.size() > MAX_ENTRIES) {
+            recent.removeLast();
+        }
+    }
+
+    private void expire(long currentTick) {
+        int window = WavecraftConfig.PATH_CACHE_TICKS.get();
+        Iterator<CachedEmission> it = recent.iterator();
+        while (it.hasNext()) {
+            if (currentTick - it.next().tick() > window) it.remove();
+        }
+    }
+
+    public synchronized long getHits() { return hits; }
+    public synchronized long getMisses() { return misses; }
+    public synchronized int getEntries() { return recent.size(); }
+}
@@ -0,0 +1,87 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.resources.ResourceLocation;
+import net.minecraft.world.phys.Vec3;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Todos los rayos de una emisión de sonido, trazados como un único lote.
+ * Los rayos se crean "pendientes" al enviar el lote y reciben su trayectoria
+ * cuando el trazador termina, normalmente uno o varios frames después.
+ */
+public class RayBatch {
+    private final ResourceLocation soundId;
+    private final Vec3 source;
+    private final long emitTick;
+    private final Vec3[] origins;
+    private final Vec3[] directions;
+    private final int maxBounces;
+    private final RayTermination termination;
+    private final int imageSourceOrder; // Reflexiones que ya añadió ImageSourceEngine para esta emisión
+    private final List<AcousticRay> rays = new ArrayList<>();
+
+    private RayTracer tracer = null; // Backend que aceptó el lote y al que hay que preguntar por él
+    private long submitFrame = -1;
+    private long gridGeneration = -1; // Generación de la rejilla sobre la que se trazó
+    private long completedFrame = -1;
+    private RayPathArena paths = null;
+
+    public RayBatch(ResourceLocation soundId, Vec3 source, long emitTick, Vec3[] origins, Vec3[] directions, int maxBounces,
+                    RayTermination termination, int imageSourceOrder) {
+        this.soundId = soundId;
+        this.source = source;
+        this.emitTick = emitTick;
+        this.origins = origins;
+        this.directions = directions;
+        this.maxBounces = maxBounces;
+        this.termination = termination;
+        this.imageSourceOrder = imageSourceOrder;
+    }
+
+    public ResourceLocation getSoundId() { return soundId; }
+    public Vec3 getSource() { return source; }
+    public long getEmitTick() { return emitTick; }
+    public Vec3[] getOrigins() { return origins; }
+    public Vec3[] getDirections() { return directions; }
+    public int getMaxBounces() { return maxBounces; }
+    public RayTermination getTermination() { return termination; }
+    public int getImageSourceOrder() { return imageSourceOrder; }
+    public int getNumRays() { return origins.length; }
+    public int getNumVertices() { return maxBounces + 1; }
+
+    public List<AcousticRay> getRays() { return rays; }
+
+    /**
+     * Lo llama el trazador al aceptar el lote.
+     * @param gridGeneration Generación de la rejilla (o de la textura) que va a recorrer el trazado. Las trayectorias
+     *                       solo valen mientras {@link WorldTextureCache#isCurrent} la dé por buena, no la que haya al recogerlas.
+     */
+    public void markSubmitted(long frame, long gridGeneration) {
+        this.submitFrame = frame;
+        this.gridGeneration = gridGeneration;
+    }
+
+    public long getGridGeneration() { return gridGeneration; }
+
+    public void setTracer(RayTracer tracer) { this.tracer = tracer; }
+    public RayTracer getTracer() { return tracer; }
+
+    /**
+     * Lo llama el trazador cuando las trayectorias ya están en memoria de la CPU.
+     * @param paths Una trayectoria por rayo, en el orden de {@link #getOrigins()}. Sin rayos si el trazado falló.
+     */
+    public void complete(RayPathArena paths, long frame) {
+        this.paths = paths;
+        this.completedFrame = frame;
+    }
+
+    public boolean isComplete() { return paths != null; }
+    public RayPathArena getPaths() { return paths; }
+
+    /** Número de frames que pasaron entre el envío del lote y la llegada de sus trayectorias. */
+    public long getLatencyFrames() {
+        return isComplete() ? completedFrame - submitFrame : -1;
+    }
+}
@@ -15,7 +15,11 @@ public record RayImpulseCapture(
         float totalAttenuation,         // preparado para futuros absorción
         Plane plane,                    // enum de qué plano colisionó
         float weight,                   // para binaural en planos “compartidos”
-        boolean isRightEar
+        boolean isRightEar,
+        long gridGeneration             // rejilla sobre la que se trazó el camino (UNKNOWN_GENERATION si no hay una sola)
 ) {
+    /** Generación de una captura cuyas trayectorias y visibilidad salieron de rejillas distintas: su IR no se guarda. */
+    public static final long UNKNOWN_GENERATION = -1;
+
     public enum Plane { XY, XZ, YZ }
 }
@@ -0,0 +1,146 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.world.phys.Vec3;
+
+import java.util.Arrays;
+
+/**
+ * Trayectorias de todos los rayos de una emisión en forma de estructura de arrays: un float[] por campo,
+ * indexado por [rayo * numVertices + vértice]. Sustituye a las listas de PathPoint con dos Vec3 por vértice,
+ * de modo que leer el feedback, recorrer los segmentos y dibujarlos no crea objetos.
+ *
+ * Cada rayo tiene exactamente numVertices puntos, con el mismo significado que la salida de ray_vertex.glsl:
+ * bounceStatus 1 = origen, 2 = rebote, 0 = terminado (los puntos siguientes repiten el último).
+ * energy es la fracción de energía que le queda al rayo tras los rebotes hasta ese vértice incluido
+ * (producto de 1 - absorción de cada vóxel golpeado); la calcula el propio trazador.
+ * vertexCount guarda, por rayo, cuántos vértices son útiles (hasta el de terminación incluido); quien
+ * recorra segmentos puede parar ahí en lugar de llegar a numVertices.
+ */
+public class RayPathArena {
+    public static final float STATUS_TERMINATED = 0.0f;
+    public static final float STATUS_ORIGIN = 1.0f;
+    public static final float STATUS_BOUNCE = 2.0f;
+
+    private final int numRays;
+    private final int numVertices;
+
+    private final float[] posX, posY, posZ;
+    private final float[] normalX, normalY, normalZ;
+    private final float[] bounceStatus;
+    private final float[] energy;
+    private final int[] vertexCount;
+
+    public RayPathArena(int numRays, int numVertices) {
+        this.numRays = numRays;
+        this.numVertices = numVertices;
+        int n = numRays * numVertices;
+        this.posX = new float[n];
+        this.posY = new float[n];
+        this.posZ = new float[n];
+        this.normalX = new float[n];
+        this.normalY = new float[n];
+        this.normalZ = new float[n];
+        this.bounceStatus = new float[n];
+        this.energy = new float[n];
+        this.vertexCount = new int[numRays];
+        Arrays.fill(vertexCount, numVertices);
+    }
+
+    /** Arena sin rayos, para lotes cuyo trazado falló. */
+    public static RayPathArena empty(int numVertices) {
+        return new RayPathArena(0, numVertices);
+    }
+
+    public int getNumRays() { return numRays; }
+    public int getNumVertices() { return numVertices; }
+
+    public int index(int ray, int vertex) {
+        return ray * numVertices + vertex;
+    }
+
+    public void set(int ray, int vertex, float x, float y, float z, float status, float nx, float ny, float nz, float energy) {
+        int i = index(ray, vertex);
+        posX[i] = x;
+        posY[i] = y;
+        posZ[i] = z;
+        bounceStatus[i] = status;
+        normalX[i] = nx;
+        normalY[i] = ny;
+        normalZ[i] = nz;
+        this.energy[i] = energy;
+    }
+
+    /** Repite el punto (y la energía) anterior del rayo como terminado, igual que hace el shader tras la terminación. */
+    public void repeatTerminated(int ray, int vertex) {
+        int prev = index(ray, vertex - 1);
+        set(ray, vertex, posX[prev], posY[prev], posZ[prev], STATUS_TERMINATED, 0, 0, 0, energy[prev]);
+    }
+
+    public float getX(int ray, int vertex) { return posX[index(ray, vertex)]; }
+    public float getY(int ray, int vertex) { return posY[index(ray, vertex)]; }
+    public float getZ(int ray, int vertex) { return posZ[index(ray, vertex)]; }
+    public float getNormalX(int ray, int vertex) { return normalX[index(ray, vertex)]; }
+    public float getNormalY(int ray, int vertex) { return normalY[index(ray, vertex)]; }
+    public float getNormalZ(int ray, int vertex) { return normalZ[index(ray, vertex)]; }
+    public float getBounceStatus(int ray, int vertex) { return bounceStatus[index(ray, vertex)]; }
+    public float getEnergy(int ray, int vertex) { return energy[index(ray, vertex)]; }
+
+    /** Lo llama el trazador con el número de vértices que produjo de verdad ({@code terminatedVertex + 1}). */
+    public void setVertexCount(int ray, int count) { vertexCount[ray] = count; }
+    public int getVertexCount(int ray) { return vertexCount[ray]; }
+
+    /** Suma de los vértices útiles de todos los rayos; comparada con numRays * numVertices da el trabajo ahorrado. */
+    public long getProducedVertices() {
+        long total = 0;
+        for (int count : vertexCount) total += count;
+        return total;
+    }
+
+    /**
+     * Energía con la que el rayo salió del volumen sin chocar (escape al cielo, distancia máxima o pasos agotados):
+     * la del vértice de terminación si el rayo no murió por la ruleta (que deja energía 0). Un rayo que llega al
+     * último rebote vivo no escapa. Es energía que ya no vuelve, y la cola de reverberación tiene que descontarla.
+     */
+    public float getEscapedEnergy(int ray) {
+        int last = index(ray, vertexCount[ray] - 1);
+        return bounceStatus[last] == STATUS_TERMINATED ? energy[last] : 0.0f;
+    }
+
+    /** Suma de {@link #getEscapedEnergy} de todos los rayos (en unidades de la energía inicial de un rayo). */
+    public float getTotalEscapedEnergy() {
+        float total = 0;
+        for (int ray = 0; ray < numRays; ray++) total += getEscapedEnergy(ray);
+        return total;
+    }
+
+    /** Crea un Vec3 con la posición; pensado para los caminos poco frecuentes (capturas), no para bucles. */
+    public Vec3 getPosition(int ray, int vertex) {
+        int i = index(ray, vertex);
+        return new Vec3(posX[i], posY[i], posZ[i]);
+    }
+
+    /** Longitud del segmento que va del vértice {@code vertex} al siguiente. */
+    public float segmentLength(int ray, int vertex) {
+        int a = index(ray, vertex);
+        int b = a + 1;
+        float dx = posX[b] - posX[a], dy = posY[b] - posY[a], dz = posZ[b] - posZ[a];
+        return (float) Math.sqrt(dx * dx + dy * dy + dz * dz);
+    }
+
+    public float totalLength(int ray) {
+        float total = 0;
+        for (int v = 0; v < vertexCount[ray] - 1; v++) {
+            total += segmentLength(ray, v);
+        }
+        return total;
+    }
+
+    /** Compara el contenido completo de dos arenas (lo usa el benchmark para validar los núcleos de CPU). */
+    public boolean contentEquals(RayPathArena other) {
+        return numRays == other.numRays && numVertices == other.numVertices
+                && Arrays.equals(posX, other.posX) && Arrays.equals(posY, other.posY) && Arrays.equals(posZ, other.posZ)
+                && Arrays.equals(normalX, other.normalX) && Arrays.equals(normalY, other.normalY) && Arrays.equals(normalZ, other.normalZ)
+                && Arrays.equals(bounceStatus, other.bounceStatus) && Arrays.equals(energy, other.energy)
+                && Arrays.equals(vertexCount, other.vertexCount);
+    }
+}
@@ -20,6 +20,7 @@ import java.nio.ByteBuffer;
 import java.nio.FloatBuffer;
 import java.nio.IntBuffer;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 // RayShaderHandler.java
@@ -35,13 +36,66 @@ public class RayShaderHandler {
 
     public static int currentMaxBounces = 20;
 
+    // --- RECURSOS DEL TRAZADO POR LOTES ---
+    // Un único VAO con los orígenes/direcciones como atributos por instancia (divisor 1)
+    // y un buffer de Transform Feedback que crece según el tamaño del lote.
+    // Registro compacto: posición (3), estado (1), normal (3), energía restante (1).
+    private static final int FLOATS_PER_VERTEX = 8;
+    // Registro del programa de depuración: el compacto seguido de 17 floats de diagnóstico.
+    private static final int DEBUG_FLOATS_PER_VERTEX = 25;
+    private static final String[] COMPACT_VARYINGS = { "outPosition", "bounceStatus", "outNormal", "outEnergy" };
+    private static final String[] DEBUG_VARYINGS = {
+            "outPosition", "bounceStatus", "outNormal", "outEnergy",
+            "debugCoord_tex", "outRayOrigin", "outRayDirection", "outHitPointBeforeEpsilon",
+            "outHitBlockCenter", "outAccumulatedT", "debugCode"
+    };
+    private static final int FLOATS_PER_INSTANCE = 6; // origen (vec3) + dirección (vec3)
+    private static final int FEEDBACK_RING_SIZE = 3;
+    private static int batchVAO = -1;
+    private static int instanceVBO = -1;
+
+    // Anillo de buffers de feedback: cada lote en vuelo ocupa una ranura hasta que su fence
+    // se señaliza y se leen sus trayectorias. Así el hilo de render nunca espera a la GPU.
+    private static final FeedbackSlot[] feedbackRing = new FeedbackSlot[FEEDBACK_RING_SIZE];
+    // Ranura aparte para el trazado síncrono (benchmarks), que no debe competir con el anillo.
+    private static final FeedbackSlot syncSlot = new FeedbackSlot();
+
+    private static class FeedbackSlot {
+        int vbo = -1;
+        long capacityBytes = 0;
+        int floatsPerVertex = FLOATS_PER_VERTEX; // Formato con el que se escribió el último lote
+        long fence = 0;
+        RayBatch batch = null;
+    }
+
+    // Estadísticas del último lote, para comparar número de rayos frente a tiempo real.
+    private static int lastBatchRayCount = 0;
+    private static long lastBatchNanos = 0;
+
     // --- NUEVOS CAMPOS PARA GUARDAR LAS LOCATIONS ---
-    private static int rayOrigin_loc = -1;
-    private static int rayDirection_loc = -1;
     private static int speed_loc = -1;
     private static int maxBounces_loc = -1;
     private static int worldTexture_loc = -1;
     private static int worldOffset_loc = -1;
+    private static int termination_loc = -1;
+    private static int terminationSeed_loc = -1;
+
+    // Programa de depuración con el registro largo; se enlaza solo si se activa DEBUG_SHADER_OUTPUT.
+    private static int debugShaderProgram = -1;
+    private static int debugWorldTexture_loc = -1;
+    private static int debugWorldOffset_loc = -1;
+    private static int debugTermination_loc = -1;
+    private static int debugTerminationSeed_loc = -1;
+
+    // Programa de coste lineal (ray_passthrough + ray_geometry): una invocación por rayo que emite todos sus puntos.
+    // Con el registro compacto, 64 puntos son 512 componentes, dentro del mínimo garantizado (1024).
+    private static final int GEOMETRY_MAX_VERTICES = 64;
+    private static int geometryShaderProgram = -1; // -1 si el driver no lo enlazó: se usa el modo por vértice
+    private static int geometryWorldTexture_loc = -1;
+    private static int geometryWorldOffset_loc = -1;
+    private static int geometryTermination_loc = -1;
+    private static int geometryTerminationSeed_loc = -1;
+    private static int geometryNumVertices_loc = -1;
 
     public static void setUniform3f(String name, float x, float y, float z) {
         int loc = GL20.glGetUniformLocation(shaderProgram, name);
@@ -80,25 +134,7 @@ public class RayShaderHandler {
 
     public static void init() {
         System.out.println("[DEBUG] RayShaderHandler.init() called.");
-        int vertexShader = ShaderHelper.loadShader(GL20.GL_VERTEX_SHADER, "ray_vertex.glsl");
-        int fragmentShader = ShaderHelper.loadShader(GL20.GL_FRAGMENT_SHADER, "ray_fragment.glsl");
-
-        shaderProgram = GL20.glCreateProgram();
-        GL20.glAttachShader(shaderProgram, vertexShader);
-        GL20.glAttachShader(shaderProgram, fragmentShader);
-
-        String[] varyings = {
-                "outPosition", "bounceStatus", "outNormal", "debugCoord_tex", "debugCode",
-                "outRayOrigin", "outRayDirection", "outHitPointBeforeEpsilon",
-                "outHitBlockCenter", "outAccumulatedT"
-        };
-        glTransformFeedbackVaryings(shaderProgram, varyings, GL_INTERLEAVED_ATTRIBS);
-        GL20.glLinkProgram(shaderProgram);
-
-        if (GL20.glGetProgrami(shaderProgram, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
-            String log = GL20.glGetProgramInfoLog(shaderProgram);
-            throw new RuntimeException("TF Shader linking failed: " + log);
-        }
+        shaderProgram = linkTraceProgram(false);
         System.out.println("[DEBUG] RayShaderHandler: TF Shader (shaderProgram " + shaderProgram + ") linked successfully.");
 
         // ─── Ver TF varyings ───
@@ -132,19 +168,26 @@ public class RayShaderHandler {
 
         // Obtener y guardar las locations de los uniforms
         glUseProgram(shaderProgram);
-        rayOrigin_loc = glGetUniformLocation(shaderProgram, "rayOrigin");
-        rayDirection_loc = glGetUniformLocation(shaderProgram, "rayDirection");
         speed_loc = glGetUniformLocation(shaderProgram, "speed"); // Aunque no lo uses, es bueno tenerlo
         maxBounces_loc = glGetUniformLocation(shaderProgram, "maxBounces"); // No está en el shader, pero lo dejamos por si acaso
         worldTexture_loc = glGetUniformLocation(shaderProgram, "worldTexture");
         worldOffset_loc = glGetUniformLocation(shaderProgram, "worldOffset");
+        termination_loc = glGetUniformLocation(shaderProgram, "termination");
+        terminationSeed_loc = glGetUniformLocation(shaderProgram, "terminationSeed");
         glUseProgram(0);
 
-        // Limpiar shaders después del enlace
-        GL20.glDetachShader(shaderProgram, vertexShader);
-        GL20.glDetachShader(shaderProgram, fragmentShader);
-        GL20.glDeleteShader(vertexShader);
-        GL20.glDeleteShader(fragmentShader);
+        try {
+            geometryShaderProgram = linkGeometryProgram();
+            geometryWorldTexture_loc = glGetUniformLocation(geometryShaderProgram, "worldTexture");
+            geometryWorldOffset_loc = glGetUniformLocation(geometryShaderProgram, "worldOffset");
+            geometryTermination_loc = glGetUniformLocation(geometryShaderProgram, "termination");
+            geometryTerminationSeed_loc = glGetUniformLocation(geometryShaderProgram, "terminationSeed");
+            geometryNumVertices_loc = glGetUniformLocation(geometryShaderProgram, "numVertices");
+            System.out.println("[DEBUG] RayShaderHandler: TF Shader con geometry shader (ID " + geometryShaderProgram + ") enlazado.");
+        } catch (RuntimeException e) {
+            geometryShaderProgram = -1;
+            System.err.println("[Wavecraft] No se pudo enlazar el trazado por geometry shader; se usará el modo por vértice: " + e.getMessage());
+        }
 
         /*int maxVertices = currentMaxBounces + 1;
         positionVBO = GL15.glGenBuffers();
@@ -159,10 +202,119 @@ public class RayShaderHandler {
         // <-- CORRECCIÓN: Se elimina la llamada a initBuffers(). Su lógica se integra en initRenderProgram().
         initRenderProgram(); // Inicializa VBO y VAO de renderizado
         initDebugTextureProgram();
+        initBatchBuffers();
 
         System.out.println("[DEBUG] RayShaderHandler.init() finished successfully.");
     }
 
+    /**
+     * Compila y enlaza el programa de trazado. La variante normal solo escribe el registro compacto
+     * de {@link #FLOATS_PER_VERTEX} floats; la de depuración define WAVECRAFT_DEBUG_OUTPUT y añade
+     * los campos de diagnóstico detrás, hasta {@link #DEBUG_FLOATS_PER_VERTEX}.
+     */
+    private static int linkTraceProgram(boolean debugLayout) {
+        String[] defines = debugLayout ? occupancyDefines("WAVECRAFT_DEBUG_OUTPUT") : occupancyDefines();
+        int vertexShader = ShaderHelper.loadShader(GL20.GL_VERTEX_SHADER, "ray_vertex.glsl", defines);
+        int fragmentShader = ShaderHelper.loadShader(GL20.GL_FRAGMENT_SHADER, "ray_fragment.glsl");
+
+        int program = GL20.glCreateProgram();
+        GL20.glAttachShader(program, vertexShader);
+        GL20.glAttachShader(program, fragmentShader);
+
+        glTransformFeedbackVaryings(program, debugLayout ? DEBUG_VARYINGS : COMPACT_VARYINGS, GL_INTERLEAVED_ATTRIBS);
+        GL20.glLinkProgram(program);
+
+        // Limpiar shaders después del enlace
+        GL20.glDetachShader(program, vertexShader);
+        GL20.glDetachShader(program, fragmentShader);
+        GL20.glDeleteShader(vertexShader);
+        GL20.glDeleteShader(fragmentShader);
+
+        if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetProgramInfoLog(program);
+            GL20.glDeleteProgram(program);
+            throw new RuntimeException("TF Shader linking failed: " + log);
+        }
+        bindPyramidSamplers(program);
+        return program;
+    }
+
+    /**
+     * Añade WAVECRAFT_PACKED_OCCUPANCY a los defines cuando la textura del mundo va empaquetada
+     * (R32UI + R8); si no, los shaders leen el formato RGBA8 de siempre.
+     */
+    private static String[] occupancyDefines(String... defines) {
+        if (!WorldTextureCache.getInstance().usesPackedOccupancy()) {
+            return defines;
+        }
+        String[] withPacked = Arrays.copyOf(defines, defines.length + 1);
+        withPacked[defines.length] = "WAVECRAFT_PACKED_OCCUPANCY";
+        return withPacked;
+    }
+
+    /**
+     * Compila y enlaza el programa de trazado por geometry shader, que escribe el mismo registro compacto
+     * que la variante normal de {@link #linkTraceProgram} pero recorre cada rayo una sola vez.
+     */
+    private static int linkGeometryProgram() {
+        int vertexShader = ShaderHelper.loadShader(GL20.GL_VERTEX_SHADER, "ray_passthrough.glsl");
+        int geometryShader = ShaderHelper.loadShader(GL32.GL_GEOMETRY_SHADER, "ray_geometry.glsl",
+                occupancyDefines("WAVECRAFT_MAX_VERTICES " + GEOMETRY_MAX_VERTICES));
+        int fragmentShader = ShaderHelper.loadShader(GL20.GL_FRAGMENT_SHADER, "ray_fragment.glsl");
+
+        int program = GL20.glCreateProgram();
+        GL20.glAttachShader(program, vertexShader);
+        GL20.glAttachShader(program, geometryShader);
+        GL20.glAttachShader(program, fragmentShader);
+
+        glTransformFeedbackVaryings(program, COMPACT_VARYINGS, GL_INTERLEAVED_ATTRIBS);
+        GL20.glLinkProgram(program);
+
+        GL20.glDetachShader(program, vertexShader);
+        GL20.glDetachShader(program, geometryShader);
+        GL20.glDetachShader(program, fragmentShader);
+        GL20.glDeleteShader(vertexShader);
+        GL20.glDeleteShader(geometryShader);
+        GL20.glDeleteShader(fragmentShader);
+
+        if (GL20.glGetProgrami(program, GL20.GL_LINK_STATUS) == GL11.GL_FALSE) {
+            String log = GL20.glGetProgramInfoLog(program);
+            GL20.glDeleteProgram(program);
+            throw new RuntimeException("TF Shader (geometry) linking failed: " + log);
+        }
+        bindPyramidSamplers(program);
+        return program;
+    }
+
+    /**
+     * Las texturas de la pirámide de ocupación van siempre en las unidades 1 (4³) y 2 (16³), la de alturas
+     * para el escape al cielo en la 3 y la de absorción en la 4; se fija una vez por programa.
+     */
+    private static void bindPyramidSamplers(int program) {
+        glUseProgram(program);
+        glUniform1i(glGetUniformLocation(program, "brick4Texture"), 1);
+        glUniform1i(glGetUniformLocation(program, "brick16Texture"), 2);
+        glUniform1i(glGetUniformLocation(program, "skyTexture"), 3);
+        glUniform1i(glGetUniformLocation(program, "absorptionTexture"), 4);
+        glUseProgram(0);
+    }
+
+    /**
+     * Devuelve el programa de depuración, enlazándolo la primera vez que se pide.
+     * Solo se usa mientras DEBUG_SHADER_OUTPUT está activado.
+     */
+    private static int getDebugShaderProgram() {
+        if (debugShaderProgram == -1) {
+            debugShaderProgram = linkTraceProgram(true);
+            debugWorldTexture_loc = glGetUniformLocation(debugShaderProgram, "worldTexture");
+            debugWorldOffset_loc = glGetUniformLocation(debugShaderProgram, "worldOffset");
+            debugTermination_loc = glGetUniformLocation(debugShaderProgram, "termination");
+            debugTerminationSeed_loc = glGetUniformLocation(debugShaderProgram, "terminationSeed");
+            System.out.println("[DEBUG] RayShaderHandler: TF Shader de depuración (ID " + debugShaderProgram + ") enlazado.");
+        }
+        return debugShaderProgram;
+    }
+
     /*public static void initBuffers(int maxVertices) {
         renderVAO = GL30.glGenVertexArrays();          // ← un único VAO
         GL30.glBindVertexArray(renderVAO);
@@ -287,9 +439,81 @@ public class RayShaderHandler {
         System.out.println("[DEBUG] RayShaderHandler: VAO y VBO desvinculados. renderVAO configuración completa.");
     }
 
+    /**
+     * Crea el VAO y los buffers del trazado por lotes. Los atributos 0 (origen) y 1 (dirección)
+     * avanzan una vez por instancia, de modo que cada instancia del draw es un rayo completo.
+     */
+    private static void initBatchBuffers() {
+        batchVAO = glGenVertexArrays();
+        instanceVBO = glGenBuffers();
+        for (int i = 0; i < FEEDBACK_RING_SIZE; i++) {
+            feedbackRing[i] = new FeedbackSlot();
+            feedbackRing[i].vbo = glGenBuffers();
+        }
+        syncSlot.vbo = glGenBuffers();
+
+        glBindVertexArray(batchVAO);
+        glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+        int stride = FLOATS_PER_INSTANCE * Float.BYTES;
+        glVertexAttribPointer(0, 3, GL11.GL_FLOAT, false, stride, 0);
+        glEnableVertexAttribArray(0);
+        glVertexAttribDivisor(0, 1);
+        glVertexAttribPointer(1, 3, GL11.GL_FLOAT, false, stride, 3L * Float.BYTES);
+        glEnableVertexAttribArray(1);
+        glVertexAttribDivisor(1, 1);
+
+        glBindVertexArray(0);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        System.out.println("[DEBUG] RayShaderHandler: batchVAO (ID " + batchVAO + ") listo para trazado instanciado con " + FEEDBACK_RING_SIZE + " buffers de feedback.");
+    }
+
+    /** Asegura que el buffer de la ranura puede alojar {@code bytes}; si no, lo realoja al doble. */
+    private static void ensureFeedbackCapacity(FeedbackSlot slot, long bytes) {
+        if (bytes <= slot.capacityBytes) return;
+        long newCapacity = Math.max(bytes, slot.capacityBytes * 2);
+        glBindBuffer(GL_ARRAY_BUFFER, slot.vbo);
+        glBufferData(GL_ARRAY_BUFFER, newCapacity, GL15.GL_STREAM_READ);
+        glBindBuffer(GL_ARRAY_BUFFER, 0);
+        slot.capacityBytes = newCapacity;
+    }
+
+    /** Indica si el modo GEOMETRY está disponible (el driver enlazó el programa con geometry shader). */
+    public static boolean isGeometryTracingAvailable() {
+        return geometryShaderProgram != -1;
+    }
+
+    /** Indica si queda alguna ranura libre en el anillo para enviar un lote nuevo. */
+    public static boolean hasFreeFeedbackSlot() {
+        return findFreeSlot() != null;
+    }
+
+    /** Número de lotes enviados a la GPU cuyas trayectorias aún no se han leído. */
+    public static int getBatchesInFlight() {
+        int count = 0;
+        for (FeedbackSlot slot : feedbackRing) {
+            if (slot != null && slot.batch != null) count++;
+        }
+        return count;
+    }
+
+    private static FeedbackSlot findFreeSlot() {
+        for (FeedbackSlot slot : feedbackRing) {
+            if (slot != null && slot.batch == null) return slot;
+        }
+        return null;
+    }
+
+    public static int getLastBatchRayCount() {
+        return lastBatchRayCount;
+    }
+
+    public static long getLastBatchNanos() {
+        return lastBatchNanos;
+    }
+
     public static void initDebugTextureProgram() {
         System.out.println("[Wavecraft] Inicializando shader de depuración de textura...");
-        int vertexShader = ShaderHelper.loadShader(GL_VERTEX_SHADER, "debug_texture_vertex.glsl");
+        int vertexShader = ShaderHelper.loadShader(GL_VERTEX_SHADER, "debug_texture_vertex.glsl", occupancyDefines());
         int fragmentShader = ShaderHelper.loadShader(GL_FRAGMENT_SHADER, "debug_texture_fragment.glsl");
 
         debugTextureProgram = glCreateProgram();
@@ -311,130 +535,269 @@ public class RayShaderHandler {
     }
 
 
-    public static List<AcousticRay.PathPoint> calculateRayPath(Level level, LocalPlayer player, Vec3 origin, Vec3 direction, float speed, int maxBounces) {
-        //System.out.println("[DEBUG] Thread in calculateRayPath: " + Thread.currentThread().getName());
-        //maxBounces = 4;
-        //System.out.println("[DEBUG] calculateRayPath maxBounces = " + maxBounces);
-        int localDummyVAO = -1;
-        List<AcousticRay.PathPoint> trajectory = new ArrayList<>(); // Declara trajectory aquí para que esté en el scope del return del try y del catch/finally (aunque en catch devuelves una nueva)
+    /**
+     * Envía un lote a la GPU sin esperar al resultado: un único glDrawArraysInstanced sobre una
+     * ranura libre del anillo, seguido de un fence. Las trayectorias se recogen con {@link #pollBatch}.
+     *
+     * @return false si no hay ranura libre o los recursos no están listos; el lote puede reintentarse más tarde.
+     */
+    public static boolean submitBatch(LocalPlayer player, RayBatch batch, long frame) {
+        FeedbackSlot slot = findFreeSlot();
+        if (slot == null) return false;
+
+        try {
+            if (!dispatch(slot, player, batch.getOrigins(), batch.getDirections(), batch.getNumVertices(), batch.getTermination(),
+                    WavecraftConfig.GPU_TRACE_MODE.get())) {
+                return false;
+            }
+            slot.fence = glFenceSync(GL_SYNC_GPU_COMMANDS_COMPLETE, 0);
+            glFlush(); // Garantiza que el fence llegue a la GPU aunque no haya más comandos este frame
+            slot.batch = batch;
+            batch.markSubmitted(frame, WorldTextureCache.getInstance().getTextureGeneration());
+            return true;
+        } catch (Exception e) {
+            System.err.println("CRASH en submitBatch: " + e.getMessage());
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * Comprueba sin bloquear si el lote ha terminado. Si su fence ya está señalizado,
+     * lee el buffer de feedback (ya no provoca un vaciado del pipeline), completa el lote y libera la ranura.
+     *
+     * @return true si el lote quedó completado en esta llamada.
+     */
+    public static boolean pollBatch(RayBatch batch, long frame) {
+        FeedbackSlot slot = null;
+        for (FeedbackSlot candidate : feedbackRing) {
+            if (candidate != null && candidate.batch == batch) {
+                slot = candidate;
+                break;
+            }
+        }
+        if (slot == null) return false;
+
+        int status = glClientWaitSync(slot.fence, 0, 0L);
+        if (status == GL_TIMEOUT_EXPIRED) {
+            return false; // Sigue en la GPU; lo recogeremos en otro frame
+        }
 
-        int dummyVBO = -1;
+        RayPathArena paths;
+        if (status == GL_WAIT_FAILED) {
+            System.err.println("[Wavecraft] glClientWaitSync falló; se descarta el lote de " + batch.getNumRays() + " rayos.");
+            paths = RayPathArena.empty(batch.getNumVertices());
+        } else {
+            paths = readPaths(slot, batch.getNumRays(), batch.getNumVertices());
+        }
+
+        glDeleteSync(slot.fence);
+        slot.fence = 0;
+        slot.batch = null;
+        batch.complete(paths, frame);
+        return true;
+    }
+
+    /**
+     * Versión síncrona: traza y lee el lote en la misma llamada, bloqueando hasta que la GPU termina.
+     * Solo se usa para mediciones; el juego usa {@link #submitBatch} y {@link #pollBatch}.
+     *
+     * @return Una trayectoria por rayo, en el mismo orden que {@code origins}. Sin rayos si los recursos no están listos.
+     */
+    public static RayPathArena traceRays(Level level, LocalPlayer player, Vec3[] origins, Vec3[] directions, int maxBounces) {
+        return traceRays(level, player, origins, directions, maxBounces, WavecraftConfig.GPU_TRACE_MODE.get());
+    }
+
+    /** Igual que {@link #traceRays(Level, LocalPlayer, Vec3[], Vec3[], int)} con un modo de trazado concreto (benchmarks). */
+    public static RayPathArena traceRays(Level level, LocalPlayer player, Vec3[] origins, Vec3[] directions, int maxBounces,
+                                         WavecraftConfig.GpuTraceMode mode) {
+        int numVertices = maxBounces + 1;
+        long startNanos = System.nanoTime();
+        try {
+            if (origins.length == 0 || !dispatch(syncSlot, player, origins, directions, numVertices, RayTermination.NONE, mode)) {
+                return RayPathArena.empty(numVertices);
+            }
+            RayPathArena paths = readPaths(syncSlot, origins.length, numVertices);
+
+            lastBatchRayCount = origins.length;
+            lastBatchNanos = System.nanoTime() - startNanos;
+            if (WavecraftConfig.DEBUG_SHADER_OUTPUT.get()) {
+                System.out.printf("[Wavecraft] Lote de %d rayos trazado en %.3f ms%n", origins.length, lastBatchNanos / 1_000_000.0);
+            }
+            return paths;
+        } catch (Exception e) {
+            System.err.println("CRASH en traceRays: " + e.getMessage());
+            e.printStackTrace();
+            return RayPathArena.empty(numVertices);
+        }
+    }
+
+    /**
+     * Traza todos los rayos con un único glDrawArraysInstanced sobre el buffer de la ranura.
+     * Cada instancia es un rayo. En modo PER_VERTEX cada vértice de la instancia es un punto de su trayectoria;
+     * en modo GEOMETRY la instancia tiene un solo vértice y el geometry shader emite todos los puntos.
+     * En los dos casos el buffer de feedback queda ordenado como [rayo][vértice].
+     */
+    private static boolean dispatch(FeedbackSlot slot, LocalPlayer player, Vec3[] origins, Vec3[] directions, int numVertices,
+                                    RayTermination termination, WavecraftConfig.GpuTraceMode mode) {
+        int numRays = origins.length;
+        // Qué estado global quedó activado, para deshacerlo en el finally aunque el draw lance una excepción
+        boolean rasterizerDiscarded = false;
+        boolean feedbackActive = false;
         try {
             // 1. OBTENER DATOS DEL MUNDO
             WorldTextureCache cache = WorldTextureCache.getInstance();
             int textureId = cache.getTextureId(player);
             BlockPos textureOrigin = cache.getTextureOrigin();
-            if (textureId == -1 || !glIsTexture(textureId) || positionVBO == -1) {
-                return trajectory; // Salida segura si los recursos no están listos
+            if (textureId == -1 || !glIsTexture(textureId) || batchVAO == -1) {
+                return false; // Salida segura si los recursos no están listos
             }
 
-            int numVertices = maxBounces + 1;
-
-            // 2. CONFIGURAR ESTADO DE OPENGL
-            glUseProgram(shaderProgram);
+            // El registro de depuración no cabe en la salida de un geometry shader: siempre va por vértice.
+            boolean debugLayout = WavecraftConfig.DEBUG_SHADER_OUTPUT.get();
+            boolean geometry = !debugLayout && mode == WavecraftConfig.GpuTraceMode.GEOMETRY
+                    && geometryShaderProgram != -1 && numVertices <= GEOMETRY_MAX_VERTICES;
+            int program, worldTextureLoc, worldOffsetLoc, terminationLoc, terminationSeedLoc;
+            if (debugLayout) {
+                program = getDebugShaderProgram();
+                worldTextureLoc = debugWorldTexture_loc;
+                worldOffsetLoc = debugWorldOffset_loc;
+                terminationLoc = debugTermination_loc;
+                terminationSeedLoc = debugTerminationSeed_loc;
+            } else if (geometry) {
+                program = geometryShaderProgram;
+                worldTextureLoc = geometryWorldTexture_loc;
+                worldOffsetLoc = geometryWorldOffset_loc;
+                terminationLoc = geometryTermination_loc;
+                terminationSeedLoc = geometryTerminationSeed_loc;
+            } else {
+                program = shaderProgram;
+                worldTextureLoc = worldTexture_loc;
+                worldOffsetLoc = worldOffset_loc;
+                terminationLoc = termination_loc;
+                terminationSeedLoc = terminationSeed_loc;
+            }
+            int floatsPerVertex = debugLayout ? DEBUG_FLOATS_PER_VERTEX : FLOATS_PER_VERTEX;
+            long feedbackBytes = (long) numRays * numVertices * floatsPerVertex * Float.BYTES;
+
+            // 2. SUBIR ORÍGENES Y DIRECCIONES (un registro por instancia)
+            FloatBuffer instanceData = MemoryUtil.memAllocFloat(numRays * FLOATS_PER_INSTANCE);
+            try {
+                for (int r = 0; r < numRays; r++) {
+                    instanceData.put((float) origins[r].x).put((float) origins[r].y).put((float) origins[r].z);
+                    instanceData.put((float) directions[r].x).put((float) directions[r].y).put((float) directions[r].z);
+                }
+                instanceData.flip();
+                glBindBuffer(GL_ARRAY_BUFFER, instanceVBO);
+                // glBufferData "huérfana" el almacenamiento anterior, así que no espera a los lotes en vuelo.
+                glBufferData(GL_ARRAY_BUFFER, instanceData, GL15.GL_STREAM_DRAW);
+            } finally {
+                MemoryUtil.memFree(instanceData);
+            }
+            ensureFeedbackCapacity(slot, feedbackBytes);
+            slot.floatsPerVertex = floatsPerVertex;
+
+            // 3. CONFIGURAR ESTADO DE OPENGL Y UNIFORMS
+            glUseProgram(program);
+            glActiveTexture(GL_TEXTURE1);
+            glBindTexture(GL_TEXTURE_3D, cache.getBrick4TextureId());
+            glActiveTexture(GL_TEXTURE2);
+            glBindTexture(GL_TEXTURE_3D, cache.getBrick16TextureId());
+            glActiveTexture(GL_TEXTURE3);
+            glBindTexture(GL_TEXTURE_3D, cache.getSkyTextureId());
+            if (cache.usesPackedOccupancy()) {
+                glActiveTexture(GL_TEXTURE4);
+                glBindTexture(GL_TEXTURE_3D, cache.getAbsorptionTextureId());
+            }
             glActiveTexture(GL_TEXTURE0);
             glBindTexture(GL_TEXTURE_3D, textureId);
-
-            // 3. PASAR UNIFORMS
-            glUniform1i(worldTexture_loc, 0);
+            glUniform1i(worldTextureLoc, 0);
             GL20.glUniform3i(
-                    worldOffset_loc,
+                    worldOffsetLoc,
                     textureOrigin.getX(),
                     textureOrigin.getY(),
                     textureOrigin.getZ()
             );
-            glUniform3f(rayOrigin_loc, (float) origin.x, (float) origin.y, (float) origin.z);
-            glUniform3f(rayDirection_loc, (float) direction.x, (float) direction.y, (float) direction.z);
-
-            // 4. --- LA CORRECCIÓN CLAVE: VAO y VBO LOCALES Y LIMPIOS ---
-            localDummyVAO = glGenVertexArrays();
-            glBindVertexArray(localDummyVAO);
-
-            glDisableVertexAttribArray(0);
-            glVertexAttrib1f(0, 0.0f);
-            // En este punto, el VAO activo está perfectamente alineado con el shader de cálculo.
+            glUniform2f(terminationLoc, termination.energyThreshold(), termination.rouletteEnergy());
+            glUniform1ui(terminationSeedLoc, termination.seed());
+            if (geometry) {
+                glUniform1i(geometryNumVertices_loc, numVertices);
+            }
 
-            // 5. EJECUTAR TRANSFORM FEEDBACK
-            glBindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, positionVBO);
+            // 4. EJECUTAR TRANSFORM FEEDBACK: un solo draw para todo el lote
+            glBindVertexArray(batchVAO);
+            glBindBufferRange(GL_TRANSFORM_FEEDBACK_BUFFER, 0, slot.vbo, 0, feedbackBytes);
             glEnable(GL_RASTERIZER_DISCARD);
+            rasterizerDiscarded = true;
             glBeginTransformFeedback(GL_POINTS);
-            glDrawArrays(GL_POINTS, 0, numVertices);
-            glEndTransformFeedback();
-            glDisable(GL_RASTERIZER_DISCARD);
-
-            // 6. LEER RESULTADOS
-            FloatBuffer buffer = BufferUtils.createFloatBuffer(numVertices * 24);
-            glBindBuffer(GL_ARRAY_BUFFER, positionVBO);
-            glGetBufferSubData(GL_ARRAY_BUFFER, 0, buffer);
-            buffer.rewind();
-
-            if (WavecraftConfig.DEBUG_SHADER_OUTPUT.get()) {
-                int stride = 24;
-                for (int i = 0; i < numVertices; i++) {
-                    int base = i * stride;
-                    float px = buffer.get(base);
-                    float py = buffer.get(base + 1);
-                    float pz = buffer.get(base + 2);
-                    float bounceStatus = buffer.get(base + 3);
-
-                    float normX = buffer.get(base + 4);
-                    float normY = buffer.get(base + 5);
-                    float normZ = buffer.get(base + 6);
-
-                    float tx = buffer.get(base + 7);
-                    float ty = buffer.get(base + 8);
-                    float tz = buffer.get(base + 9);
-
-                    float codeA = buffer.get(base + 10);
-                    float codeB = buffer.get(base + 11);
-
-                    System.out.printf("Punto %d:%n", i);
-                    System.out.printf("  Posición:                (%.2f, %.2f, %.2f)%n", px, py, pz);
-                    System.out.printf("  Estado (bounceStatus):   %.1f%n", bounceStatus);
-                    System.out.printf("  Normal del rebote:       (%.2f, %.2f, %.2f)%n", normX, normY, normZ);
-                    System.out.printf("  Coord textura (bloque):  (%.2f, %.2f, %.2f)%n", tx, ty, tz);
-                    System.out.printf("  Código debug:            %.1f, %.1f%n", codeA, codeB);
-                }
+            feedbackActive = true;
+            glDrawArraysInstanced(GL_POINTS, 0, geometry ? 1 : numVertices, numRays);
+            return true;
+        } finally {
+            if (feedbackActive) {
+                glEndTransformFeedback();
             }
-
-            int strideInFloats = 24; // El número total de floats por vértice
-
-            // 7. PROCESAR TRAYECTORIA
-            for (int i = 0; i < numVertices; i++) {
-                int baseIndex = i * strideInFloats;
-
-                // Leemos todos los datos relevantes del buffer para cada punto
-                Vec3 pos = new Vec3(buffer.get(baseIndex), buffer.get(baseIndex + 1), buffer.get(baseIndex + 2));
-                float status = buffer.get(baseIndex + 3);
-                Vec3 normal = new Vec3(buffer.get(baseIndex + 4), buffer.get(baseIndex + 5), buffer.get(baseIndex + 6));
-                float debug = buffer.get(baseIndex + 10); // O el índice que corresponda a tu debugCode
-
-                // Creamos y añadimos el nuevo objeto PathPoint
-                trajectory.add(new AcousticRay.PathPoint(pos, status, normal, debug));
-
-                // Imprimir en log si el debug está activado
-                if (WavecraftConfig.DEBUG_SHADER_OUTPUT.get()) {
-                    System.out.printf("Punto %d: Pos(%.2f, %.2f, %.2f), Status(%.1f), Normal(%.2f, %.2f, %.2f)\n",
-                            i, pos.x, pos.y, pos.z, status, normal.x, normal.y, normal.z);
-                }
+            if (rasterizerDiscarded) {
+                glDisable(GL_RASTERIZER_DISCARD);
             }
-            return trajectory;
-
-        } catch (Exception e) {
-            System.err.println("CRASH en calculateRayPath: " + e.getMessage());
-            e.printStackTrace();
-            return new ArrayList<>();
-        } finally {
-            // 8. LIMPIEZA EXHAUSTIVA Y SEGURA
             glBindVertexArray(0);
             glBindBuffer(GL_ARRAY_BUFFER, 0);
-            glBindBuffer(GL_TRANSFORM_FEEDBACK_BUFFER, 0);
+            glBindBufferBase(GL_TRANSFORM_FEEDBACK_BUFFER, 0, 0);
             glUseProgram(0);
+        }
+    }
 
-            // Liberar los recursos locales que creamos en este método
-            if (localDummyVAO != -1) glDeleteVertexArrays(localDummyVAO);
-            if (dummyVBO != -1) glDeleteBuffers(dummyVBO);
+    /**
+     * Lee el buffer de feedback de la ranura y lo copia campo a campo en una arena de trayectorias.
+     * El buffer se mapea para lectura en lugar de copiarlo a memoria nativa intermedia.
+     * De cada rayo solo se leen los vértices hasta el de terminación; el resto repite ese punto
+     * y se rellena en la arena sin tocar el buffer mapeado.
+     */
+    private static RayPathArena readPaths(FeedbackSlot slot, int numRays, int numVertices) {
+        RayPathArena paths = new RayPathArena(numRays, numVertices);
+        int stride = slot.floatsPerVertex;
+        long feedbackBytes = (long) numRays * numVertices * stride * Float.BYTES;
+
+        glBindBuffer(GL_ARRAY_BUFFER, slot.vbo);
+        ByteBuffer mapped = glMapBufferRange(GL_ARRAY_BUFFER, 0, feedbackBytes, GL_MAP_READ_BIT);
+        if (mapped == null) {
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
+            System.err.println("[Wavecraft] No se pudo mapear el buffer de feedback; se descarta el lote de " + numRays + " rayos.");
+            return RayPathArena.empty(numVertices);
+        }
+        try {
+            FloatBuffer buffer = mapped.asFloatBuffer();
+            boolean debugOutput = stride == DEBUG_FLOATS_PER_VERTEX;
+            for (int r = 0; r < numRays; r++) {
+                int count = numVertices;
+                for (int i = 0; i < count; i++) {
+                    int base = (r * numVertices + i) * stride;
+                    paths.set(r, i,
+                            buffer.get(base), buffer.get(base + 1), buffer.get(base + 2),
+                            buffer.get(base + 3),
+                            buffer.get(base + 4), buffer.get(base + 5), buffer.get(base + 6),
+                            buffer.get(base + 7));
+
+                    if (debugOutput) {
+                        System.out.printf("Rayo %d, punto %d: Pos(%.2f, %.2f, %.2f), Status(%.1f), Normal(%.2f, %.2f, %.2f), Energía(%.3f), Coord textura(%.2f, %.2f, %.2f)%n",
+                                r, i, buffer.get(base), buffer.get(base + 1), buffer.get(base + 2), buffer.get(base + 3),
+                                buffer.get(base + 4), buffer.get(base + 5), buffer.get(base + 6), buffer.get(base + 7),
+                                buffer.get(base + 8), buffer.get(base + 9), buffer.get(base + 10));
+                    }
+                    if (i > 0 && buffer.get(base + 3) == RayPathArena.STATUS_TERMINATED) {
+                        count = i + 1;
+                    }
+                }
+                for (int i = count; i < numVertices; i++) {
+                    paths.repeatTerminated(r, i);
+                }
+                paths.setVertexCount(r, count);
+            }
+        } finally {
+            glUnmapBuffer(GL_ARRAY_BUFFER);
+            glBindBuffer(GL_ARRAY_BUFFER, 0);
         }
+        return paths;
     }
 
     public static int uploadBlockTexture3D(Level level, BlockPos origin, int sizeX, int sizeY, int sizeZ) {
@@ -0,0 +1,51 @@
+package com.nicholas.wavecraft.sound;
+
+import com.nicholas.wavecraft.config.WavecraftConfig;
+
+/**
+ * Terminación de rayos por energía dentro del trazador, con la misma regla en CPU y en ray_vertex.glsl.
+ *
+ * Sin ruleta: el rayo muere en el primer rebote que lo deja por debajo de {@code energyThreshold}.
+ * Con ruleta ({@code rouletteEnergy > 0}): un rayo con energía e < rouletteEnergy sobrevive con
+ * probabilidad e / rouletteEnergy y sigue con energía rouletteEnergy, así que la energía esperada
+ * no cambia (estimador sin sesgo) y los rayos débiles no se trazan hasta el final.
+ *
+ * El número aleatorio es un hash de (semilla, rayo, rebote) y no un generador con estado: cada vértice
+ * del shader recorre de nuevo el camino desde el origen y tiene que tomar las mismas decisiones.
+ */
+public record RayTermination(float energyThreshold, float rouletteEnergy, int seed) {
+
+    /** Sin terminación por energía: los rayos solo mueren al escapar (benchmarks y comparativas). */
+    public static final RayTermination NONE = new RayTermination(0.0f, 0.0f, 0);
+
+    /** Valor que devuelve {@link #apply} cuando el rayo muere. */
+    public static final float KILLED = -1.0f;
+
+    public static RayTermination fromConfig(int seed) {
+        float roulette = WavecraftConfig.RUSSIAN_ROULETTE.get() ? WavecraftConfig.ROULETTE_ENERGY.get().floatValue() : 0.0f;
+        return new RayTermination(WavecraftConfig.ENERGY_THRESHOLD.get().floatValue(), roulette, seed);
+    }
+
+    /**
+     * Decide si el rayo sigue tras el rebote {@code bounce}.
+     * @return La energía con la que continúa, o {@link #KILLED}.
+     */
+    public float apply(float energy, int ray, int bounce) {
+        if (rouletteEnergy > 0.0f) {
+            if (energy >= rouletteEnergy) return energy;
+            return random(seed, ray, bounce) * rouletteEnergy < energy ? rouletteEnergy : KILLED;
+        }
+        return energy < energyThreshold ? KILLED : energy;
+    }
+
+    /** Número en [0, 1) a partir de un hash PCG; en GLSL es terminationRandom() con aritmética uint. */
+    static float random(int seed, int ray, int bounce) {
+        return (pcgHash(pcgHash(seed + ray) + bounce) >>> 8) * (1.0f / 16777216.0f);
+    }
+
+    private static int pcgHash(int v) {
+        int state = v * 747796405 + (int) 2891336453L;
+        int word = ((state >>> ((state >>> 28) + 4)) ^ state) * 277803737;
+        return (word >>> 22) ^ word;
+    }
+}
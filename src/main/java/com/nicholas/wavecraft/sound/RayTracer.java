@@ -0,0 +1,27 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.client.player.LocalPlayer;
+
+/**
+ * Backend de trazado de rayos acústicos. Recibe lotes completos (todos los rayos de una emisión)
+ * y entrega sus trayectorias de forma asíncrona: {@link #submit} nunca espera al resultado
+ * y {@link #poll} lo recoge sin bloquear cuando ya está listo.
+ * Ambos métodos se llaman desde el hilo de renderizado.
+ */
+public interface RayTracer {
+
+    /** Indica si el backend puede aceptar un lote nuevo en este momento. */
+    boolean canAccept();
+
+    /**
+     * Lanza el trazado del lote.
+     * @return false si el lote no se pudo enviar; puede reintentarse en otro frame.
+     */
+    boolean submit(LocalPlayer player, RayBatch batch, long frame);
+
+    /**
+     * Comprueba sin bloquear si el lote terminó y, en ese caso, lo completa con sus trayectorias.
+     * @return true si el lote quedó completado en esta llamada.
+     */
+    boolean poll(RayBatch batch, long frame);
+}
@@ -19,12 +19,23 @@ public class ShaderHelper {
     }
 
     public static int loadShader(int type, String filename) {
+        return loadShader(type, filename, new String[0]);
+    }
+
+    /**
+     * Igual que {@link #loadShader(int, String)}, pero inserta un {@code #define} por cada nombre justo
+     * después de la línea {@code #version}, para compilar variantes del mismo archivo.
+     */
+    public static int loadShader(int type, String filename, String... defines) {
         int shaderID = GL20.glCreateShader(type);
 
         String source = loadShaderSource(filename);
         if (source == null || source.isEmpty()) {
             throw new RuntimeException("Shader source is empty for " + filename);
         }
+        if (defines.length > 0) {
+            source = injectDefines(source, defines);
+        }
 
         GL20.glShaderSource(shaderID, source);
         GL20.glCompileShader(shaderID);
@@ -41,6 +52,16 @@ public class ShaderHelper {
         return shaderID;
     }
 
+    private static String injectDefines(String source, String[] defines) {
+        StringBuilder block = new StringBuilder();
+        for (String define : defines) {
+            block.append("#define ").append(define).append("\n");
+        }
+        // #version tiene que seguir siendo la primera línea del shader
+        int versionEnd = source.startsWith("#version") ? source.indexOf('\n') + 1 : 0;
+        return source.substring(0, versionEnd) + block + source.substring(versionEnd);
+    }
+
     private static String loadShaderSource(String filename) {
         try {
             InputStream in = ShaderHelper.class.getResourceAsStream("/assets/wavecraft/shaders/" + filename);
@@ -53,7 +74,12 @@ public class ShaderHelper {
             String line;
 
             while ((line = reader.readLine()) != null) {
-                source.append(line).append("\n");
+                // GLSL no tiene #include: se sustituye la línea por el archivo, para compartir código entre shaders
+                if (line.startsWith("#include \"") && line.endsWith("\"")) {
+                    source.append(loadShaderSource(line.substring(10, line.length() - 1)));
+                } else {
+                    source.append(line).append("\n");
+                }
             }
 
             return source.toString();
@@ -124,7 +124,7 @@ public class SoundTracker {
 
             // Guardamos el pitch y encolamos el sonido para el procesamiento de rayos
             lastKnownPitches.put(location, pitch);
-            SoundDebugger.queuedSounds.add(new SoundDebugger.QueuedSound(location, pos, volume));
+            SoundDebugger.queuedSounds.add(new SoundDebugger.QueuedSound(location, pos, volume, eventSound.getSource()));
 
             System.out.println("[SoundTracker] ✅ Capturado: " +
                     location +
@@ -0,0 +1,76 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+/**
+ * Copia de lo que hace falta del mundo para voxelizar un volumen de size³ bloques: los estados de cada sección
+ * de 16³ (la PalettedContainer copiada, unos pocos KB por sección) y la altura MOTION_BLOCKING de cada columna.
+ * Se toma en el hilo del cliente, que es el único que modifica los chunks, y después
+ * {@link VoxelGrid#fromSnapshot} la puede recorrer en un hilo de fondo sin tocar el Level.
+ */
+public class VolumeSnapshot {
+    private final int originX, originY, originZ;
+    private final int size;
+    private final PalettedContainer<BlockState>[] sections; // Orden [z][y][x]; null = solo aire
+    private final int[] heights; // Altura del mundo del Heightmap por columna, orden [z][x]
+
+    @SuppressWarnings("unchecked")
+    private VolumeSnapshot(BlockPos origin, int size) {
+        this.originX = origin.getX();
+        this.originY = origin.getY();
+        this.originZ = origin.getZ();
+        this.size = size;
+        int perAxis = size / 16;
+        this.sections = new PalettedContainer[perAxis * perAxis * perAxis];
+        this.heights = new int[size * size];
+    }
+
+    /**
+     * Copia las secciones del volumen con origen {@code origin} (múltiplo de 16). Las secciones solo de aire,
+     * fuera de la altura del mundo o de chunks sin cargar no se copian. Solo desde el hilo del cliente.
+     */
+    public static VolumeSnapshot capture(Level level, BlockPos origin, int size) {
+        VolumeSnapshot snapshot = new VolumeSnapshot(origin, size);
+        int perAxis = size / 16;
+        for (int sz = 0; sz < perAxis; sz++) {
+            for (int sx = 0; sx < perAxis; sx++) {
+                LevelChunk chunk = level.getChunk((snapshot.originX >> 4) + sx, (snapshot.originZ >> 4) + sz);
+                LevelChunkSection[] chunkSections = chunk.getSections();
+                for (int sy = 0; sy < perAxis; sy++) {
+                    int index = chunk.getSectionIndex(snapshot.originY + sy * 16);
+                    if (index < 0 || index >= chunkSections.length || chunkSections[index].hasOnlyAir()) continue;
+                    snapshot.sections[(sz * perAxis + sy) * perAxis + sx] = chunkSections[index].getStates().copy();
+                }
+            }
+        }
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                snapshot.heights[z * size + x] = level.getHeight(Heightmap.Types.MOTION_BLOCKING,
+                        snapshot.originX + x, snapshot.originZ + z);
+            }
+        }
+        return snapshot;
+    }
+
+    public int getOriginX() { return originX; }
+    public int getOriginY() { return originY; }
+    public int getOriginZ() { return originZ; }
+    public int getSize() { return size; }
+
+    /** Estados de la sección (sx, sy, sz) del volumen, o null si es solo aire. */
+    public PalettedContainer<BlockState> getSection(int sx, int sy, int sz) {
+        int perAxis = size / 16;
+        return sections[(sz * perAxis + sy) * perAxis + sx];
+    }
+
+    /** Altura del mundo del Heightmap MOTION_BLOCKING en la columna local (x, z). */
+    public int getHeight(int x, int z) {
+        return heights[z * size + x];
+    }
+}
@@ -0,0 +1,644 @@
+package com.nicholas.wavecraft.sound;
+
+import net.minecraft.core.BlockPos;
+import net.minecraft.world.level.Level;
+import net.minecraft.world.level.block.state.BlockState;
+import net.minecraft.world.level.chunk.LevelChunk;
+import net.minecraft.world.level.chunk.LevelChunkSection;
+import net.minecraft.world.level.chunk.PalettedContainer;
+import net.minecraft.world.level.levelgen.Heightmap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Rejilla de ocupación empaquetada del volumen alrededor del jugador: un bit por vóxel,
+ * 32 vóxeles consecutivos en X por cada int, más un byte de absorción por vóxel (0..255 = 0..1)
+ * resuelto una sola vez por BlockState al muestrear el mundo. Es la copia en CPU de los mismos datos que
+ * {@link WorldTextureCache} sube a la GPU, y se puede leer desde cualquier hilo una vez construida.
+ *
+ * Encima de los vóxeles mantiene una pirámide de ocupación: cuántos vóxeles sólidos hay en cada ladrillo
+ * de 4³ y de 16³. Los DDA la usan para cruzar de un salto los ladrillos vacíos (cuevas, cielo).
+ * Por columnas guarda además la altura del vóxel sólido más alto, con la que los rayos que suben por encima
+ * del terreno se dan por escapados al aire libre sin recorrer el cielo (ver {@link #hasOpenSky}).
+ *
+ * El almacenamiento es toroidal: el vóxel del mundo (wx, wy, wz) vive siempre en la posición (wx, wy, wz) mod size
+ * de los arrays, independientemente del origen. Así, cuando el volumen se desplaza con el jugador
+ * ({@link #withShiftedOrigin}), lo que sigue dentro no se mueve y solo hay que muestrear las losas que entran.
+ * Por eso el tamaño es potencia de dos y el origen múltiplo de 16: los ladrillos y baldosas del anillo coinciden
+ * con los del volumen. La API pública trabaja en coordenadas locales (relativas al origen) o del mundo,
+ * salvo {@link #getBrickSolidCount} y {@link #getTileTop}, que usan las del almacenamiento, igual que las texturas.
+ */
+public class VoxelGrid {
+    private final int originX, originY, originZ;
+    private final int size;
+    private final int mask; // size - 1: de coordenada del mundo a posición en el anillo
+    private final int wordsPerRow; // size / 32
+    private final int[] occupancy;
+    private final byte[] absorption; // Orden [z][y][x]; solo tiene sentido en los vóxeles sólidos
+    private final short[] solidPerBrick4;  // Vóxeles sólidos por ladrillo de 4³, orden [z][y][x]
+    private final short[] solidPerBrick16; // Vóxeles sólidos por ladrillo de 16³ (hasta 4096)
+    // Altura del mundo del vóxel sólido más alto + 1 (EMPTY_COLUMN = columna vacía), por columna [z][x] y por baldosa
+    // de 16×16 columnas. En coordenadas del mundo para que sigan valiendo al desplazar el origen en Y.
+    // Solo crecen: al vaciar un vóxel siguen siendo una cota superior válida.
+    private final short[] columnTop;
+    private final short[] tileTop;
+    private final long generation;
+
+    /** Lado en columnas de las baldosas de altura máxima que consulta {@link #hasOpenSky}. */
+    public static final int SKY_TILE = 16;
+
+    private static final short EMPTY_COLUMN = Short.MIN_VALUE;
+
+    public VoxelGrid(int originX, int originY, int originZ, int size, long generation) {
+        if (size % 32 != 0) {
+            throw new IllegalArgumentException("El tamaño de la rejilla debe ser múltiplo de 32: " + size);
+        }
+        if (Integer.bitCount(size) != 1) {
+            throw new IllegalArgumentException("El tamaño de la rejilla debe ser potencia de dos: " + size);
+        }
+        checkAligned(originX, originY, originZ);
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.size = size;
+        this.mask = size - 1;
+        this.wordsPerRow = size / 32;
+        this.occupancy = new int[wordsPerRow * size * size];
+        this.absorption = new byte[size * size * size];
+        this.solidPerBrick4 = new short[(size / 4) * (size / 4) * (size / 4)];
+        this.solidPerBrick16 = new short[(size / 16) * (size / 16) * (size / 16)];
+        this.columnTop = new short[size * size];
+        this.tileTop = new short[(size / SKY_TILE) * (size / SKY_TILE)];
+        Arrays.fill(this.columnTop, EMPTY_COLUMN);
+        Arrays.fill(this.tileTop, EMPTY_COLUMN);
+        this.generation = generation;
+    }
+
+    /**
+     * Copia completa de {@code other} con otro origen y otra generación; la base de las actualizaciones parciales
+     * y de los desplazamientos. Como el almacenamiento es toroidal, los vóxeles comunes no cambian de sitio.
+     */
+    private VoxelGrid(VoxelGrid other, int originX, int originY, int originZ, long generation) {
+        checkAligned(originX, originY, originZ);
+        this.originX = originX;
+        this.originY = originY;
+        this.originZ = originZ;
+        this.size = other.size;
+        this.mask = other.mask;
+        this.wordsPerRow = other.wordsPerRow;
+        this.occupancy = other.occupancy.clone();
+        this.absorption = other.absorption.clone();
+        this.solidPerBrick4 = other.solidPerBrick4.clone();
+        this.solidPerBrick16 = other.solidPerBrick16.clone();
+        this.columnTop = other.columnTop.clone();
+        this.tileTop = other.tileTop.clone();
+        this.generation = generation;
+    }
+
+    private static void checkAligned(int originX, int originY, int originZ) {
+        if (((originX | originY | originZ) & 15) != 0) {
+            throw new IllegalArgumentException("El origen de la rejilla debe ser múltiplo de 16: "
+                    + originX + ", " + originY + ", " + originZ);
+        }
+    }
+
+    /**
+     * Muestrea el mundo en un cubo de {@code size}³ bloques a partir de {@code origin}.
+     * Un vóxel es sólido si su bloque no es aire, igual que en la textura de la GPU; su absorción sale
+     * de la tabla densa de {@link MaterialProperties}, indexada por el id del estado.
+     *
+     * Las alturas de columna parten del Heightmap MOTION_BLOCKING de los chunks, el único que el servidor envía
+     * al cliente. Como ese mapa no cuenta bloques sin colisión (hierba, antorchas) que aquí sí son sólidos,
+     * cada vóxel muestreado las eleva si hace falta.
+     */
+    public static VoxelGrid fromLevel(Level level, BlockPos origin, int size, long generation) {
+        return fromLevel(level, origin, size, generation, true);
+    }
+
+    /**
+     * Como {@link #fromLevel(Level, BlockPos, int, long)}, pero con {@code bySections} = false muestrea bloque a
+     * bloque con {@code level.getBlockState}, como antes de recorrer las secciones. Solo para compararlos en RayBenchmark.
+     */
+    public static VoxelGrid fromLevel(Level level, BlockPos origin, int size, long generation, boolean bySections) {
+        VoxelGrid grid = new VoxelGrid(origin.getX(), origin.getY(), origin.getZ(), size, generation);
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                int height = level.getHeight(Heightmap.Types.MOTION_BLOCKING, origin.getX() + x, origin.getZ() + z);
+                grid.raiseColumnTop(x, z, height - origin.getY());
+            }
+        }
+        if (bySections) {
+            grid.sampleBox(level, 0, 0, 0, size, size, size);
+        } else {
+            grid.sampleBoxPerBlock(level, 0, 0, 0, size, size, size);
+        }
+        return grid;
+    }
+
+    /**
+     * Construye la rejilla a partir de una copia de las secciones tomada en el hilo del cliente
+     * ({@link VolumeSnapshot#capture}). No toca el Level, así que puede ejecutarse en cualquier hilo.
+     */
+    public static VoxelGrid fromSnapshot(VolumeSnapshot snapshot, long generation) {
+        int size = snapshot.getSize();
+        VoxelGrid grid = new VoxelGrid(snapshot.getOriginX(), snapshot.getOriginY(), snapshot.getOriginZ(), size, generation);
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                grid.raiseColumnTop(x, z, snapshot.getHeight(x, z) - snapshot.getOriginY());
+            }
+        }
+        for (int cz = 0; cz < size; cz += 16) {
+            for (int cy = 0; cy < size; cy += 16) {
+                for (int cx = 0; cx < size; cx += 16) {
+                    grid.sampleSection(snapshot.getSection(cx >> 4, cy >> 4, cz >> 4), cx, cy, cz, 0, 0, 0, size, size, size);
+                }
+            }
+        }
+        return grid;
+    }
+
+    /**
+     * Copia de la rejilla con otra generación y las cajas {@code boxes} (coordenadas locales
+     * {x0, y0, z0, x1, y1, z1}, extremo superior exclusivo) vueltas a muestrear del mundo.
+     * La rejilla original no se toca: otros hilos pueden seguir leyéndola.
+     */
+    public VoxelGrid withResampledBoxes(Level level, List<int[]> boxes, long generation) {
+        VoxelGrid grid = new VoxelGrid(this, originX, originY, originZ, generation);
+        for (int[] box : boxes) {
+            grid.sampleBox(level, box[0], box[1], box[2], box[3], box[4], box[5]);
+        }
+        return grid;
+    }
+
+    /**
+     * Copia de la rejilla desplazada al origen (newOriginX, newOriginY, newOriginZ), con otra generación. Los vóxeles
+     * que siguen dentro del volumen se conservan tal cual (el anillo no se mueve) y solo se muestrean las cajas
+     * {@code boxes}, que deben cubrir lo que entra: normalmente las de {@link #enteringBoxes}.
+     * Las columnas que entran por X o Z empiezan vacías y parten otra vez del Heightmap.
+     */
+    public VoxelGrid withShiftedOrigin(Level level, int newOriginX, int newOriginY, int newOriginZ,
+                                       List<int[]> boxes, long generation) {
+        VoxelGrid grid = new VoxelGrid(this, newOriginX, newOriginY, newOriginZ, generation);
+        int dx = newOriginX - originX, dz = newOriginZ - originZ;
+
+        // Las columnas nuevas ocupan baldosas enteras (el desplazamiento es múltiplo de 16), así que se vacían
+        // completas antes de volver a subirlas con el Heightmap.
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                if (isInside(x + dx) && isInside(z + dz)) continue;
+                int column = grid.columnIndex(x, z);
+                grid.columnTop[column] = EMPTY_COLUMN;
+                grid.tileTop[grid.tileIndex(x, z)] = EMPTY_COLUMN;
+            }
+        }
+        for (int z = 0; z < size; z++) {
+            for (int x = 0; x < size; x++) {
+                if (isInside(x + dx) && isInside(z + dz)) continue;
+                int height = level.getHeight(Heightmap.Types.MOTION_BLOCKING, newOriginX + x, newOriginZ + z);
+                grid.raiseColumnTop(x, z, height - newOriginY);
+            }
+        }
+
+        for (int[] box : boxes) {
+            grid.sampleBox(level, box[0], box[1], box[2], box[3], box[4], box[5]);
+        }
+        return grid;
+    }
+
+    /**
+     * Cajas locales (en el volumen nuevo, {x0, y0, z0, x1, y1, z1} con extremo superior exclusivo) que entran al
+     * desplazar el origen (dx, dy, dz) bloques: una losa por eje movido, sin solaparse entre sí.
+     */
+    public static List<int[]> enteringBoxes(int dx, int dy, int dz, int size) {
+        List<int[]> boxes = new ArrayList<>();
+        // Rango que queda por cubrir en cada eje una vez añadida la losa de ese eje
+        int x0 = 0, x1 = size, y0 = 0, y1 = size;
+        if (dx != 0) {
+            int s0 = dx > 0 ? size - dx : 0, s1 = dx > 0 ? size : -dx;
+            boxes.add(new int[] { s0, 0, 0, s1, size, size });
+            x0 = dx > 0 ? 0 : -dx;
+            x1 = dx > 0 ? size - dx : size;
+        }
+        if (dy != 0) {
+            int s0 = dy > 0 ? size - dy : 0, s1 = dy > 0 ? size : -dy;
+            boxes.add(new int[] { x0, s0, 0, x1, s1, size });
+            y0 = dy > 0 ? 0 : -dy;
+            y1 = dy > 0 ? size - dy : size;
+        }
+        if (dz != 0) {
+            int s0 = dz > 0 ? size - dz : 0, s1 = dz > 0 ? size : -dz;
+            boxes.add(new int[] { x0, y0, s0, x1, y1, s1 });
+        }
+        return boxes;
+    }
+
+    private boolean isInside(int local) {
+        return local >= 0 && local < size;
+    }
+
+    /**
+     * Vuelve a muestrear del mundo los vóxeles de la caja local [x0, x1) × [y0, y1) × [z0, z1) recorriendo
+     * directamente las secciones de 16³ de los chunks: cada chunk se resuelve una sola vez, las secciones solo de
+     * aire o con un único estado en la paleta se rellenan de golpe ({@link #fillSection}) y las mezcladas se leen
+     * de su PalettedContainer sin pasar por el Level ni crear posiciones. Como el origen es múltiplo de 16,
+     * las secciones coinciden con las de la rejilla. Fuera de la altura del mundo (o en chunks sin cargar) todo es aire.
+     */
+    private void sampleBox(Level level, int x0, int y0, int z0, int x1, int y1, int z1) {
+        for (int cz = z0 & -16; cz < z1; cz += 16) {
+            for (int cx = x0 & -16; cx < x1; cx += 16) {
+                LevelChunk chunk = level.getChunk((originX + cx) >> 4, (originZ + cz) >> 4);
+                LevelChunkSection[] sections = chunk.getSections();
+                for (int cy = y0 & -16; cy < y1; cy += 16) {
+                    int sectionIndex = chunk.getSectionIndex(originY + cy);
+                    LevelChunkSection section = sectionIndex >= 0 && sectionIndex < sections.length ? sections[sectionIndex] : null;
+                    sampleSection(section == null || section.hasOnlyAir() ? null : section.getStates(),
+                            cx, cy, cz, x0, y0, z0, x1, y1, z1);
+                }
+            }
+        }
+    }
+
+    /**
+     * Muestrea la parte de la sección local (cx, cy, cz) (múltiplos de 16) que cae en la caja [x0, x1) × [y0, y1) × [z0, z1).
+     * {@code states} son los estados de la sección, o null si es solo aire.
+     */
+    private void sampleSection(PalettedContainer<BlockState> states, int cx, int cy, int cz,
+                               int x0, int y0, int z0, int x1, int y1, int z1) {
+        int sx0 = Math.max(x0, cx), sx1 = Math.min(x1, cx + 16);
+        int sy0 = Math.max(y0, cy), sy1 = Math.min(y1, cy + 16);
+        int sz0 = Math.max(z0, cz), sz1 = Math.min(z1, cz + 16);
+        boolean whole = sx1 - sx0 == 16 && sy1 - sy0 == 16 && sz1 - sz0 == 16;
+
+        if (states == null) {
+            if (whole) {
+                fillSection(cx, cy, cz, false, 0);
+            } else {
+                clearBox(sx0, sy0, sz0, sx1, sy1, sz1);
+            }
+            return;
+        }
+        if (whole) {
+            // maybeHas solo mira las entradas de la paleta (puede quedar alguna sin usar), así que
+            // un false garantiza que toda la sección es ese estado.
+            BlockState first = states.get(0, 0, 0);
+            if (!states.maybeHas(state -> state != first)) {
+                fillSection(cx, cy, cz, !first.isAir(), MaterialProperties.getAbsorptionByte(first));
+            } else {
+                readSection(states, cx, cy, cz);
+            }
+            return;
+        }
+        for (int z = sz0; z < sz1; z++) {
+            for (int y = sy0; y < sy1; y++) {
+                for (int x = sx0; x < sx1; x++) {
+                    BlockState state = states.get(x - cx, y - cy, z - cz);
+                    if (!state.isAir()) {
+                        setSolidLocal(x, y, z, MaterialProperties.getAbsorptionByte(state));
+                    } else {
+                        setSolidLocal(x, y, z, false);
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Lee una sección mezclada entera celda a celda de su PalettedContainer (sin pasar por el Level). Ojo: getAll
+     * no sirve aquí, porque llama al consumidor una vez por estado distinto de la paleta, no una vez por celda.
+     * Las filas de 16 vóxeles se escriben como media palabra de ocupación y los contadores de la pirámide y las
+     * alturas se calculan por sección, no por vóxel.
+     */
+    private void readSection(PalettedContainer<BlockState> states, int x0, int y0, int z0) {
+        int rx = (x0 + originX) & mask, ry = (y0 + originY) & mask, rz = (z0 + originZ) & mask;
+        int[] rowBits = new int[16 * 16]; // Máscara de sólidos de cada fila, orden [y][z]
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                int row = 0;
+                for (int x = 0; x < 16; x++) {
+                    BlockState state = states.get(x, y, z);
+                    if (state.isAir()) continue;
+                    row |= 1 << x;
+                    absorption[((rz + z) * size + ry + y) * size + rx + x] = (byte) MaterialProperties.getAbsorptionByte(state);
+                }
+                rowBits[(y << 4) | z] = row;
+            }
+        }
+
+        int shift = rx & 31;
+        short[] bricks = new short[4 * 4 * 4]; // Contadores de los ladrillos de 4³ de la sección, orden [z][y][x]
+        int[] columnTops = new int[16 * 16];   // Altura local + 1 dentro de la sección, orden [z][x]
+        int total = 0;
+        for (int y = 0; y < 16; y++) {
+            for (int z = 0; z < 16; z++) {
+                int bits = rowBits[(y << 4) | z];
+                int index = wordIndex(rx, ry + y, rz + z);
+                occupancy[index] = (occupancy[index] & ~(0xFFFF << shift)) | (bits << shift);
+                if (bits == 0) continue;
+                total += Integer.bitCount(bits);
+                for (int bx = 0; bx < 4; bx++) {
+                    bricks[((z >> 2) * 4 + (y >> 2)) * 4 + bx] += Integer.bitCount((bits >> (bx * 4)) & 0xF);
+                }
+                for (int remaining = bits; remaining != 0; remaining &= remaining - 1) {
+                    columnTops[z * 16 + Integer.numberOfTrailingZeros(remaining)] = y + 1;
+                }
+            }
+        }
+
+        solidPerBrick16[brickIndex(rx >> 4, ry >> 4, rz >> 4, size / 16)] = (short) total;
+        for (int bz = 0; bz < 4; bz++) {
+            for (int by = 0; by < 4; by++) {
+                for (int bx = 0; bx < 4; bx++) {
+                    solidPerBrick4[brickIndex((rx >> 2) + bx, (ry >> 2) + by, (rz >> 2) + bz, size / 4)] = bricks[(bz * 4 + by) * 4 + bx];
+                }
+            }
+        }
+        for (int z = 0; z < 16; z++) {
+            for (int x = 0; x < 16; x++) {
+                if (columnTops[z * 16 + x] > 0) {
+                    raiseColumnTop(x0 + x, z0 + z, y0 + columnTops[z * 16 + x]);
+                }
+            }
+        }
+    }
+
+    /**
+     * Rellena la sección local de 16³ que empieza en (x0, y0, z0) (múltiplos de 16) con un único estado:
+     * medias palabras de ocupación, absorción por filas y contadores de la pirámide puestos directamente.
+     */
+    private void fillSection(int x0, int y0, int z0, boolean solid, int absorptionByte) {
+        int rx = (x0 + originX) & mask, ry = (y0 + originY) & mask, rz = (z0 + originZ) & mask;
+        int bits = 0xFFFF << (rx & 31); // rx es múltiplo de 16: la mitad baja o la alta de la palabra
+        for (int z = rz; z < rz + 16; z++) {
+            for (int y = ry; y < ry + 16; y++) {
+                int index = wordIndex(rx, y, z);
+                if (solid) {
+                    occupancy[index] |= bits;
+                    int row = (z * size + y) * size + rx;
+                    Arrays.fill(absorption, row, row + 16, (byte) absorptionByte);
+                } else {
+                    occupancy[index] &= ~bits;
+                }
+            }
+        }
+
+        solidPerBrick16[brickIndex(rx >> 4, ry >> 4, rz >> 4, size / 16)] = (short) (solid ? 16 * 16 * 16 : 0);
+        for (int bz = rz >> 2; bz < (rz >> 2) + 4; bz++) {
+            for (int by = ry >> 2; by < (ry >> 2) + 4; by++) {
+                for (int bx = rx >> 2; bx < (rx >> 2) + 4; bx++) {
+                    solidPerBrick4[brickIndex(bx, by, bz, size / 4)] = (short) (solid ? 4 * 4 * 4 : 0);
+                }
+            }
+        }
+        if (solid) {
+            for (int z = z0; z < z0 + 16; z++) {
+                for (int x = x0; x < x0 + 16; x++) {
+                    raiseColumnTop(x, z, y0 + 16);
+                }
+            }
+        }
+    }
+
+    private void clearBox(int x0, int y0, int z0, int x1, int y1, int z1) {
+        for (int z = z0; z < z1; z++) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    setSolidLocal(x, y, z, false);
+                }
+            }
+        }
+    }
+
+    /** Muestreo bloque a bloque con {@code level.getBlockState}; la referencia con la que se compara {@link #sampleBox}. */
+    private void sampleBoxPerBlock(Level level, int x0, int y0, int z0, int x1, int y1, int z1) {
+        BlockPos.MutableBlockPos pos = new BlockPos.MutableBlockPos();
+        for (int z = z0; z < z1; z++) {
+            for (int y = y0; y < y1; y++) {
+                for (int x = x0; x < x1; x++) {
+                    pos.set(originX + x, originY + y, originZ + z);
+                    BlockState state = level.getBlockState(pos);
+                    if (!state.isAir()) {
+                        setSolidLocal(x, y, z, MaterialProperties.getAbsorptionByte(state));
+                    } else {
+                        setSolidLocal(x, y, z, false);
+                    }
+                }
+            }
+        }
+    }
+
+    public int getOriginX() { return originX; }
+    public int getOriginY() { return originY; }
+    public int getOriginZ() { return originZ; }
+    public int getSize() { return size; }
+    public long getGeneration() { return generation; }
+
+    /**
+     * Palabras de ocupación en orden [z][y][x/32] del almacenamiento (coordenadas del mundo mod size);
+     * el bit (x % 32) de cada palabra es el vóxel x.
+     */
+    public int[] getOccupancyWords() { return occupancy; }
+
+    /** Absorción (0..255) de cada vóxel en orden [z][y][x] del almacenamiento, como la textura R8 del shader. */
+    public byte[] getAbsorptionBytes() { return absorption; }
+
+    /** Consulta en coordenadas del mundo. Fuera del volumen se considera aire, como en el shader. */
+    public boolean isSolid(int worldX, int worldY, int worldZ) {
+        return isSolidLocal(worldX - originX, worldY - originY, worldZ - originZ);
+    }
+
+    public boolean isSolidLocal(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size) {
+            return false;
+        }
+        int rx = (x + originX) & mask;
+        return (occupancy[wordIndex(rx, (y + originY) & mask, (z + originZ) & mask)] & (1 << (rx & 31))) != 0;
+    }
+
+    /** Absorción (0..1) del vóxel en coordenadas del mundo; 0 fuera del volumen. */
+    public float getAbsorption(int worldX, int worldY, int worldZ) {
+        return getAbsorptionByteLocal(worldX - originX, worldY - originY, worldZ - originZ) / 255.0f;
+    }
+
+    /** Byte de absorción sin signo (0..255) en coordenadas locales; 0 fuera del volumen. */
+    public int getAbsorptionByteLocal(int x, int y, int z) {
+        if (x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size) {
+            return 0;
+        }
+        return absorption[voxelIndex(x, y, z)] & 0xFF;
+    }
+
+    /** Marca el vóxel como sólido con la absorción dada (byte sin signo, 0..255). */
+    public void setSolidLocal(int x, int y, int z, int absorptionByte) {
+        setSolidLocal(x, y, z, true);
+        absorption[voxelIndex(x, y, z)] = (byte) absorptionByte;
+    }
+
+    public void setSolidLocal(int x, int y, int z, boolean solid) {
+        int rx = (x + originX) & mask, ry = (y + originY) & mask, rz = (z + originZ) & mask;
+        int index = wordIndex(rx, ry, rz);
+        int bit = 1 << (rx & 31);
+        if (((occupancy[index] & bit) != 0) == solid) return;
+        if (solid) {
+            occupancy[index] |= bit;
+        } else {
+            occupancy[index] &= ~bit;
+        }
+        // La pirámide se mantiene al día con cada cambio, así que nunca hay que reconstruirla
+        int delta = solid ? 1 : -1;
+        solidPerBrick4[brickIndex(rx >> 2, ry >> 2, rz >> 2, size / 4)] += delta;
+        solidPerBrick16[brickIndex(rx >> 4, ry >> 4, rz >> 4, size / 16)] += delta;
+        if (solid) {
+            raiseColumnTop(x, z, y + 1);
+        }
+    }
+
+    /** Eleva la altura de la columna (x, z) hasta {@code top} (local, recortada al volumen) si era menor. */
+    public void raiseColumnTop(int x, int z, int top) {
+        top = Math.min(size, top);
+        if (top <= 0) return;
+        short worldTop = (short) (originY + top);
+        int column = columnIndex(x, z);
+        if (worldTop > columnTop[column]) {
+            columnTop[column] = worldTop;
+        }
+        int tile = tileIndex(x, z);
+        if (worldTop > tileTop[tile]) {
+            tileTop[tile] = worldTop;
+        }
+    }
+
+    /** Altura local del vóxel sólido más alto de la columna + 1 (0 si no hay ninguno); cota superior. */
+    public int getColumnTop(int x, int z) {
+        return localTop(columnTop[columnIndex(x, z)]);
+    }
+
+    /**
+     * Máximo de {@link #getColumnTop} en la baldosa (tx, tz) de {@link #SKY_TILE}² columnas, con (tx, tz) en
+     * coordenadas del almacenamiento; lo sube WorldTextureCache a la GPU.
+     */
+    public int getTileTop(int tx, int tz) {
+        return localTop(tileTop[tz * (size / SKY_TILE) + tx]);
+    }
+
+    /** Altura del mundo guardada → altura local recortada a [0, size]. */
+    private int localTop(short worldTop) {
+        return Math.max(0, Math.min(size, worldTop - originY));
+    }
+
+    private int columnIndex(int x, int z) {
+        return ((z + originZ) & mask) * size + ((x + originX) & mask);
+    }
+
+    private int tileIndex(int x, int z) {
+        return (((z + originZ) & mask) / SKY_TILE) * (size / SKY_TILE) + ((x + originX) & mask) / SKY_TILE;
+    }
+
+    /**
+     * true si un rayo en (x, y, z) del mundo que sube con dirección (dx, dy, dz) ya está por encima de todas las
+     * columnas que puede sobrevolar antes de salir por el techo del volumen, así que no puede chocar con nada:
+     * su altura solo crece y fuera del volumen todo es aire. Nunca da true si queda algo que golpear.
+     */
+    public boolean hasOpenSky(double x, double y, double z, double dx, double dy, double dz) {
+        if (dy <= 0) return false;
+        double ly = y - originY;
+        if (ly >= size) return true;
+
+        // Rectángulo de columnas que recorre el rayo hasta llegar al techo
+        double t = (size - ly) / dy;
+        double lx = x - originX, lz = z - originZ;
+        int minX = (int) Math.floor(Math.min(lx, lx + dx * t)), maxX = (int) Math.floor(Math.max(lx, lx + dx * t));
+        int minZ = (int) Math.floor(Math.min(lz, lz + dz * t)), maxZ = (int) Math.floor(Math.max(lz, lz + dz * t));
+        if (maxX < 0 || maxZ < 0 || minX >= size || minZ >= size) return true;
+
+        int tx0 = Math.max(minX, 0) / SKY_TILE, tx1 = Math.min(maxX, size - 1) / SKY_TILE;
+        int tz0 = Math.max(minZ, 0) / SKY_TILE, tz1 = Math.min(maxZ, size - 1) / SKY_TILE;
+        for (int tz = tz0; tz <= tz1; tz++) {
+            for (int tx = tx0; tx <= tx1; tx++) {
+                if (localTop(tileTop[tileIndex(tx * SKY_TILE, tz * SKY_TILE)]) > ly) return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Lado en vóxeles del mayor ladrillo vacío de la pirámide que contiene la celda (16 o 4), o 0 si el ladrillo
+     * de 4³ tiene algún vóxel sólido. Fuera del volumen todo es aire, así que devuelve 16.
+     * Los ladrillos están alineados al origen de la rejilla (y, como es múltiplo de 16, también a los del anillo).
+     */
+    public int emptyBrickSize(int worldX, int worldY, int worldZ) {
+        int x = worldX - originX, y = worldY - originY, z = worldZ - originZ;
+        if (x < 0 || y < 0 || z < 0 || x >= size || y >= size || z >= size) {
+            return 16;
+        }
+        int rx = worldX & mask, ry = worldY & mask, rz = worldZ & mask;
+        if (solidPerBrick16[brickIndex(rx >> 4, ry >> 4, rz >> 4, size / 16)] == 0) return 16;
+        if (solidPerBrick4[brickIndex(rx >> 2, ry >> 2, rz >> 2, size / 4)] == 0) return 4;
+        return 0;
+    }
+
+    /**
+     * Vóxeles sólidos del ladrillo (bx, by, bz) de lado {@code brickSize} (4 o 16), en coordenadas del
+     * almacenamiento; lo usa la subida de la pirámide a la GPU.
+     */
+    public int getBrickSolidCount(int brickSize, int bx, int by, int bz) {
+        return brickSize == 16 ? solidPerBrick16[brickIndex(bx, by, bz, size / 16)]
+                               : solidPerBrick4[brickIndex(bx, by, bz, size / 4)];
+    }
+
+    private static int brickIndex(int bx, int by, int bz, int bricksPerAxis) {
+        return (bz * bricksPerAxis + by) * bricksPerAxis + bx;
+    }
+
+    /**
+     * Línea de visión entre dos puntos del mundo con un DDA por vóxeles (Amanatides-Woo): recorre en orden
+     * todas las celdas que atraviesa el segmento y devuelve false en la primera sólida. La celda de partida
+     * no se comprueba, porque los puntos de rebote están justo sobre la cara del bloque que los produjo.
+     * Fuera del volumen se considera aire, como en el trazado. No toca el Level, así que vale desde cualquier hilo.
+     */
+    public boolean isSegmentClear(double ax, double ay, double az, double bx, double by, double bz) {
+        double x0 = ax - originX, y0 = ay - originY, z0 = az - originZ;
+        double dx = bx - ax, dy = by - ay, dz = bz - az;
+
+        int x = (int) Math.floor(x0), y = (int) Math.floor(y0), z = (int) Math.floor(z0);
+        int endX = (int) Math.floor(bx - originX), endY = (int) Math.floor(by - originY), endZ = (int) Math.floor(bz - originZ);
+        int stepX = Integer.signum(endX - x), stepY = Integer.signum(endY - y), stepZ = Integer.signum(endZ - z);
+
+        double tDeltaX = stepX != 0 ? Math.abs(1.0 / dx) : Double.POSITIVE_INFINITY;
+        double tDeltaY = stepY != 0 ? Math.abs(1.0 / dy) : Double.POSITIVE_INFINITY;
+        double tDeltaZ = stepZ != 0 ? Math.abs(1.0 / dz) : Double.POSITIVE_INFINITY;
+        double tMaxX = stepX > 0 ? (x + 1 - x0) * tDeltaX : stepX < 0 ? (x0 - x) * tDeltaX : Double.POSITIVE_INFINITY;
+        double tMaxY = stepY > 0 ? (y + 1 - y0) * tDeltaY : stepY < 0 ? (y0 - y) * tDeltaY : Double.POSITIVE_INFINITY;
+        double tMaxZ = stepZ > 0 ? (z + 1 - z0) * tDeltaZ : stepZ < 0 ? (z0 - z) * tDeltaZ : Double.POSITIVE_INFINITY;
+
+        // Una celda por paso: el número de pasos es la distancia Manhattan entre la celda inicial y la final.
+        int steps = Math.abs(endX - x) + Math.abs(endY - y) + Math.abs(endZ - z);
+        for (int i = 0; i < steps; i++) {
+            if (tMaxX <= tMaxY && tMaxX <= tMaxZ) {
+                x += stepX;
+                tMaxX += tDeltaX;
+            } else if (tMaxY <= tMaxZ) {
+                y += stepY;
+                tMaxY += tDeltaY;
+            } else {
+                z += stepZ;
+                tMaxZ += tDeltaZ;
+            }
+            if (isSolidLocal(x, y, z)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Índice de palabra de la posición (x, y, z) del almacenamiento, no de coordenadas locales. */
+    private int wordIndex(int x, int y, int z) {
+        return (z * size + y) * wordsPerRow + (x >> 5);
+    }
+
+    /** Índice en {@link #absorption} del vóxel local (x, y, z). */
+    private int voxelIndex(int x, int y, int z) {
+        return (((z + originZ) & mask) * size + ((y + originY) & mask)) * size + ((x + originX) & mask);
+    }
+}
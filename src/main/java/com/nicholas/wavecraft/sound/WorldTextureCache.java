@@ -1,6 +1,7 @@
 package com.nicholas.wavecraft.sound;
 
 import com.mojang.blaze3d.systems.RenderSystem;
+import com.nicholas.wavecraft.config.WavecraftConfig;
 import net.minecraft.client.player.LocalPlayer;
 import net.minecraft.core.BlockPos;
 import net.minecraft.world.level.Level;
@@ -12,6 +13,12 @@ import org.lwjgl.opengl.GL33;
 import org.lwjgl.system.MemoryUtil;
 
 import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 public class WorldTextureCache {
 
@@ -23,18 +30,69 @@ public class WorldTextureCache {
 
     // --- Constantes y Campos de la Caché ---
     public static final int TEXTURE_DIMENSION = 128; // El tamaño de nuestro volumen: 128x128x128
+    public static final int SECTION_SIZE = 16;       // Granularidad de las actualizaciones parciales
+    private static final int SECTIONS = TEXTURE_DIMENSION / SECTION_SIZE;
 
+    // Textura de vóxeles. Por defecto RGBA8 con un texel por vóxel (r = sólido, g = absorción). Con la ocupación
+    // empaquetada (ver usesPackedOccupancy) es R32UI de (size / 32) x size x size texels, 32 vóxeles consecutivos en X
+    // por texel, exactamente las palabras de VoxelGrid.getOccupancyWords() (256 KB con 128³ frente a 8 MB).
     private int textureId = -1; // El ID de OpenGL para nuestra textura
-    private BlockPos textureOrigin = null; // La coordenada del mundo que corresponde al (0,0,0) de nuestra textura
+    // Solo con la ocupación empaquetada: absorción (0..255) por vóxel en una textura R8 aparte, leída en los impactos
+    private int absorptionTextureId = -1;
+    // Formato fijado en el primer uso: los programas de trazado se compilan para uno de los dos
+    private Boolean packedOccupancy = null;
+    // Pirámide de ocupación: un texel por ladrillo de 4³ y de 16³ (255 si contiene algún vóxel sólido)
+    private int brick4TextureId = -1;
+    private int brick16TextureId = -1;
+    // Altura máxima por baldosa de columnas (VoxelGrid.getTileTop), para el escape al cielo en el shader
+    private int skyTextureId = -1;
+    private BlockPos textureOrigin = null; // La coordenada del mundo que corresponde al (0,0,0) del volumen (múltiplo de 16)
+    private BlockPos pendingOrigin = null; // Origen al que desplazar el volumen en el próximo uso (ver followPlayer)
     private boolean isDirty = true; // Un flag para marcar si la textura necesita ser regenerada
 
+    // Copia en CPU del volumen (para los trazadores en CPU) y su generación.
+    // La textura se sube a partir de esta rejilla, así que ambas representan siempre el mismo mundo.
+    private VoxelGrid voxelGrid = null;
+    private long generation = 0;
+    private long textureGeneration = -1; // Generación de la rejilla que contiene la textura actual
+
+    // Secciones de 16³ con bloques cambiados desde la última rejilla, orden [z][y][x]. Se acumulan hasta el
+    // siguiente uso del volumen, así que todos los cambios de un tick se aplican juntos.
+    private final boolean[] dirtySections = new boolean[SECTIONS * SECTIONS * SECTIONS];
+    private int dirtySectionCount = 0;
+    // Cajas ya aplicadas a la rejilla pero no a la textura, en coordenadas de la textura ({x0, y0, z0, x1, y1, z1}).
+    // La textura es toroidal como la rejilla: el texel de un bloque es su coordenada del mundo mod TEXTURE_DIMENSION.
+    private final List<int[]> pendingTextureBoxes = new ArrayList<>();
+    private boolean textureNeedsFullUpload = true;
+
+    // Regeneración completa en segundo plano (ver tick): las secciones se copian en el hilo del cliente y la rejilla
+    // y los texels se construyen en un hilo de fondo. Mientras tanto sigue en servicio la rejilla anterior.
+    private CompletableFuture<Rebuild> rebuilding = null;
+    private BlockPos rebuildOrigin = null;
+    private long invalidations = 0; // Una regeneración lanzada antes de la última invalidación ya no vale
+    // Texels de la textura entera (ver packTexels / fillTextureData) preparados en segundo plano, a la espera de subirse en getTextureId
+    private ByteBuffer pendingTexels = null;
+    private long pendingTexelsGeneration = -1;
+
+    /** Resultado de una regeneración en segundo plano. */
+    private record Rebuild(VoxelGrid grid, ByteBuffer texels, long invalidation, double captureMillis, double buildMillis) {}
+
+    // Estadísticas para /wc rayStats
+    private long fullRegenerations = 0;
+    private long partialUpdates = 0;
+    private long shifts = 0;
+    private double lastShiftMillis = 0;
+    private long lastUploadBytes = 0;
+
     private WorldTextureCache() {} // Constructor privado para el Singleton
 
     /**
      * Marca la caché como "sucia". La próxima vez que se pida la textura, se regenerará.
-     * Esto será llamado por el CacheEventHandler cuando un bloque cambie o el jugador se mueva de chunk.
+     * Esto será llamado por el CacheEventHandler la primera vez que ve al jugador; los cambios de bloques y de
+     * sección van por {@link #markBlockDirty} y {@link #followPlayer}.
      */
-    public void invalidate() {
+    public synchronized void invalidate() {
+        this.invalidations++;
         // Para evitar spam en la consola, solo imprimimos si el estado realmente cambia.
         if (!this.isDirty) {
             this.isDirty = true;
@@ -42,6 +100,75 @@ public class WorldTextureCache {
         }
     }
 
+    /**
+     * El jugador ha entrado en otro nivel (mundo nuevo o cambio de dimensión): además de invalidar, retira la
+     * rejilla en servicio y descarta la regeneración en curso y los texels preparados, porque describen el nivel
+     * anterior y no deben seguir en servicio mientras se construye el nuevo volumen. El siguiente
+     * {@link #getVoxelGrid} lo construye en el acto, como la primera vez; hasta entonces {@link #getGridInService}
+     * devuelve null e {@link #isServingDuringRebuild} es false.
+     */
+    public synchronized void levelChanged() {
+        invalidate();
+        this.voxelGrid = null;
+        if (this.rebuilding != null) {
+            // No se puede interrumpir la construcción; sus texels se liberan cuando termine
+            this.rebuilding.thenAccept(result -> MemoryUtil.memFree(result.texels()));
+            this.rebuilding = null;
+        }
+        if (this.pendingTexels != null) {
+            MemoryUtil.memFree(this.pendingTexels);
+            this.pendingTexels = null;
+        }
+        this.pendingOrigin = null;
+        this.pendingTextureBoxes.clear();
+        Arrays.fill(this.dirtySections, false);
+        this.dirtySectionCount = 0;
+    }
+
+    /**
+     * Sigue al jugador cuando cambia de sección de 16³: si el volumen centrado en su sección ya no es el actual,
+     * en el próximo uso se desplaza el origen y solo se muestrean y suben las losas de 16 bloques que entran
+     * (ver {@link VoxelGrid#withShiftedOrigin}). Lo llama CacheEventHandler en lugar de invalidar.
+     */
+    public synchronized void followPlayer(LocalPlayer player) {
+        if (this.voxelGrid == null || (this.isDirty && this.rebuilding == null)) return; // Se va a regenerar centrado de todos modos
+        BlockPos origin = centeredOrigin(player.blockPosition());
+        this.pendingOrigin = origin.equals(currentOrigin()) ? null : origin;
+    }
+
+    /** Origen del volumen que estará en servicio: el de la regeneración en curso si la hay. */
+    private BlockPos currentOrigin() {
+        return this.rebuilding != null ? this.rebuildOrigin : this.textureOrigin;
+    }
+
+    /** Origen del volumen centrado (al múltiplo de 16 más cercano) en la sección que contiene {@code pos}. */
+    private static BlockPos centeredOrigin(BlockPos pos) {
+        int half = TEXTURE_DIMENSION / 2;
+        return new BlockPos((pos.getX() & -SECTION_SIZE) - half, (pos.getY() & -SECTION_SIZE) - half,
+                (pos.getZ() & -SECTION_SIZE) - half);
+    }
+
+    /**
+     * Marca como cambiado el bloque {@code pos}. Si cae dentro del volumen, su sección de 16³ se vuelve a
+     * muestrear en el próximo uso (ver {@link #getVoxelGrid}); si cae fuera, no afecta a nada.
+     * Puede llamarse desde el hilo del servidor integrado. Durante una regeneración en segundo plano las secciones
+     * se marcan respecto al volumen nuevo y se aplican en cuanto entra en servicio.
+     */
+    public synchronized void markBlockDirty(BlockPos pos) {
+        if (this.voxelGrid == null || (this.isDirty && this.rebuilding == null)) return; // Se va a regenerar entero de todos modos
+        BlockPos origin = currentOrigin();
+        int x = pos.getX() - origin.getX();
+        int y = pos.getY() - origin.getY();
+        int z = pos.getZ() - origin.getZ();
+        if (x < 0 || y < 0 || z < 0 || x >= TEXTURE_DIMENSION || y >= TEXTURE_DIMENSION || z >= TEXTURE_DIMENSION) return;
+
+        int index = ((z / SECTION_SIZE) * SECTIONS + y / SECTION_SIZE) * SECTIONS + x / SECTION_SIZE;
+        if (!this.dirtySections[index]) {
+            this.dirtySections[index] = true;
+            this.dirtySectionCount++;
+        }
+    }
+
     /**
      * El método principal que usará el RayShaderHandler.
      * Devuelve el ID de la textura 3D válida para la posición actual del jugador.
@@ -49,13 +176,141 @@ public class WorldTextureCache {
      * @param player El jugador actual, para centrar la textura.
      * @return El ID de la textura de OpenGL.
      */
-    public int getTextureId(LocalPlayer player) {
-        if (this.isDirty || this.textureId == -1) {
-            regenerateTexture(player);
+    public synchronized int getTextureId(LocalPlayer player) {
+        VoxelGrid grid = getVoxelGrid(player);
+        if (this.textureId == -1 || this.textureNeedsFullUpload) {
+            uploadTexture(grid);
+        }
+        // Tras subir unos texels preparados en segundo plano quedan las cajas cambiadas desde entonces
+        if (this.textureGeneration != grid.getGeneration()) {
+            uploadBoxes(grid);
         }
         return this.textureId;
     }
 
+    /**
+     * Devuelve la rejilla de ocupación en CPU. Si la caché está sucia lanza la regeneración en segundo plano y
+     * devuelve la rejilla anterior hasta que la nueva esté lista; solo la primera vez, sin nada que mantener en
+     * servicio, se construye aquí mismo. Si solo hay cambios de bloques o de sección, aplica las secciones
+     * cambiadas y el desplazamiento. No hace llamadas a OpenGL; la textura se actualiza de forma perezosa en
+     * {@link #getTextureId}. La rejilla devuelta no se modifica después (las actualizaciones parciales trabajan
+     * sobre una copia), así que puede leerse desde otros hilos.
+     */
+    public synchronized VoxelGrid getVoxelGrid(LocalPlayer player) {
+        if (this.voxelGrid == null) {
+            regenerateGrid(player);
+            return this.voxelGrid;
+        }
+        if (this.rebuilding != null && this.rebuilding.isDone()) {
+            installRebuild();
+        }
+        if (this.rebuilding != null) {
+            return this.voxelGrid; // La anterior sigue en servicio
+        }
+        if (this.isDirty) {
+            startRebuild(player);
+        } else {
+            // Primero los bloques cambiados, porque sus secciones son relativas al origen actual
+            if (this.dirtySectionCount > 0) {
+                applyDirtySections(player.level());
+            }
+            if (this.pendingOrigin != null) {
+                applyShift(player);
+            }
+        }
+        return this.voxelGrid;
+    }
+
+    /**
+     * La rejilla que está en servicio ahora mismo, tal cual: no aplica secciones cambiadas ni desplazamientos, no
+     * pone en servicio regeneraciones terminadas ni lanza ninguna (eso queda para {@link #getVoxelGrid} y
+     * {@link #tick}). Para las consultas que se hacen en cada tick. null si todavía no hay ninguna.
+     */
+    public synchronized VoxelGrid getGridInService() {
+        return this.voxelGrid;
+    }
+
+    /**
+     * Se llama en cada tick del cliente: lanza la regeneración en cuanto la caché se invalida, sin esperar a que
+     * el próximo sonido pida el volumen, y pone en servicio la nueva rejilla cuando está lista.
+     */
+    public synchronized void tick(LocalPlayer player) {
+        if (this.voxelGrid == null) return; // La primera rejilla se construye en el primer uso
+        if (this.rebuilding != null && this.rebuilding.isDone()) {
+            installRebuild();
+        }
+        if (this.rebuilding == null && this.isDirty) {
+            startRebuild(player);
+        }
+    }
+
+    /**
+     * true si la textura de vóxeles usa la ocupación empaquetada R32UI con la absorción aparte
+     * ({@link WavecraftConfig#PACKED_OCCUPANCY_TEXTURE}). Se lee una sola vez: RayShaderHandler compila los shaders
+     * con el mismo valor, así que cambiar la opción requiere reiniciar.
+     */
+    public synchronized boolean usesPackedOccupancy() {
+        if (this.packedOccupancy == null) {
+            this.packedOccupancy = WavecraftConfig.PACKED_OCCUPANCY_TEXTURE.get();
+        }
+        return this.packedOccupancy;
+    }
+
+    /**
+     * Textura R8 con la absorción de cada vóxel, en el mismo orden que la de ocupación; válida tras {@link #getTextureId}
+     * y solo con la ocupación empaquetada (-1 si no).
+     */
+    public int getAbsorptionTextureId() {
+        return this.absorptionTextureId;
+    }
+
+    /** Textura de la pirámide con un texel por ladrillo de 4³; válida tras {@link #getTextureId}. */
+    public int getBrick4TextureId() {
+        return this.brick4TextureId;
+    }
+
+    /** Textura de la pirámide con un texel por ladrillo de 16³; válida tras {@link #getTextureId}. */
+    public int getBrick16TextureId() {
+        return this.brick16TextureId;
+    }
+
+    /** Textura (de una sola capa) con la altura máxima de cada baldosa de {@link VoxelGrid#SKY_TILE}² columnas; válida tras {@link #getTextureId}. */
+    public int getSkyTextureId() {
+        return this.skyTextureId;
+    }
+
+    /** Generación del volumen actual; aumenta cada vez que se vuelve a muestrear el mundo. */
+    public long getGeneration() {
+        return this.generation;
+    }
+
+    /** Generación de la rejilla que contiene ahora la textura; la que recorre un trazado en GPU lanzado tras {@link #getTextureId}. */
+    public synchronized long getTextureGeneration() {
+        return this.textureGeneration;
+    }
+
+    /** true si la rejilla de esa generación sigue describiendo el mundo (no se ha regenerado ni invalidado desde entonces). */
+    public synchronized boolean isCurrent(long generation) {
+        return !this.isDirty && this.dirtySectionCount == 0 && this.pendingOrigin == null
+                && this.voxelGrid != null && generation == this.generation;
+    }
+
+    /**
+     * true si hay una regeneración en marcha y la rejilla de esa generación es la que sigue en servicio mientras
+     * tanto. {@link #isCurrent} es false durante toda la regeneración, pero volver a trazar solo repetiría lo mismo
+     * sobre la rejilla antigua: lo nuevo llega al ponerla en servicio, que sube la generación.
+     */
+    public synchronized boolean isServingDuringRebuild(long generation) {
+        return this.rebuilding != null && this.voxelGrid != null && this.voxelGrid.getGeneration() == generation;
+    }
+
+    public synchronized long getFullRegenerations() { return this.fullRegenerations; }
+    public synchronized long getPartialUpdates() { return this.partialUpdates; }
+    public synchronized long getShifts() { return this.shifts; }
+    public synchronized double getLastShiftMillis() { return this.lastShiftMillis; }
+    /** Bytes de la textura de vóxeles subidos en la última actualización (completa o por cajas). */
+    public synchronized long getLastUploadBytes() { return this.lastUploadBytes; }
+
     /**
      * Devuelve el origen en el mundo de la textura actual para usarlo como 'worldOffset' en el shader.
      */
@@ -64,63 +319,454 @@ public class WorldTextureCache {
     }
 
     /**
-     * El trabajo pesado: borra la textura antigua (si existe) y crea una nueva.
+     * Muestrea el mundo alrededor del jugador en una rejilla nueva en este mismo hilo. Solo para la primera
+     * rejilla, cuando no hay otra que mantener en servicio; el resto van por {@link #startRebuild}.
      * @param player El jugador actual, usado para obtener el nivel y la posición.
      */
-    private void regenerateTexture(LocalPlayer player) {
-        // Como este método se llama desde el hilo de render, podemos ejecutar comandos de OpenGL directamente.
-        this.textureOrigin = player.blockPosition().offset(-TEXTURE_DIMENSION / 2, -TEXTURE_DIMENSION / 2, -TEXTURE_DIMENSION / 2);
-        System.out.println("[Wavecraft Cache] Regenerando textura en origen: " + this.textureOrigin);
+    private void regenerateGrid(LocalPlayer player) {
+        this.textureOrigin = centeredOrigin(player.blockPosition());
+        this.pendingOrigin = null;
+        System.out.println("[Wavecraft Cache] Regenerando volumen en origen: " + this.textureOrigin);
+
+        this.generation++;
+        VolumeSnapshot snapshot = VolumeSnapshot.capture(player.level(), this.textureOrigin, TEXTURE_DIMENSION);
+        this.voxelGrid = VoxelGrid.fromSnapshot(snapshot, this.generation);
+
+        // Marcar como "limpia" SÓLO después de que la rejilla está completa
+        this.isDirty = false;
+        Arrays.fill(this.dirtySections, false);
+        this.dirtySectionCount = 0;
+        this.textureNeedsFullUpload = true;
+        this.fullRegenerations++;
+    }
+
+    /**
+     * Copia las secciones del volumen centrado en el jugador (rápido, en el hilo del cliente) y lanza en un hilo de
+     * fondo la construcción de la rejilla y de los texels de las texturas enteras en un ByteBuffer directo.
+     */
+    private void startRebuild(LocalPlayer player) {
+        BlockPos origin = centeredOrigin(player.blockPosition());
+        long start = System.nanoTime();
+        VolumeSnapshot snapshot = VolumeSnapshot.capture(player.level(), origin, TEXTURE_DIMENSION);
+        double captureMillis = (System.nanoTime() - start) / 1e6;
+
+        long generation = ++this.generation;
+        long invalidation = this.invalidations;
+        boolean packed = usesPackedOccupancy();
+        this.rebuildOrigin = origin;
+        this.pendingOrigin = null;
+        // Lo que estaba pendiente respecto al volumen anterior ya está en la copia
+        Arrays.fill(this.dirtySections, false);
+        this.dirtySectionCount = 0;
+        System.out.println("[Wavecraft Cache] Regenerando volumen en origen: " + origin + " en segundo plano");
+
+        this.rebuilding = CompletableFuture.supplyAsync(() -> {
+            long buildStart = System.nanoTime();
+            VoxelGrid grid = VoxelGrid.fromSnapshot(snapshot, generation);
+            ByteBuffer texels = packed ? packTexels(grid) : rgbaTexels(grid);
+            return new Rebuild(grid, texels, invalidation, captureMillis, (System.nanoTime() - buildStart) / 1e6);
+        });
+    }
+
+    /**
+     * Pone en servicio la rejilla de la regeneración terminada y deja sus texels para la próxima subida.
+     * Si hubo otra invalidación mientras tanto la descarta; la caché sigue sucia y se vuelve a lanzar.
+     */
+    private void installRebuild() {
+        Rebuild result;
+        try {
+            result = this.rebuilding.join();
+        } catch (CompletionException | CancellationException e) {
+            System.err.println("[Wavecraft Cache] Falló la regeneración en segundo plano: " + e.getCause());
+            this.rebuilding = null;
+            return;
+        }
+        this.rebuilding = null;
+        if (result.invalidation() != this.invalidations) {
+            MemoryUtil.memFree(result.texels());
+            return;
+        }
 
-        // 1. Borra la textura antigua si existe
-        if (this.textureId != -1) {
-            GL33.glDeleteTextures(this.textureId);
-            this.textureId = -1; // Marcar ID como inválida
+        this.voxelGrid = result.grid();
+        this.textureOrigin = this.rebuildOrigin;
+        this.isDirty = false;
+        if (this.pendingTexels != null) {
+            MemoryUtil.memFree(this.pendingTexels);
         }
+        this.pendingTexels = result.texels();
+        this.pendingTexelsGeneration = result.grid().getGeneration();
+        this.textureNeedsFullUpload = true;
+        this.pendingTextureBoxes.clear();
+        this.fullRegenerations++;
+        System.out.println(String.format("[Wavecraft Cache] Volumen regenerado: copia de secciones %.2f ms en el hilo del cliente, construcción %.2f ms en segundo plano.",
+                result.captureMillis(), result.buildMillis()));
+    }
 
-        // 2. Genera los datos de la textura en la CPU
-        byte[] rgbaData = generateTextureData(player.level(), this.textureOrigin, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION);
-        ByteBuffer buffer = null;
+    /**
+     * Vuelve a muestrear solo las secciones cambiadas, fundidas en el menor número de cajas que encuentra
+     * el recorrido voraz, sobre una copia de la rejilla con una generación nueva.
+     */
+    private void applyDirtySections(Level level) {
+        int sections = this.dirtySectionCount;
+        List<int[]> boxes = coalesceDirtySections();
+        long start = System.nanoTime();
+
+        this.generation++;
+        this.voxelGrid = this.voxelGrid.withResampledBoxes(level, boxes, this.generation);
+        queueTextureBoxes(boxes);
+        this.partialUpdates++;
+        System.out.println(String.format("[Wavecraft Cache] Actualizadas %d regiones (%d secciones de 16³) en %.2f ms.",
+                boxes.size(), sections, (System.nanoTime() - start) / 1e6));
+    }
+
+    /**
+     * Desplaza el volumen a {@link #pendingOrigin}. Los vóxeles que siguen dentro se quedan donde están en el anillo
+     * y solo se muestrean las losas que entran; si el salto es mayor que el volumen (teletransporte, cambio de
+     * dimensión) no queda nada que conservar y se regenera entero en segundo plano.
+     */
+    private void applyShift(LocalPlayer player) {
+        BlockPos origin = this.pendingOrigin;
+        this.pendingOrigin = null;
+        int dx = origin.getX() - this.textureOrigin.getX();
+        int dy = origin.getY() - this.textureOrigin.getY();
+        int dz = origin.getZ() - this.textureOrigin.getZ();
+        if (Math.abs(dx) >= TEXTURE_DIMENSION || Math.abs(dy) >= TEXTURE_DIMENSION || Math.abs(dz) >= TEXTURE_DIMENSION) {
+            invalidate();
+            startRebuild(player);
+            return;
+        }
+
+        long start = System.nanoTime();
+        List<int[]> boxes = VoxelGrid.enteringBoxes(dx, dy, dz, TEXTURE_DIMENSION);
+        this.generation++;
+        this.voxelGrid = this.voxelGrid.withShiftedOrigin(player.level(), origin.getX(), origin.getY(), origin.getZ(),
+                boxes, this.generation);
+        this.textureOrigin = origin;
+        queueTextureBoxes(boxes);
+        this.shifts++;
+        this.lastShiftMillis = (System.nanoTime() - start) / 1e6;
+
+        long voxels = 0;
+        for (int[] box : boxes) {
+            voxels += (long) (box[3] - box[0]) * (box[4] - box[1]) * (box[5] - box[2]);
+        }
+        System.out.println(String.format("[Wavecraft Cache] Volumen desplazado (%d, %d, %d) hasta %s: %d vóxeles nuevos en %.2f ms.",
+                dx, dy, dz, origin, voxels, this.lastShiftMillis));
+    }
+
+    /**
+     * Pasa cajas locales de la rejilla actual a coordenadas de la textura y las deja pendientes de subir.
+     * Una caja que cruza el borde del anillo se parte en hasta dos trozos por eje.
+     */
+    private void queueTextureBoxes(List<int[]> boxes) {
+        int mask = TEXTURE_DIMENSION - 1;
+        int[] origin = { this.textureOrigin.getX(), this.textureOrigin.getY(), this.textureOrigin.getZ() };
+        for (int[] box : boxes) {
+            int[][] ranges = new int[3][];
+            for (int axis = 0; axis < 3; axis++) {
+                int start = (box[axis] + origin[axis]) & mask;
+                int end = start + box[axis + 3] - box[axis];
+                ranges[axis] = end <= TEXTURE_DIMENSION ? new int[] { start, end }
+                                                        : new int[] { start, TEXTURE_DIMENSION, 0, end - TEXTURE_DIMENSION };
+            }
+            for (int k = 0; k < ranges[2].length; k += 2) {
+                for (int j = 0; j < ranges[1].length; j += 2) {
+                    for (int i = 0; i < ranges[0].length; i += 2) {
+                        this.pendingTextureBoxes.add(new int[] { ranges[0][i], ranges[1][j], ranges[2][k],
+                                ranges[0][i + 1], ranges[1][j + 1], ranges[2][k + 1] });
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Agrupa las secciones sucias en cajas: crece a lo largo de X, luego en Y mientras toda la fila esté sucia
+     * y luego en Z mientras todo el rectángulo lo esté. Deja las secciones limpias.
+     * @return Cajas en coordenadas locales de vóxel, extremo superior exclusivo.
+     */
+    private List<int[]> coalesceDirtySections() {
+        List<int[]> boxes = new ArrayList<>();
+        for (int z = 0; z < SECTIONS; z++) {
+            for (int y = 0; y < SECTIONS; y++) {
+                for (int x = 0; x < SECTIONS; x++) {
+                    if (!this.dirtySections[sectionIndex(x, y, z)]) continue;
+                    int w = 1;
+                    while (x + w < SECTIONS && this.dirtySections[sectionIndex(x + w, y, z)]) w++;
+                    int h = 1;
+                    while (y + h < SECTIONS && isDirtyRun(x, w, y + h, z)) h++;
+                    int d = 1;
+                    growZ:
+                    while (z + d < SECTIONS) {
+                        for (int j = 0; j < h; j++) {
+                            if (!isDirtyRun(x, w, y + j, z + d)) break growZ;
+                        }
+                        d++;
+                    }
+                    for (int k = 0; k < d; k++) {
+                        for (int j = 0; j < h; j++) {
+                            for (int i = 0; i < w; i++) {
+                                this.dirtySections[sectionIndex(x + i, y + j, z + k)] = false;
+                            }
+                        }
+                    }
+                    boxes.add(new int[] { x * SECTION_SIZE, y * SECTION_SIZE, z * SECTION_SIZE,
+                            (x + w) * SECTION_SIZE, (y + h) * SECTION_SIZE, (z + d) * SECTION_SIZE });
+                }
+            }
+        }
+        this.dirtySectionCount = 0;
+        return boxes;
+    }
+
+    private boolean isDirtyRun(int x, int w, int y, int z) {
+        for (int i = 0; i < w; i++) {
+            if (!this.dirtySections[sectionIndex(x + i, y, z)]) return false;
+        }
+        return true;
+    }
+
+    private static int sectionIndex(int x, int y, int z) {
+        return (z * SECTIONS + y) * SECTIONS + x;
+    }
+
+    /**
+     * Sube la textura de vóxeles (y la de absorción, con la ocupación empaquetada) entera de una vez: los texels
+     * preparados en segundo plano por la última regeneración si los hay, o los de la rejilla si no. La primera vez
+     * crea las texturas; después las reutiliza con glTexSubImage3D.
+     * Como este método se llama desde el hilo de render, podemos ejecutar comandos de OpenGL directamente.
+     */
+    private void uploadTexture(VoxelGrid grid) {
+        // 1. Los datos de las texturas en la CPU: ya preparados o generados ahora
+        boolean packed = usesPackedOccupancy();
+        ByteBuffer buffer = this.pendingTexels;
+        boolean prepared = buffer != null;
+        this.pendingTexels = null;
+        if (!prepared) {
+            buffer = packed ? packTexels(grid) : rgbaTexels(grid);
+        }
+        this.lastUploadBytes = buffer.remaining();
+
+        try {
+            GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+            if (packed) {
+                uploadPackedTextures(buffer);
+            } else if (this.textureId == -1) {
+                // 2. Genera, configura y sube la nueva textura en un bloque síncrono
+                this.textureId = createVolumeTexture();
+                GL12.glTexImage3D(GL12.GL_TEXTURE_3D, 0, GL11.GL_RGBA8, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION, 0,
+                        GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+            } else {
+                // 2. Misma textura, mismo tamaño: se reemplaza el contenido sin volver a reservarla
+                GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.textureId);
+                GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, 0, 0, 0, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION,
+                        GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+            }
+
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, 0); // Desvincular para buena práctica
+            System.out.println("[Wavecraft Cache] Textura con ID " + textureId + " regenerada y subida correctamente.");
+
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+
+        // 3. La pirámide de ocupación, a partir de los contadores que mantiene la rejilla
+        this.brick4TextureId = uploadBrickTexture(grid, 4, this.brick4TextureId);
+        this.brick16TextureId = uploadBrickTexture(grid, 16, this.brick16TextureId);
+        this.skyTextureId = uploadSkyTexture(grid, this.skyTextureId);
+
+        // 4. La textura corresponde ahora a esta generación de la rejilla. Si los texels venían preparados, las
+        // cajas aplicadas a la rejilla desde entonces siguen pendientes y las sube uploadBoxes.
+        this.textureGeneration = prepared ? this.pendingTexelsGeneration : grid.getGeneration();
+        this.textureNeedsFullUpload = false;
+        if (!prepared) {
+            this.pendingTextureBoxes.clear();
+        }
+    }
+
+    /**
+     * Sube las texturas de ocupación R32UI y absorción R8 enteras desde un buffer de {@link #packTexels}, creándolas
+     * la primera vez. Las texturas enteras no admiten filtrado, y la de absorción tampoco lo necesita.
+     */
+    private void uploadPackedTextures(ByteBuffer buffer) {
+        int words = TEXTURE_DIMENSION / 32;
+        int occupancyBytes = words * TEXTURE_DIMENSION * TEXTURE_DIMENSION * 4;
+        ByteBuffer occupancy = MemoryUtil.memSlice(buffer, 0, occupancyBytes);
+        ByteBuffer absorption = MemoryUtil.memSlice(buffer, occupancyBytes, buffer.remaining() - occupancyBytes);
+        if (this.textureId == -1) {
+            this.textureId = createVolumeTexture();
+            GL12.glTexImage3D(GL12.GL_TEXTURE_3D, 0, GL30.GL_R32UI, words, TEXTURE_DIMENSION, TEXTURE_DIMENSION, 0,
+                    GL30.GL_RED_INTEGER, GL11.GL_UNSIGNED_INT, occupancy);
+            this.absorptionTextureId = createVolumeTexture();
+            GL12.glTexImage3D(GL12.GL_TEXTURE_3D, 0, GL30.GL_R8, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION, 0,
+                    GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, absorption);
+        } else {
+            // Mismas texturas, mismo tamaño: se reemplaza el contenido sin volver a reservarlas
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.textureId);
+            GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, 0, 0, 0, words, TEXTURE_DIMENSION, TEXTURE_DIMENSION,
+                    GL30.GL_RED_INTEGER, GL11.GL_UNSIGNED_INT, occupancy);
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.absorptionTextureId);
+            GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, 0, 0, 0, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION,
+                    GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, absorption);
+        }
+    }
+
+    /** Crea una textura 3D sin filtrado ni repetición y la deja enlazada. */
+    private static int createVolumeTexture() {
+        int id = GL33.glGenTextures();
+        GL33.glBindTexture(GL33.GL_TEXTURE_3D, id);
+        GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+        GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+        GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_R, GL12.GL_CLAMP_TO_EDGE);
+        GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+        GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+        return id;
+    }
+
+    /**
+     * Sube con glTexSubImage3D solo las cajas cambiadas desde la última subida, sobre las texturas existentes.
+     * La pirámide y las alturas son unos pocos KB y se vuelven a subir enteras (reutilizando sus texturas).
+     */
+    private void uploadBoxes(VoxelGrid grid) {
+        GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+        boolean packed = usesPackedOccupancy();
+        long bytes = 0;
+        for (int[] box : this.pendingTextureBoxes) {
+            bytes += packed ? uploadPackedBox(grid, box) : uploadRgbaBox(grid, box);
+        }
+        GL33.glBindTexture(GL33.GL_TEXTURE_3D, 0);
+        this.lastUploadBytes = bytes;
+
+        this.brick4TextureId = uploadBrickTexture(grid, 4, this.brick4TextureId);
+        this.brick16TextureId = uploadBrickTexture(grid, 16, this.brick16TextureId);
+        this.skyTextureId = uploadSkyTexture(grid, this.skyTextureId);
+
+        this.textureGeneration = grid.getGeneration();
+        this.pendingTextureBoxes.clear();
+    }
+
+    /** Sube una caja de texels RGBA (ver {@link #fillTextureData}); devuelve los bytes subidos. */
+    private long uploadRgbaBox(VoxelGrid grid, int[] box) {
+        ByteBuffer buffer = MemoryUtil.memAlloc((box[3] - box[0]) * (box[4] - box[1]) * (box[5] - box[2]) * 4);
+        try {
+            fillTextureData(grid, box[0], box[1], box[2], box[3], box[4], box[5], buffer);
+            buffer.flip();
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.textureId);
+            GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, box[0], box[1], box[2],
+                    box[3] - box[0], box[4] - box[1], box[5] - box[2],
+                    GL11.GL_RGBA, GL11.GL_UNSIGNED_BYTE, buffer);
+            return buffer.remaining();
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
+
+    /**
+     * Sube una caja a las texturas empaquetadas: en la de ocupación, las palabras enteras que toca la caja (las cajas
+     * van de 16 en 16 en X), y la subcaja correspondiente de la de absorción. Devuelve los bytes subidos.
+     */
+    private long uploadPackedBox(VoxelGrid grid, int[] box) {
+        int size = grid.getSize();
+        int wordsPerRow = size / 32;
+        int[] words = grid.getOccupancyWords();
+        byte[] absorption = grid.getAbsorptionBytes();
+        int w0 = box[0] >> 5, w1 = (box[3] + 31) >> 5;
+        int width = box[3] - box[0], height = box[4] - box[1], depth = box[5] - box[2];
+        ByteBuffer buffer = MemoryUtil.memAlloc(((w1 - w0) * 4 + width) * height * depth);
         try {
-            buffer = MemoryUtil.memAlloc(rgbaData.length);
-            buffer.put(rgbaData).flip();
+            for (int z = box[2]; z < box[5]; z++) {
+                for (int y = box[1]; y < box[4]; y++) {
+                    int row = z * size + y;
+                    for (int w = w0; w < w1; w++) {
+                        buffer.putInt(words[row * wordsPerRow + w]);
+                    }
+                }
+            }
+            int occupancyBytes = buffer.position();
+            for (int z = box[2]; z < box[5]; z++) {
+                for (int y = box[1]; y < box[4]; y++) {
+                    buffer.put(absorption, (z * size + y) * size + box[0], width);
+                }
+            }
+            buffer.flip();
+
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.textureId);
+            GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, w0, box[1], box[2], w1 - w0, height, depth,
+                    GL30.GL_RED_INTEGER, GL11.GL_UNSIGNED_INT, MemoryUtil.memSlice(buffer, 0, occupancyBytes));
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, this.absorptionTextureId);
+            GL12.glTexSubImage3D(GL12.GL_TEXTURE_3D, 0, box[0], box[1], box[2], width, height, depth,
+                    GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, MemoryUtil.memSlice(buffer, occupancyBytes, buffer.remaining() - occupancyBytes));
+            return buffer.remaining();
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
 
-            // 3. Genera, configura y sube la nueva textura en un bloque síncrono
-            textureId = GL33.glGenTextures();
-            GL33.glBindTexture(GL33.GL_TEXTURE_3D, textureId);
+    /**
+     * Sube un nivel de la pirámide de ocupación como textura R8 de (size / brickSize)³ texels, en el orden del
+     * anillo como la textura de vóxeles: 255 si el ladrillo tiene algún vóxel sólido, 0 si está vacío. Reutiliza la textura anterior si la hay.
+     */
+    private static int uploadBrickTexture(VoxelGrid grid, int brickSize, int previousId) {
+        int bricks = grid.getSize() / brickSize;
+        ByteBuffer buffer = MemoryUtil.memAlloc(bricks * bricks * bricks);
+        try {
+            for (int bz = 0; bz < bricks; bz++) {
+                for (int by = 0; by < bricks; by++) {
+                    for (int bx = 0; bx < bricks; bx++) {
+                        buffer.put((byte) (grid.getBrickSolidCount(brickSize, bx, by, bz) > 0 ? 255 : 0));
+                    }
+                }
+            }
+            buffer.flip();
 
-            // Configurar parámetros para evitar wrapping y usar el filtrado más simple (más rápido)
+            int id = previousId != -1 ? previousId : GL33.glGenTextures();
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, id);
             GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
             GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
             GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_R, GL12.GL_CLAMP_TO_EDGE);
             GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
             GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
-
             GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+            GL12.glTexImage3D(GL12.GL_TEXTURE_3D, 0, GL30.GL_R8, bricks, bricks, bricks, 0,
+                    GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, buffer);
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, 0);
+            return id;
+        } finally {
+            MemoryUtil.memFree(buffer);
+        }
+    }
 
-            // Usar glTexImage3D para asignar memoria y subir los datos a la vez
-            GL12.glTexImage3D(
-                    GL12.GL_TEXTURE_3D,
-                    0,
-                    GL11.GL_RGBA8,          // Formato interno en la GPU
-                    TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION,
-                    0,
-                    GL11.GL_RGBA,           // Formato del buffer que estamos subiendo (corregido)
-                    GL11.GL_UNSIGNED_BYTE,  // Tipo de datos en el buffer
-                    buffer
-            );
-
-            GL33.glBindTexture(GL33.GL_TEXTURE_3D, 0); // Desvincular para buena práctica
-            System.out.println("[Wavecraft Cache] Textura con ID " + textureId + " regenerada y subida correctamente.");
+    /**
+     * Sube las alturas máximas por baldosa de columnas como una textura 3D R8 de (size / SKY_TILE)² x 1 texels,
+     * en el orden del anillo; el valor es la altura local (0..size, cabe en un byte con size = 128). Es 3D y no 2D para no tocar las
+     * unidades de textura 2D cuyo estado sigue RenderSystem. Reutiliza la textura anterior si la hay.
+     */
+    private static int uploadSkyTexture(VoxelGrid grid, int previousId) {
+        int tiles = grid.getSize() / VoxelGrid.SKY_TILE;
+        ByteBuffer buffer = MemoryUtil.memAlloc(tiles * tiles);
+        try {
+            for (int tz = 0; tz < tiles; tz++) {
+                for (int tx = 0; tx < tiles; tx++) {
+                    buffer.put((byte) Math.min(255, grid.getTileTop(tx, tz)));
+                }
+            }
+            buffer.flip();
 
+            int id = previousId != -1 ? previousId : GL33.glGenTextures();
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, id);
+            GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_S, GL12.GL_CLAMP_TO_EDGE);
+            GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_T, GL12.GL_CLAMP_TO_EDGE);
+            GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_WRAP_R, GL12.GL_CLAMP_TO_EDGE);
+            GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MIN_FILTER, GL11.GL_NEAREST);
+            GL33.glTexParameteri(GL33.GL_TEXTURE_3D, GL33.GL_TEXTURE_MAG_FILTER, GL11.GL_NEAREST);
+            GL11.glPixelStorei(GL11.GL_UNPACK_ALIGNMENT, 1);
+            GL12.glTexImage3D(GL12.GL_TEXTURE_3D, 0, GL30.GL_R8, tiles, tiles, 1, 0,
+                    GL11.GL_RED, GL11.GL_UNSIGNED_BYTE, buffer);
+            GL33.glBindTexture(GL33.GL_TEXTURE_3D, 0);
+            return id;
         } finally {
-            if (buffer != null) {
-                MemoryUtil.memFree(buffer);
-            }
+            MemoryUtil.memFree(buffer);
         }
-
-        // 4. Marcar como "limpia" SÓLO después de que la subida se ha completado
-        this.isDirty = false;
     }
 
     /**
@@ -207,32 +853,58 @@ public class WorldTextureCache {
         return texID;
     }
 
-    private static byte[] generateTextureData(Level level, BlockPos origin, int sizeX, int sizeY, int sizeZ) {
-        byte[] data = new byte[sizeX * sizeY * sizeZ * 4]; // RGBA
-        int i = 0;
-
-        for (int z = 0; z < sizeZ; z++) {
-            for (int y = 0; y < sizeY; y++) {
-                for (int x = 0; x < sizeX; x++) {
-                    BlockPos pos = origin.offset(x, y, z);
-                    BlockState state = level.getBlockState(pos);
+    /** Texels RGBA de la textura entera en un ByteBuffer directo (ver {@link #fillTextureData}). */
+    private static ByteBuffer rgbaTexels(VoxelGrid grid) {
+        ByteBuffer buffer = MemoryUtil.memAlloc(TEXTURE_DIMENSION * TEXTURE_DIMENSION * TEXTURE_DIMENSION * 4);
+        fillTextureData(grid, 0, 0, 0, TEXTURE_DIMENSION, TEXTURE_DIMENSION, TEXTURE_DIMENSION, buffer);
+        buffer.flip();
+        return buffer;
+    }
 
+    /**
+     * Escribe en {@code out} los texels RGBA de la caja [x0, x1) × [y0, y1) × [z0, z1) en coordenadas de la textura,
+     * en el orden que espera glTexSubImage3D. Cada texel (tx, ty, tz) es el vóxel local (tx - origen) mod size de la
+     * rejilla. Solo lee la rejilla, así que vale desde un hilo de fondo.
+     */
+    private static void fillTextureData(VoxelGrid grid, int x0, int y0, int z0, int x1, int y1, int z1, ByteBuffer out) {
+        int mask = grid.getSize() - 1;
+
+        for (int tz = z0; tz < z1; tz++) {
+            int z = (tz - grid.getOriginZ()) & mask;
+            for (int ty = y0; ty < y1; ty++) {
+                int y = (ty - grid.getOriginY()) & mask;
+                for (int tx = x0; tx < x1; tx++) {
+                    int x = (tx - grid.getOriginX()) & mask;
                     // Ejemplo: gris claro para aire, blanco para bloques sólidos
-                    if (state.isAir()) {
-                        data[i++] = (byte) 64;  // R
-                        data[i++] = (byte) 64;  // G
-                        data[i++] = (byte) 64;  // B
-                        data[i++] = (byte) 64;  // A
+                    if (!grid.isSolidLocal(x, y, z)) {
+                        out.put((byte) 64);  // R
+                        out.put((byte) 64);  // G
+                        out.put((byte) 64);  // B
+                        out.put((byte) 64);  // A
                     } else {
-                        data[i++] = (byte) 255;
-                        data[i++] = (byte) 255;
-                        data[i++] = (byte) 255;
-                        data[i++] = (byte) 255;
+                        out.put((byte) 255);
+                        out.put((byte) grid.getAbsorptionByteLocal(x, y, z)); // G: absorción (0..255)
+                        out.put((byte) 255);
+                        out.put((byte) 255);
                     }
                 }
             }
         }
+    }
 
-        return data;
+    /**
+     * Empaqueta las dos texturas enteras en un ByteBuffer directo: primero las palabras de ocupación tal cual las
+     * guarda la rejilla (texels R32UI, orden nativo) y después un byte de absorción por vóxel. Ambas van en el orden
+     * del almacenamiento toroidal. Solo lee la rejilla, así que vale desde un hilo de fondo.
+     */
+    private static ByteBuffer packTexels(VoxelGrid grid) {
+        int[] words = grid.getOccupancyWords();
+        byte[] absorption = grid.getAbsorptionBytes();
+        ByteBuffer buffer = MemoryUtil.memAlloc(words.length * 4 + absorption.length); // Orden nativo
+        buffer.asIntBuffer().put(words);
+        buffer.position(words.length * 4);
+        buffer.put(absorption);
+        buffer.flip();
+        return buffer;
     }
-}
\ No newline at end of file
+}
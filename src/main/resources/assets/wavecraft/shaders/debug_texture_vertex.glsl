@@ -3,7 +3,11 @@
 layout(location = 0) in vec3 aPos; // La posición del punto que vamos a dibujar
 
 uniform mat4 modelViewProjectionMatrix;
+#ifdef WAVECRAFT_PACKED_OCCUPANCY
+uniform usampler3D worldTexture; // 32 vóxeles en X por texel R32UI
+#else
 uniform sampler3D worldTexture;
+#endif
 uniform ivec3 worldOffset;
 
 out vec4 vColor; // Color que pasaremos al fragment shader
@@ -15,12 +19,17 @@ void main() {
     // Calculamos a qué coordenada de la textura corresponde
     ivec3 texCoord = ivec3(floor(worldPos)) - worldOffset;
 
-    // Leemos la textura en esa coordenada
-    float solidValue = texelFetch(worldTexture, texCoord, 0).r;
-
-    // Si el valor del canal rojo es > 0.5, el bloque es sólido (lo pintamos de rojo).
-    // Si no, es aire (lo pintamos de verde).
-    if (solidValue > 0.5) {
+    // Leemos la textura en esa coordenada (el volumen es toroidal: el vóxel es la coordenada del mundo mod tamaño)
+    ivec3 ringCoord = (texCoord + worldOffset) & (textureSize(worldTexture, 0).y - 1);
+#ifdef WAVECRAFT_PACKED_OCCUPANCY
+    uint word = texelFetch(worldTexture, ivec3(ringCoord.x >> 5, ringCoord.yz), 0).r;
+    bool solid = ((word >> uint(ringCoord.x & 31)) & 1u) != 0u;
+#else
+    bool solid = texelFetch(worldTexture, ringCoord, 0).r > 0.5;
+#endif
+
+    // Si el bloque es sólido lo pintamos de rojo; si es aire, de verde.
+    if (solid) {
         vColor = vec4(1.0, 0.0, 0.0, 1.0); // Rojo opaco
     } else {
         vColor = vec4(0.0, 1.0, 0.0, 0.5); // Verde semi-transparente
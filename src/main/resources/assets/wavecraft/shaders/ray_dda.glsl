@@ -0,0 +1,224 @@
+// Código común a los dos programas de trazado (ray_vertex.glsl y ray_geometry.glsl):
+// uniforms del mundo, DDA de un rebote y terminación por energía. ShaderHelper lo inserta con #include.
+
+// --- UNIFORMS ---
+// El volumen es toroidal (WorldTextureCache): el bloque del mundo p vive en el texel p mod tamaño, así que al
+// desplazarse con el jugador solo se suben las losas que entran. worldOffset es el origen lógico (múltiplo de 16).
+#ifdef WAVECRAFT_PACKED_OCCUPANCY
+// Ocupación empaquetada (VoxelGrid.getOccupancyWords): cada texel R32UI guarda 32 vóxeles consecutivos en X,
+// así que la textura mide (tamaño / 32) x tamaño x tamaño. La absorción va aparte, un byte por vóxel.
+uniform usampler3D worldTexture;
+uniform sampler3D absorptionTexture;
+#else
+// Un texel RGBA8 por vóxel: r > 0.5 si es sólido, g = absorción.
+uniform sampler3D worldTexture;
+#endif
+uniform ivec3 worldOffset;
+// Pirámide de ocupación (WorldTextureCache): r > 0.5 si el ladrillo de 4³ / 16³ tiene algún vóxel sólido.
+uniform sampler3D brick4Texture;
+uniform sampler3D brick16Texture;
+// Altura local máxima (0..255 en r) por baldosa de 16x16 columnas, en una textura de una sola capa (VoxelGrid.getTileTop).
+uniform sampler3D skyTexture;
+// Terminación por energía (RayTermination): x = umbral, y = energía de la ruleta rusa (0 = sin ruleta).
+uniform vec2 termination;
+uniform uint terminationSeed;
+
+// --- CONSTANTES ---
+const float epsilon = 0.001;
+const int maxDdaSteps = 256;
+const float maxDistance = 500.0;
+
+// Lado del volumen en vóxeles: el alto de la textura de ocupación (con la empaquetada, el ancho va dividido entre 32).
+int volumeSize() {
+    return textureSize(worldTexture, 0).y;
+}
+
+// Coordenada relativa al origen (blockCoord_tex) -> vóxel del anillo. El tamaño es potencia de dos.
+ivec3 ringCoord(ivec3 blockCoord_tex) {
+    return (blockCoord_tex + worldOffset) & (volumeSize() - 1);
+}
+
+bool isSolidBlock(ivec3 blockCoord_tex) {
+    if (any(lessThan(blockCoord_tex, ivec3(0))) || any(greaterThanEqual(blockCoord_tex, ivec3(volumeSize())))) {
+        return false;
+    }
+    ivec3 ring = ringCoord(blockCoord_tex);
+#ifdef WAVECRAFT_PACKED_OCCUPANCY
+    uint word = texelFetch(worldTexture, ivec3(ring.x >> 5, ring.yz), 0).r;
+    return ((word >> uint(ring.x & 31)) & 1u) != 0u;
+#else
+    return texelFetch(worldTexture, ring, 0).r > 0.5;
+#endif
+}
+
+// Absorción del vóxel (0..1); WorldTextureCache la resuelve por BlockState.
+float blockAbsorption(ivec3 blockCoord_tex) {
+#ifdef WAVECRAFT_PACKED_OCCUPANCY
+    return texelFetch(absorptionTexture, ringCoord(blockCoord_tex), 0).r;
+#else
+    return texelFetch(worldTexture, ringCoord(blockCoord_tex), 0).g;
+#endif
+}
+
+// Lado del mayor ladrillo vacío que contiene la celda (16 o 4), o 0 si hay que avanzar vóxel a vóxel.
+// Igual que VoxelGrid.emptyBrickSize: fuera del volumen todo es aire.
+int emptyBrickSize(ivec3 blockCoord_tex) {
+    if (any(lessThan(blockCoord_tex, ivec3(0))) || any(greaterThanEqual(blockCoord_tex, ivec3(volumeSize())))) {
+        return 16;
+    }
+    ivec3 ring = ringCoord(blockCoord_tex);
+    if (texelFetch(brick16Texture, ring / 16, 0).r < 0.5) return 16;
+    if (texelFetch(brick4Texture, ring / 4, 0).r < 0.5) return 4;
+    return 0;
+}
+
+// Igual que VoxelGrid.hasOpenSky: el rayo sube y ya está por encima de todas las columnas que puede sobrevolar
+// antes de salir por el techo del volumen, así que no puede chocar con nada. p_tex en coordenadas de la textura.
+bool hasOpenSky(vec3 p_tex, vec3 dir) {
+    if (dir.y <= 0.0) return false;
+    float size = float(volumeSize());
+    if (p_tex.y >= size) return true;
+
+    float t = (size - p_tex.y) / dir.y;
+    ivec2 lo = ivec2(floor(min(p_tex.xz, p_tex.xz + dir.xz * t)));
+    ivec2 hi = ivec2(floor(max(p_tex.xz, p_tex.xz + dir.xz * t)));
+    if (any(lessThan(hi, ivec2(0))) || any(greaterThanEqual(lo, ivec2(int(size))))) return true;
+
+    lo = clamp(lo, ivec2(0), ivec2(int(size) - 1)) / 16;
+    hi = clamp(hi, ivec2(0), ivec2(int(size) - 1)) / 16;
+    int tileMask = int(size) / 16 - 1;
+    ivec2 tileOffset = worldOffset.xz / 16; // Exacto: worldOffset es múltiplo de 16
+    for (int tz = lo.y; tz <= hi.y; tz++) {
+        for (int tx = lo.x; tx <= hi.x; tx++) {
+            ivec2 tile = (ivec2(tx, tz) + tileOffset) & tileMask;
+            float top = floor(texelFetch(skyTexture, ivec3(tile, 0), 0).r * 255.0 + 0.5);
+            if (top > p_tex.y) return false;
+        }
+    }
+    return true;
+}
+
+// Distancia (en t) hasta la siguiente frontera de la celda 'cell' en un eje.
+float sideDistance(int cell, int step, float origin, float tDelta) {
+    return (step > 0) ? (float(cell) + 1.0 - origin) * tDelta : (origin - float(cell)) * tDelta;
+}
+
+// Mismo hash PCG que RayTermination.random: sin estado, para que CPU y GPU (y cada vértice que repite
+// el camino en el modo por vértice) tomen las mismas decisiones.
+uint pcgHash(uint v) {
+    uint state = v * 747796405u + 2891336453u;
+    uint word = ((state >> ((state >> 28u) + 4u)) ^ state) * 277803737u;
+    return (word >> 22u) ^ word;
+}
+
+float terminationRandom(int ray, int bounceNum) {
+    uint h = pcgHash(pcgHash(terminationSeed + uint(ray)) + uint(bounceNum));
+    return float(h >> 8u) * (1.0 / 16777216.0);
+}
+
+// Devuelve la energía con la que sigue el rayo tras el rebote, o un valor negativo si muere.
+float applyTermination(float energy, int ray, int bounceNum) {
+    if (termination.y > 0.0) {
+        if (energy >= termination.y) return energy;
+        return terminationRandom(ray, bounceNum) * termination.y < energy ? termination.y : -1.0;
+    }
+    return energy < termination.x ? -1.0 : energy;
+}
+
+vec3 ddaBounce(vec3 segmentOrigin_world, vec3 segmentDir_world, out vec3 hitNormal_world, out float travelDistance, out float hitAbsorption) {
+    hitAbsorption = 0.0;
+    // --- NUEVA COMPROBACIÓN DE ROBUSTEZ ---
+    if (length(segmentDir_world) < 0.001) {
+        hitNormal_world = vec3(0.0);
+        travelDistance = 0.0;
+        return segmentOrigin_world; // Devuelve el origen si no hay dirección
+    }
+    // --- FIN DE LA COMPROBACIÓN ---
+
+    ivec3 mapPos = ivec3(floor(segmentOrigin_world));
+    vec3 tDelta = abs(vec3(1.0) / segmentDir_world);
+    ivec3 step = ivec3(sign(segmentDir_world));
+    vec3 sideDist;
+
+    sideDist.x = sideDistance(mapPos.x, step.x, segmentOrigin_world.x, tDelta.x);
+    sideDist.y = sideDistance(mapPos.y, step.y, segmentOrigin_world.y, tDelta.y);
+    sideDist.z = sideDistance(mapPos.z, step.z, segmentOrigin_world.z, tDelta.z);
+
+    travelDistance = 0.0;
+    hitNormal_world = vec3(0.0);
+
+    // Último ladrillo de 4³ ocupado: mientras el rayo siga dentro no se vuelve a leer la pirámide
+    ivec3 occupiedBrick = ivec3(-2147483647);
+    // maxDdaSteps limita las celdas cruzadas, no las iteraciones: un salto de ladrillo gasta las que habría
+    // recorrido el DDA vóxel a vóxel, así que la pirámide no cambia hasta dónde llega el rayo
+    int cells = 0;
+    while (cells < maxDdaSteps) {
+        int brick = 0;
+        ivec3 brick4 = (mapPos - worldOffset) >> 2;
+        if (brick4 != occupiedBrick) {
+            brick = emptyBrickSize(mapPos - worldOffset);
+            if (brick == 0) occupiedBrick = brick4;
+        }
+        if (brick > 0) {
+            // En el cielo: si ya no queda terreno por encima del rayo, escapa sin recorrer el resto
+            if (brick == 16 && step.y > 0
+                    && hasOpenSky(segmentOrigin_world + segmentDir_world * travelDistance - vec3(worldOffset), segmentDir_world)) {
+                break;
+            }
+            // Ladrillo vacío: se cruza de un salto hasta la cara por la que sale el rayo (ver CpuRayTracer.ddaBounce)
+            ivec3 brickMin = worldOffset + ((mapPos - worldOffset) & ivec3(-brick));
+            ivec3 farCell = brickMin + ivec3(step.x > 0 ? brick - 1 : 0, step.y > 0 ? brick - 1 : 0, step.z > 0 ? brick - 1 : 0);
+            vec3 exitDist = vec3(
+                step.x == 0 ? 1e30 : sideDistance(farCell.x, step.x, segmentOrigin_world.x, tDelta.x),
+                step.y == 0 ? 1e30 : sideDistance(farCell.y, step.y, segmentOrigin_world.y, tDelta.y),
+                step.z == 0 ? 1e30 : sideDistance(farCell.z, step.z, segmentOrigin_world.z, tDelta.z));
+
+            int axis = (exitDist.x < exitDist.y && exitDist.x < exitDist.z) ? 0 : (exitDist.y < exitDist.z ? 1 : 2);
+            ivec3 fromPos = mapPos;
+            travelDistance = exitDist[axis];
+            mapPos = clamp(ivec3(floor(segmentOrigin_world + segmentDir_world * travelDistance)), brickMin, brickMin + ivec3(brick - 1));
+            mapPos[axis] = farCell[axis] + step[axis];
+            hitNormal_world = vec3(0.0);
+            hitNormal_world[axis] = float(-step[axis]);
+
+            sideDist.x = sideDistance(mapPos.x, step.x, segmentOrigin_world.x, tDelta.x);
+            sideDist.y = sideDistance(mapPos.y, step.y, segmentOrigin_world.y, tDelta.y);
+            sideDist.z = sideDistance(mapPos.z, step.z, segmentOrigin_world.z, tDelta.z);
+
+            ivec3 crossed = abs(mapPos - fromPos);
+            cells += crossed.x + crossed.y + crossed.z;
+            if (cells > maxDdaSteps) break; // Sin pasos dentro de un ladrillo vacío: no habría chocado con nada
+        } else if (sideDist.x < sideDist.y && sideDist.x < sideDist.z) {
+            cells++;
+            travelDistance = sideDist.x;
+            sideDist.x += tDelta.x;
+            mapPos.x += step.x;
+            hitNormal_world = vec3(-step.x, 0.0, 0.0);
+        } else if (sideDist.y < sideDist.z) {
+            cells++;
+            travelDistance = sideDist.y;
+            sideDist.y += tDelta.y;
+            mapPos.y += step.y;
+            hitNormal_world = vec3(0.0, -step.y, 0.0);
+        } else {
+            cells++;
+            travelDistance = sideDist.z;
+            sideDist.z += tDelta.z;
+            mapPos.z += step.z;
+            hitNormal_world = vec3(0.0, 0.0, -step.z);
+        }
+
+        if (travelDistance > maxDistance) {
+            hitNormal_world = vec3(0.0);
+            return segmentOrigin_world + segmentDir_world * maxDistance;
+        }
+
+        if (isSolidBlock(mapPos - worldOffset)) {
+            hitAbsorption = blockAbsorption(mapPos - worldOffset);
+            return segmentOrigin_world + segmentDir_world * travelDistance;
+        }
+    }
+
+    hitNormal_world = vec3(0.0);
+    return segmentOrigin_world + segmentDir_world * maxDistance;
+}
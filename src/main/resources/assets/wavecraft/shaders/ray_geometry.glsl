@@ -0,0 +1,72 @@
+#version 330 core
+
+// Trazado de coste lineal: cada invocación recorre los rebotes de un rayo una sola vez y emite
+// un punto por vértice de la trayectoria, en orden. El registro y su significado son los mismos
+// que en ray_vertex.glsl, así que el buffer de feedback queda igual: [rayo][vértice].
+// RayShaderHandler define WAVECRAFT_MAX_VERTICES al compilar (max_vertices debe ser constante).
+layout(points) in;
+layout(points, max_vertices = WAVECRAFT_MAX_VERTICES) out;
+
+in vec3 vRayOrigin[];
+in vec3 vRayDirection[];
+flat in int vRayIndex[];
+
+// Puntos por rayo (maxBounces + 1); nunca mayor que WAVECRAFT_MAX_VERTICES.
+uniform int numVertices;
+
+// --- SALIDAS PARA TRANSFORM FEEDBACK (registro compacto de 8 floats) ---
+out vec3 outPosition;
+out float bounceStatus;
+out vec3 outNormal;
+out float outEnergy;
+
+#include "ray_dda.glsl"
+
+void emitPoint(vec3 position, float status, vec3 normal, float energy) {
+    outPosition = position;
+    bounceStatus = status;
+    outNormal = normal;
+    outEnergy = energy;
+    EmitVertex();
+    EndPrimitive();
+}
+
+void main() {
+    int ray = vRayIndex[0];
+    vec3 currentRayOrigin = vRayOrigin[0];
+    vec3 currentRayDir = normalize(vRayDirection[0]);
+    emitPoint(currentRayOrigin, 1.0, vec3(0.0), 1.0);
+
+    float energy = 1.0;
+    int vertex = 1;
+    bool terminated = false;
+    vec3 lastPoint = currentRayOrigin;
+
+    for (; vertex < numVertices && !terminated; vertex++) {
+        int bounceNum = vertex - 1;
+        vec3 hitNormal;
+        float travelDistance;
+        float hitAbsorption;
+        vec3 hitPoint = ddaBounce(currentRayOrigin, currentRayDir, hitNormal, travelDistance, hitAbsorption);
+        lastPoint = hitPoint;
+
+        float remaining = length(hitNormal) < 0.1 ? energy : applyTermination(energy * (1.0 - hitAbsorption), ray, bounceNum);
+        if (length(hitNormal) < 0.1 || remaining < 0.0) {
+            // Terminación: el rayo escapó o se quedó sin energía
+            terminated = true;
+            if (remaining < 0.0) energy = 0.0;
+            emitPoint(hitPoint, 0.0, vec3(0.0), energy);
+        } else {
+            energy = remaining;
+            emitPoint(hitPoint, 2.0, hitNormal, energy);
+            currentRayOrigin = hitPoint + hitNormal * epsilon;
+            currentRayDir = reflect(currentRayDir, hitNormal);
+        }
+    }
+
+    // El resto de vértices repiten el punto de terminación, igual que en el modo por vértice,
+    // para que cada rayo ocupe exactamente numVertices registros.
+    for (; vertex < numVertices; vertex++) {
+        emitPoint(lastPoint, 0.0, vec3(0.0), energy);
+    }
+}
@@ -0,0 +1,16 @@
+#version 330 core
+
+// Vertex shader del trazado por geometry shader: un vértice por rayo (una instancia, divisor = 1)
+// que solo entrega el origen, la dirección y el índice del rayo a ray_geometry.glsl.
+layout(location = 0) in vec3 rayOrigin;
+layout(location = 1) in vec3 rayDirection;
+
+out vec3 vRayOrigin;
+out vec3 vRayDirection;
+flat out int vRayIndex;
+
+void main() {
+    vRayOrigin = rayOrigin;
+    vRayDirection = rayDirection;
+    vRayIndex = gl_InstanceID;
+}
@@ -1,91 +1,32 @@
 #version 330 core
 
-layout(location = 0) in float dummy;
-
-// --- UNIFORMS ---
-uniform vec3 rayOrigin;
-uniform vec3 rayDirection;
-uniform sampler3D worldTexture;
-uniform ivec3 worldOffset;
+// --- ATRIBUTOS POR INSTANCIA (un rayo por instancia, divisor = 1) ---
+// gl_VertexID es el índice del vértice dentro de la trayectoria del rayo
+// y gl_InstanceID el índice del rayo dentro del lote.
+layout(location = 0) in vec3 rayOrigin;
+layout(location = 1) in vec3 rayDirection;
 
 // --- SALIDAS PARA TRANSFORM FEEDBACK ---
+// Registro compacto de 8 floats: lo único que lee el juego.
+// outEnergy es la energía que le queda al rayo tras los rebotes hasta este vértice (producto de 1 - absorción).
 out vec3 outPosition;
 out float bounceStatus;
 out vec3 outNormal;
+out float outEnergy;
+
+// El programa de depuración (RayShaderHandler lo compila con WAVECRAFT_DEBUG_OUTPUT definido)
+// añade detrás del registro compacto estos 17 floats, solo para imprimirlos por consola.
+#ifdef WAVECRAFT_DEBUG_OUTPUT
 out vec3 debugCoord_tex;
-out float debugCode;
 out vec3 outRayOrigin;
 out vec3 outRayDirection;
 out vec3 outHitPointBeforeEpsilon;
 out vec3 outHitBlockCenter;
 out float outAccumulatedT;
+out float debugCode;
+#endif
 
-// --- CONSTANTES ---
-const float epsilon = 0.001;
-const int maxDdaSteps = 256;
-const float maxDistance = 500.0;
-
-bool isSolidBlock(ivec3 blockCoord_tex) {
-    ivec3 texSize = textureSize(worldTexture, 0);
-    if (any(lessThan(blockCoord_tex, ivec3(0))) || any(greaterThanEqual(blockCoord_tex, texSize))) {
-        return false;
-    }
-    return texelFetch(worldTexture, blockCoord_tex, 0).r > 0.5;
-}
-
-vec3 ddaBounce(vec3 segmentOrigin_world, vec3 segmentDir_world, out vec3 hitNormal_world, out float travelDistance) {
-    // --- NUEVA COMPROBACIÓN DE ROBUSTEZ ---
-    if (length(segmentDir_world) < 0.001) {
-        hitNormal_world = vec3(0.0);
-        travelDistance = 0.0;
-        return segmentOrigin_world; // Devuelve el origen si no hay dirección
-    }
-    // --- FIN DE LA COMPROBACIÓN ---
-
-    ivec3 mapPos = ivec3(floor(segmentOrigin_world));
-    vec3 tDelta = abs(vec3(1.0) / segmentDir_world);
-    ivec3 step = ivec3(sign(segmentDir_world));
-    vec3 sideDist;
-
-    sideDist.x = (step.x > 0) ? (mapPos.x + 1.0 - segmentOrigin_world.x) * tDelta.x : (segmentOrigin_world.x - mapPos.x) * tDelta.x;
-    sideDist.y = (step.y > 0) ? (mapPos.y + 1.0 - segmentOrigin_world.y) * tDelta.y : (segmentOrigin_world.y - mapPos.y) * tDelta.y;
-    sideDist.z = (step.z > 0) ? (mapPos.z + 1.0 - segmentOrigin_world.z) * tDelta.z : (segmentOrigin_world.z - mapPos.z) * tDelta.z;
-
-    travelDistance = 0.0;
-    hitNormal_world = vec3(0.0);
-
-    for (int i = 0; i < maxDdaSteps; i++) {
-        if (sideDist.x < sideDist.y && sideDist.x < sideDist.z) {
-            travelDistance = sideDist.x;
-            sideDist.x += tDelta.x;
-            mapPos.x += step.x;
-            hitNormal_world = vec3(-step.x, 0.0, 0.0);
-        } else if (sideDist.y < sideDist.z) {
-            travelDistance = sideDist.y;
-            sideDist.y += tDelta.y;
-            mapPos.y += step.y;
-            hitNormal_world = vec3(0.0, -step.y, 0.0);
-        } else {
-            travelDistance = sideDist.z;
-            sideDist.z += tDelta.z;
-            mapPos.z += step.z;
-            hitNormal_world = vec3(0.0, 0.0, -step.z);
-        }
-
-        if (travelDistance > maxDistance) {
-            hitNormal_world = vec3(0.0);
-            return segmentOrigin_world + segmentDir_world * maxDistance;
-        }
-
-        if (isSolidBlock(mapPos - worldOffset)) {
-            return segmentOrigin_world + segmentDir_world * travelDistance;
-        }
-    }
-
-    hitNormal_world = vec3(0.0);
-    return segmentOrigin_world + segmentDir_world * maxDistance;
-}
-
+#include "ray_dda.glsl"
 
 void main() {
     // --- Configuración Inicial ---
@@ -97,6 +38,8 @@ void main() {
         outPosition = rayOrigin;
         bounceStatus = 1.0; // Estado "activo" o "inicio de segmento"
         outNormal = vec3(0.0);
+        outEnergy = 1.0;
+#ifdef WAVECRAFT_DEBUG_OUTPUT
         debugCode = 0.0;
         debugCoord_tex = vec3(0.0);
         outRayOrigin = rayOrigin;
@@ -104,42 +47,57 @@ void main() {
         outHitPointBeforeEpsilon = rayOrigin;
         outHitBlockCenter = floor(rayOrigin) + 0.5;
         outAccumulatedT = 0.0;
+#endif
         return; // Termina la ejecución para el vértice de origen
     }
 
     // --- LÓGICA DE CÁLCULO ITERATIVO MEJORADA ---
+    float energy = 1.0;
     for (int bounceNum = 0; bounceNum < gl_VertexID; bounceNum++) {
 
         vec3 hitNormal;
         float travelDistance;
+        float hitAbsorption;
 
+#ifdef WAVECRAFT_DEBUG_OUTPUT
         // Guardar estado para debug
         outRayOrigin = currentRayOrigin;
         outRayDirection = currentRayDir;
+#endif
 
         // Calcular el siguiente punto de colisión
-        vec3 hitPoint = ddaBounce(currentRayOrigin, currentRayDir, hitNormal, travelDistance);
+        vec3 hitPoint = ddaBounce(currentRayOrigin, currentRayDir, hitNormal, travelDistance, hitAbsorption);
 
         // Actualizar siempre las variables de salida con el resultado de la iteración actual.
         outPosition = hitPoint;
         outNormal = hitNormal;
+#ifdef WAVECRAFT_DEBUG_OUTPUT
         outAccumulatedT = travelDistance;
+        outHitPointBeforeEpsilon = hitPoint;
         debugCoord_tex = vec3(ivec3(floor(hitPoint)) - worldOffset);
         outHitBlockCenter = vec3(ivec3(floor(hitPoint))) + 0.5;
+#endif
 
         // Actualizar estado para la SIGUIENTE iteración del bucle
-        if (length(hitNormal) < 0.1) {
-            // Terminación: el rayo no rebotó
+        float remaining = length(hitNormal) < 0.1 ? energy : applyTermination(energy * (1.0 - hitAbsorption), gl_InstanceID, bounceNum);
+        if (length(hitNormal) < 0.1 || remaining < 0.0) {
+            // Terminación: el rayo escapó o se quedó sin energía. Los vértices siguientes repiten este
+            // punto, así que no hace falta seguir recorriendo rebotes.
             bounceStatus = 0.0;
+            outEnergy = remaining < 0.0 ? 0.0 : energy;
+            outNormal = vec3(0.0);
+#ifdef WAVECRAFT_DEBUG_OUTPUT
             debugCode = 0.0;
-
-            // Mantener la posición, pero anular la dirección para detener la propagación
-            currentRayOrigin = hitPoint;
-            currentRayDir = vec3(0.0);
+#endif
+            break;
         } else {
             // Rebote válido
             bounceStatus = 2.0; // 2.0 para un rebote, 1.0 para el origen
+            energy = remaining;
+            outEnergy = energy;
+#ifdef WAVECRAFT_DEBUG_OUTPUT
             debugCode = float(bounceNum + 1);
+#endif
 
             // Actualizar origen y dirección para el siguiente segmento
             currentRayOrigin = hitPoint + hitNormal * epsilon;